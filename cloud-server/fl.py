@@ -1,7 +1,8 @@
 """
 Federated learning state and aggregation for ElimuSMS.
 
-The MIDlet posts a 235-byte binary blob per round via POST /v1/fl/upload.
+The MIDlet posts a 235-byte binary blob per round via POST /v1/fl/upload,
+or several queued blobs in one v2 batch via POST /v1/fl/upload-batch.
 Aggregation is lazy: FedAvg runs when N>=5 deltas have arrived OR
 AGGREGATION_INTERVAL has elapsed, whichever comes first. Devices fetch
 the current global via GET /v1/fl/global.
@@ -20,6 +21,21 @@ Wire format (matches the 4-bit nibble layout of CompressedTinyML.java):
     ------------------------------------------------------------------
     total   235
 
+Batch upload wire format (v2): the uploads of one device, sharing a header.
+
+    offset  size   field
+    ------------------------------------------------------------------
+    0       1      protocol version (0x02)
+    1       16     anonymous device id, shared by every record
+    17      1      record count n (1..255)
+    18      n*218  per record: anchor round (u32) + 214 nibble bytes,
+                   i.e. a v1 upload without its first 17 bytes
+    ------------------------------------------------------------------
+
+Batch reply: u8 count n, then one byte per record in order, 1 if the
+record was accepted and 0 if not. The device deletes only the accepted
+records from its queue and retries the rest later.
+
 Global download wire format:
 
     offset  size   field
@@ -52,6 +68,10 @@ import numpy as np
 log = logging.getLogger("elimu-fl")
 
 # ── Constants matching CompressedTinyML.java ─────────────────────────────────
+# The MIDlet sizes its payloads from the loaded model (getParamCount()); the
+# server keeps one global of a fixed shape, so these must match the model.bin
+# the JAR ships. Uploads of any other size are rejected with 400 and stay in
+# the device's queue, so a layer-size change is a coordinated release.
 HIDDEN_SIZE  = 12
 FEATURE_SIZE = 26
 OUTPUT_SIZE  = 8
@@ -68,6 +88,12 @@ NIBBLE_BYTES     = (TOTAL_PARAMS + 1) // 2   # 214
 UPLOAD_SIZE      = HEADER_BYTES + NIBBLE_BYTES  # 235
 GLOBAL_SIZE      = 4 + TOTAL_PARAMS * 4      # 1716
 
+BATCH_PROTOCOL_VERSION = 0x02
+RECORD_OFFSET          = 1 + DEVICE_ID_BYTES            # 17
+BATCH_HEADER_BYTES     = RECORD_OFFSET + 1              # 18
+BATCH_RECORD_BYTES     = UPLOAD_SIZE - RECORD_OFFSET    # 218
+MAX_BATCH_RECORDS      = 255
+
 # ── Aggregation policy ───────────────────────────────────────────────────────
 AGG_THRESHOLD_N        = 5
 AGG_INTERVAL_SECONDS   = 7 * 24 * 60 * 60   # one week
@@ -130,6 +156,38 @@ def parse_upload(blob: bytes) -> tuple[bytes, int, np.ndarray]:
     return device_id, anchor_round, delta
 
 
+def parse_batch(blob: bytes) -> tuple[bytes, list[bytes]]:
+    """
+    Split a v2 batch upload into v1 uploads. Returns (device_id, uploads),
+    each upload a 235-byte blob ready for parse_upload / submit_delta.
+
+    Raises ValueError if the batch framing is malformed; the records'
+    contents are left to the per-record submit.
+    """
+    if len(blob) < BATCH_HEADER_BYTES:
+        raise ValueError(f"batch too short: {len(blob)} bytes")
+    if blob[0] != BATCH_PROTOCOL_VERSION:
+        raise ValueError(f"unsupported batch version 0x{blob[0]:02x}")
+    n = blob[RECORD_OFFSET]
+    if n == 0:
+        raise ValueError("empty batch")
+    expected = BATCH_HEADER_BYTES + n * BATCH_RECORD_BYTES
+    if len(blob) != expected:
+        raise ValueError(f"expected {expected} bytes for {n} records, got {len(blob)}")
+    device_id = blob[1:RECORD_OFFSET]
+    head = bytes([PROTOCOL_VERSION]) + device_id
+    uploads = []
+    for i in range(n):
+        at = BATCH_HEADER_BYTES + i * BATCH_RECORD_BYTES
+        uploads.append(head + blob[at:at + BATCH_RECORD_BYTES])
+    return device_id, uploads
+
+
+def encode_batch_ack(accepted: list[bool]) -> bytes:
+    """The batch reply: u8 count, then 1/0 per record."""
+    return bytes([len(accepted)]) + bytes(1 if a else 0 for a in accepted)
+
+
 def encode_global(global_arr: np.ndarray, current_round: int) -> bytes:
     """Pack the float32 global model + round number for /v1/fl/global."""
     if len(global_arr) != TOTAL_PARAMS:
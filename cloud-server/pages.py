@@ -0,0 +1,108 @@
+"""
+Paged answers for ElimuSMS: the X-Elimu-Next header and POST /v1/query/next.
+
+Over GPRS a long answer takes seconds to arrive, and a feature-phone screen
+shows a few hundred characters at a time. So /v1/query sends the first page
+of the answer only. When more is left it adds
+
+    X-Elimu-Next: <token>
+
+and the MIDlet's "More" posts the token back (application/x-www-form-urlencoded)
+
+    POST /v1/query/next    token=<token>
+
+for the next page: same body and headers as /v1/query, X-Elimu-Next again
+if there is yet more. The rest of the answer waits here, so "More" costs no
+LLM call. An unknown or expired token gets 404, and the MIDlet falls back
+to asking again. A token stays good until it expires, so a retried fetch
+gets the same page.
+
+Pages break at whitespace where they can; joined together they are the
+answer exactly.
+"""
+
+from __future__ import annotations
+
+import secrets
+import threading
+import time
+from collections import OrderedDict
+
+
+def split_pages(answer: str, page_chars: int) -> list[str]:
+    """
+    `answer` in pages of at most `page_chars` characters, breaking after
+    the last whitespace of a page when there is one in its second half.
+    Joined, the pages are `answer`; an empty answer is one empty page.
+    """
+    if page_chars < 1:
+        raise ValueError(f"page_chars must be positive, got {page_chars}")
+    pages = []
+    start = 0
+    while len(answer) - start > page_chars:
+        end = start + page_chars
+        cut = max(answer.rfind(" ", start, end), answer.rfind("\n", start, end))
+        if cut >= start + page_chars // 2:
+            end = cut + 1
+        pages.append(answer[start:end])
+        start = end
+    pages.append(answer[start:])
+    return pages
+
+
+class PageStore:
+    """
+    The unsent pages of recent answers, one continuation token per page.
+    Holds at most `max_pages` pages, oldest dropped first, each for `ttl_s`
+    seconds. A token may be fetched more than once, so a device retrying
+    after a dropped connection gets the same page again. Thread-safe.
+    """
+
+    def __init__(self, max_pages: int = 4096, ttl_s: float = 3600,
+                 clock=time.monotonic):
+        self._max = max_pages
+        self._ttl = ttl_s
+        self._clock = clock
+        self._lock = threading.Lock()
+        # token -> (expires at, page, token of the page after it or None)
+        self._entries: OrderedDict[str, tuple[float, str, str | None]] = OrderedDict()
+
+    def __len__(self) -> int:
+        with self._lock:
+            return len(self._entries)
+
+    def put(self, pages: list[str]) -> str | None:
+        """Keep `pages` for later; the first one's token, or None if none."""
+        if not pages:
+            return None
+        tokens = [secrets.token_urlsafe(16) for _ in pages] + [None]
+        with self._lock:
+            self._expire()
+            expires = self._clock() + self._ttl
+            for i, page in enumerate(pages):
+                self._entries[tokens[i]] = (expires, page, tokens[i + 1])
+            while len(self._entries) > self._max:
+                self._entries.popitem(last=False)
+        return tokens[0]
+
+    def take(self, token: str) -> tuple[str, str | None] | None:
+        """
+        The page for `token` and the token of the page after it (None if it
+        is the last), or None if `token` is unknown or expired.
+        """
+        with self._lock:
+            self._expire()
+            entry = self._entries.get(token)
+        if entry is None:
+            return None
+        _, page, next_token = entry
+        return page, next_token
+
+    def _expire(self) -> None:
+        """Caller holds the lock. Insertion order is expiry order."""
+        now = self._clock()
+        while self._entries:
+            token, (expires, _, _) = next(iter(self._entries.items()))
+            if expires > now:
+                break
+            del self._entries[token]
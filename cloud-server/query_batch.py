@@ -0,0 +1,77 @@
+"""
+Batched questions for ElimuSMS: POST /v1/query-batch.
+
+A question the MIDlet could not get to the cloud waits in its outbox
+(QuestionQueue.java). The next time a connection works, the waiting
+questions go out together in one POST instead of one round trip each, and
+the answers land in the learner's inbox.
+
+Request (application/x-www-form-urlencoded, as /v1/query):
+
+    grade=6&lang=sw-ke&n=<count>&q0=<question>&c0=<context>&q1=...
+
+    n is 1..MAX_QUERY_BATCH. c<i> carries the conversation context the
+    question was asked with and is omitted when there was none.
+
+Reply (application/octet-stream), one entry per question in request order:
+
+    offset  size   field
+    ------------------------------------------------------------------
+    0       1      count n
+    then per question:
+            1      status: RETRY (0), ANSWERED (1) or REJECTED (2)
+    ANSWERED only:
+            4      max-age in seconds for the device's AnswerCache
+                   (big-endian uint32; 0 = do not cache)
+            2      answer length in bytes (big-endian uint16)
+            len    answer, UTF-8
+    ------------------------------------------------------------------
+
+RETRY means the LLM failed this time; the device keeps the question and
+sends it again later. REJECTED (an empty question) is dropped for good.
+"""
+
+from __future__ import annotations
+
+import struct
+
+MAX_QUERY_BATCH = 16
+
+RETRY    = 0
+ANSWERED = 1
+REJECTED = 2
+
+
+def parse_query_batch(form) -> list[tuple[str, str]]:
+    """
+    The (question, context) pairs of a batch request, in order; blank
+    strings where a field is missing. `form` is any mapping with .get().
+
+    Raises ValueError if n is missing or out of range.
+    """
+    try:
+        n = int(form.get("n") or "")
+    except ValueError:
+        raise ValueError("n must be a number") from None
+    if not 1 <= n <= MAX_QUERY_BATCH:
+        raise ValueError(f"n must be 1..{MAX_QUERY_BATCH}, got {n}")
+    return [((form.get(f"q{i}") or "").strip(), (form.get(f"c{i}") or "").strip())
+            for i in range(n)]
+
+
+def encode_query_batch(results: list[tuple[int, int, str]]) -> bytes:
+    """
+    The reply for `results`, one (status, max_age_s, answer) per question;
+    max_age_s and answer are ignored unless status is ANSWERED.
+    """
+    out = bytearray([len(results)])
+    for status, max_age, answer in results:
+        out.append(status)
+        if status != ANSWERED:
+            continue
+        body = answer.encode("utf-8")
+        if len(body) > 0xFFFF:
+            raise ValueError(f"answer too long: {len(body)} bytes")
+        out += struct.pack(">IH", max_age, len(body))
+        out += body
+    return bytes(out)
@@ -19,7 +19,17 @@ The MIDlet contract:
               q=<question>&grade=6&lang=sw-ke
   - Response: text/plain; charset=utf-8, body is the answer (<= 4 KB).
               No JSON wrapper — SMSManager.readResponse decodes the body
-              as UTF-8 and shows it directly.
+              as UTF-8 and shows it as it arrives.
+              A long answer is paged: the body is its first
+              ANSWER_PAGE_CHARS and X-Elimu-Next carries a token for
+              POST /v1/query/next; see pages.py.
+              Cache-Control tells the MIDlet's AnswerCache how long it may
+              reuse the answer: max-age=ANSWER_CACHE_TTL_S, or no-store for
+              answers to follow-ups sent with conversation context and for
+              paged answers, whose body is only the first page.
+
+Questions the MIDlet queued while offline arrive together at
+POST /v1/query-batch; see query_batch.py for that wire format.
 
 Run:
     python3 -m venv .venv && source .venv/bin/activate
@@ -38,8 +48,12 @@ from openai import OpenAI
 
 from auto_retrain import retrain_from_corpus, start_scheduler
 from classify import classify_intent
-from fl import FLState, GLOBAL_SIZE, UPLOAD_SIZE
+from fl import FLState, GLOBAL_SIZE, UPLOAD_SIZE, encode_batch_ack, parse_batch
+from pages import PageStore, split_pages
 from privacy import PrivacyLedger
+from query_batch import (
+    ANSWERED, REJECTED, RETRY, encode_query_batch, parse_query_batch,
+)
 
 # ── Configuration (env vars) ────────────────────────────────────────────────
 LLM_BASE_URL = os.environ.get("LLM_BASE_URL", "http://localhost:11434/v1")
@@ -53,10 +67,18 @@ FL_AGGREGATOR = os.environ.get("FL_AGGREGATOR", "mean")  # mean|trimmed_mean|kru
 AUTO_RETRAIN_INTERVAL_HOURS = float(
     os.environ.get("AUTO_RETRAIN_INTERVAL_HOURS", "0"))  # 0 disables scheduling
 ADMIN_TOKEN = os.environ.get("ADMIN_TOKEN", "")  # protects /v1/admin/*
+# How long the MIDlet may keep an answer in its on-device cache (seconds).
+ANSWER_CACHE_TTL_S = int(os.environ.get("ANSWER_CACHE_TTL_S", str(7 * 24 * 3600)))
 
 # Hard char cap on the response body — well under the MIDlet's 4 KB read
 # limit even if the model emits 4-byte UTF-8 codepoints.
 MAX_RESPONSE_CHARS = 1000
+# Answers longer than a page go out a page at a time (see pages.py), so the
+# whole answer may be longer than one body.
+MAX_ANSWER_CHARS = 4000
+ANSWER_PAGE_CHARS = min(int(os.environ.get("ANSWER_PAGE_CHARS", "480")),
+                        MAX_RESPONSE_CHARS)
+ANSWER_PAGE_TTL_S = float(os.environ.get("ANSWER_PAGE_TTL_S", "3600"))
 
 SYSTEM_PROMPT = (
     "You are ElimuSMS, a STEM tutor for Kenyan Grade 6 students on the CBC "
@@ -94,6 +116,7 @@ client = OpenAI(
 )
 fl_state = FLState(FL_STATE_DIR, aggregator=FL_AGGREGATOR)
 privacy_ledger = PrivacyLedger(os.path.join(FL_STATE_DIR, "privacy.json"))
+page_store = PageStore(ttl_s=ANSWER_PAGE_TTL_S)
 start_scheduler(fl_state, AUTO_RETRAIN_INTERVAL_HOURS)
 app = Flask(__name__)
 
@@ -108,28 +131,8 @@ def query():
     ctx  = (request.form.get("ctx") or "").strip()
     log.info("query lang=%s q=%r ctx=%r", lang, question[:120], ctx[:120])
 
-    # The MIDlet sends a pipe-separated list of the student's recent prior
-    # questions in `ctx`. Surface them to the LLM as a brief preamble so
-    # follow-ups like "and what about chlorophyll?" make sense.
-    if ctx:
-        user_content = (
-            "Earlier in this conversation the student asked: "
-            + ctx + ".\n\nNow they ask: " + question
-        )
-    else:
-        user_content = question
-
     try:
-        completion = client.chat.completions.create(
-            model=LLM_MODEL,
-            max_tokens=LLM_MAX_TOK,
-            temperature=LLM_TEMP,
-            messages=[
-                {"role": "system", "content": SYSTEM_PROMPT},
-                {"role": "user",   "content": user_content},
-            ],
-        )
-        answer = (completion.choices[0].message.content or "").strip()
+        answer = _ask_llm(question, ctx)
     except Exception as e:
         # Common case: backend (e.g. local Ollama) isn't running. Log a
         # one-liner instead of a 60-line traceback; the client still gets
@@ -141,21 +144,119 @@ def query():
             503,
         )
 
-    # Char-based truncation guarantees valid UTF-8 (no mid-codepoint splits).
-    if len(answer) > MAX_RESPONSE_CHARS:
-        answer = answer[:MAX_RESPONSE_CHARS]
-
     # Cloud-arbitrated supervision signal: classify the question with the
     # deterministic keyword classifier and ship the label as an HTTP header.
     # The MIDlet reads X-Elimu-Intent and applies one SGD step on its
     # on-device classifier with confidence-weighted learning rate.
     intent_label = classify_intent(question)
-    response = Response(answer, status=200,
-                        mimetype="text/plain; charset=utf-8")
+    pages = split_pages(answer, ANSWER_PAGE_CHARS)
+    response = _page_response(pages[0], page_store.put(pages[1:]))
     response.headers["X-Elimu-Intent"] = intent_label
+    # A paged body is only the first page; caching it would replay a
+    # truncated answer without its continuation token.
+    max_age = _cache_max_age(ctx) if len(pages) == 1 else 0
+    if max_age > 0:
+        response.headers["Cache-Control"] = f"max-age={max_age}"
+    else:
+        response.headers["Cache-Control"] = "no-store"
+    return response
+
+
+@app.route("/v1/query/next", methods=["POST"])
+def query_next():
+    """The next page of a paged answer; see pages.py."""
+    token = (request.form.get("token") or "").strip()
+    page = page_store.take(token) if token else None
+    if page is None:
+        return jsonify(error="unknown or expired token"), 404
+    text, next_token = page
+    response = _page_response(text, next_token)
+    # The device caches whole answers by question, never a later page.
+    response.headers["Cache-Control"] = "no-store"
     return response
 
 
+def _page_response(text: str, next_token: str | None) -> Response:
+    """A page of an answer, with X-Elimu-Next if more pages follow."""
+    response = Response(text, status=200,
+                        mimetype="text/plain; charset=utf-8")
+    if next_token:
+        response.headers["X-Elimu-Next"] = next_token
+    return response
+
+
+@app.route("/v1/query-batch", methods=["POST"])
+def query_batch():
+    """
+    Questions the MIDlet queued while offline, answered in one request.
+    Each question is answered on its own; one the LLM fails on comes back
+    as RETRY and stays in the device's outbox.
+    """
+    try:
+        questions = parse_query_batch(request.form)
+    except ValueError as e:
+        return jsonify(error=str(e)), 400
+    log.info("query batch lang=%s n=%d", request.form.get("lang", "?"), len(questions))
+    results = []
+    for question, ctx in questions:
+        if not question:
+            results.append((REJECTED, 0, ""))
+            continue
+        try:
+            answer = _ask_llm(question, ctx)
+        except Exception as e:
+            log.warning("LLM call failed in batch (%s): %s",
+                        type(e).__name__, str(e).split("\n")[0][:120])
+            results.append((RETRY, 0, ""))
+            continue
+        # Inbox answers are not paged: the device takes one body each.
+        results.append((ANSWERED, _cache_max_age(ctx), answer[:MAX_RESPONSE_CHARS]))
+    body = encode_query_batch(results)
+    return Response(body, status=200,
+                    mimetype="application/octet-stream",
+                    headers={"Content-Length": str(len(body))})
+
+
+def _ask_llm(question: str, ctx: str) -> str:
+    """The LLM's answer, cut to MAX_ANSWER_CHARS; raises if the call fails."""
+    # The MIDlet sends a pipe-separated list of the student's recent prior
+    # questions in `ctx`. Surface them to the LLM as a brief preamble so
+    # follow-ups like "and what about chlorophyll?" make sense.
+    if ctx:
+        user_content = (
+            "Earlier in this conversation the student asked: "
+            + ctx + ".\n\nNow they ask: " + question
+        )
+    else:
+        user_content = question
+
+    completion = client.chat.completions.create(
+        model=LLM_MODEL,
+        max_tokens=LLM_MAX_TOK,
+        temperature=LLM_TEMP,
+        messages=[
+            {"role": "system", "content": SYSTEM_PROMPT},
+            {"role": "user",   "content": user_content},
+        ],
+    )
+    answer = (completion.choices[0].message.content or "").strip()
+    # Char-based truncation guarantees valid UTF-8 (no mid-codepoint splits).
+    if len(answer) > MAX_ANSWER_CHARS:
+        answer = answer[:MAX_ANSWER_CHARS]
+    return answer
+
+
+def _cache_max_age(ctx: str) -> int:
+    """
+    Seconds the MIDlet's AnswerCache may keep an answer, 0 for not at all.
+    The answer to a follow-up may lean on the earlier turns, so only
+    standalone questions may be answered again from the device's cache.
+    """
+    if ctx or ANSWER_CACHE_TTL_S <= 0:
+        return 0
+    return ANSWER_CACHE_TTL_S
+
+
 @app.route("/health", methods=["GET"])
 def health():
     return _plain("ok", 200)
@@ -182,6 +283,34 @@ def fl_upload():
     return jsonify(result), 200
 
 
+@app.route("/v1/fl/upload-batch", methods=["POST"])
+def fl_upload_batch():
+    """
+    Several queued deltas from one device in one POST (v2 batch, see fl.py).
+    Each record is submitted on its own; the binary reply acknowledges them
+    one by one, so a partial failure costs the device only the rejected ones.
+    """
+    try:
+        device_id, uploads = parse_batch(request.get_data())
+    except ValueError as e:
+        return jsonify(error=str(e)), 400
+    device_id_hex = device_id.hex()
+    accepted = []
+    for blob in uploads:
+        try:
+            fl_state.submit_delta(blob)
+        except (ValueError, OSError) as e:
+            log.warning("batch record from %s rejected: %s", device_id_hex[:8], e)
+            accepted.append(False)
+            continue
+        privacy_ledger.record(device_id_hex)
+        accepted.append(True)
+    body = encode_batch_ack(accepted)
+    return Response(body, status=200,
+                    mimetype="application/octet-stream",
+                    headers={"Content-Length": str(len(body))})
+
+
 @app.route("/v1/fl/privacy", methods=["GET"])
 def fl_privacy():
     """
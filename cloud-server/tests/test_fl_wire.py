@@ -23,11 +23,18 @@ from hypothesis import HealthCheck, given, settings, strategies as st
 sys.path.insert(0, os.path.join(os.path.dirname(__file__), os.pardir))
 
 from fl import (
+    BATCH_HEADER_BYTES, BATCH_PROTOCOL_VERSION, BATCH_RECORD_BYTES,
     GLOBAL_SIZE, HEADER_BYTES, NIBBLE_BYTES, PROTOCOL_VERSION, TOTAL_PARAMS,
     UPLOAD_SIZE,
-    aggregate, encode_global, nibble_decode, nibble_encode, parse_upload,
+    aggregate, encode_batch_ack, encode_global, nibble_decode, nibble_encode,
+    parse_batch, parse_upload,
 )
 from classify import classify_intent, INTENT_LABELS
+from pages import PageStore, split_pages
+from query_batch import (
+    ANSWERED, MAX_QUERY_BATCH, REJECTED, RETRY,
+    encode_query_batch, parse_query_batch,
+)
 
 
 # ── Wire-format size invariants ─────────────────────────────────────────────
@@ -74,6 +81,56 @@ def test_parse_upload_rejects_bad_protocol_version():
         parse_upload(bad)
 
 
+# ── v2 batch upload framing ─────────────────────────────────────────────────
+
+def _make_batch(blobs: list[bytes]) -> bytes:
+    """What FederatedLearning.encodeBatch sends for these v1 uploads."""
+    return (bytes([BATCH_PROTOCOL_VERSION]) + blobs[0][1:17] + bytes([len(blobs)])
+            + b"".join(b[17:] for b in blobs))
+
+
+def test_batch_constants_consistent():
+    assert BATCH_HEADER_BYTES == 18
+    assert BATCH_RECORD_BYTES == 218
+
+
+@given(n=st.integers(min_value=1, max_value=50))
+@settings(max_examples=25, deadline=None)
+def test_parse_batch_yields_the_v1_uploads(n):
+    rng = np.random.default_rng(n)
+    blobs = [_make_blob(0x42, r, rng.uniform(-1, 1, TOTAL_PARAMS).astype(np.float32))
+             for r in range(n)]
+    did, uploads = parse_batch(_make_batch(blobs))
+    assert did == bytes([0x42]) * 16
+    assert uploads == blobs
+    for r, u in enumerate(uploads):
+        assert parse_upload(u)[1] == r
+
+
+@pytest.mark.parametrize("trim", [1, BATCH_RECORD_BYTES, -1])
+def test_parse_batch_rejects_length_not_matching_count(trim):
+    delta = np.zeros(TOTAL_PARAMS, dtype=np.float32)
+    batch = _make_batch([_make_blob(0x01, 0, delta)] * 3)
+    bad = batch[:-trim] if trim > 0 else batch + b"\x00"
+    with pytest.raises(ValueError):
+        parse_batch(bad)
+
+
+def test_parse_batch_rejects_bad_version_and_empty():
+    delta = np.zeros(TOTAL_PARAMS, dtype=np.float32)
+    batch = _make_batch([_make_blob(0x01, 0, delta)])
+    with pytest.raises(ValueError):
+        parse_batch(bytes([PROTOCOL_VERSION]) + batch[1:])
+    with pytest.raises(ValueError):
+        parse_batch(batch[:17] + b"\x00")
+    with pytest.raises(ValueError):
+        parse_batch(batch[:10])
+
+
+def test_encode_batch_ack():
+    assert encode_batch_ack([True, False, True]) == b"\x03\x01\x00\x01"
+
+
 # ── Nibble codec property tests (hypothesis-driven) ────────────────────────
 
 @given(arr=st.lists(
@@ -272,6 +329,208 @@ def test_sms_inbound_rejects_short_chunk(flask_client):
     assert r.status_code == 400
 
 
+def _queued_blobs(n: int) -> list[bytes]:
+    rng = np.random.default_rng(7)
+    return [_make_blob(0x55, 0, rng.uniform(-0.1, 0.1, TOTAL_PARAMS).astype(np.float32))
+            for _ in range(n)]
+
+
+def test_fl_upload_batch_acknowledges_every_record(flask_client):
+    r = flask_client.post("/v1/fl/upload-batch", data=_make_batch(_queued_blobs(4)))
+    assert r.status_code == 200
+    assert r.data == b"\x04\x01\x01\x01\x01"
+    privacy = flask_client.get("/v1/fl/privacy?device=" + "55" * 16).get_json()
+    assert privacy["rounds"] == 4  # one ledger entry per accepted record
+
+
+def test_fl_upload_batch_partial_failure_acks_per_record(flask_client, monkeypatch):
+    import server
+    real = server.fl_state.submit_delta
+    calls = []
+
+    def flaky(blob):
+        calls.append(blob)
+        if len(calls) == 2:
+            raise OSError("disk full")
+        return real(blob)
+
+    monkeypatch.setattr(server.fl_state, "submit_delta", flaky)
+    r = flask_client.post("/v1/fl/upload-batch", data=_make_batch(_queued_blobs(3)))
+    assert r.status_code == 200
+    assert r.data == b"\x03\x01\x00\x01"
+    privacy = flask_client.get("/v1/fl/privacy?device=" + "55" * 16).get_json()
+    assert privacy["rounds"] == 2
+
+
+def test_fl_upload_batch_rejects_malformed_framing(flask_client):
+    batch = _make_batch(_queued_blobs(2))
+    r = flask_client.post("/v1/fl/upload-batch", data=batch[:-5])
+    assert r.status_code == 400
+    assert "expected" in r.get_json()["error"]
+
+
+# ── /v1/query cache hint for the MIDlet's AnswerCache ──────────────────────
+
+def test_query_standalone_answer_is_cacheable(flask_client):
+    r = flask_client.post("/v1/query", data={"q": "what is photosynthesis"})
+    assert r.status_code == 200
+    assert r.headers["Cache-Control"].startswith("max-age=")
+    assert int(r.headers["Cache-Control"].split("=")[1]) > 0
+
+
+def test_query_follow_up_answer_is_not_cacheable(flask_client):
+    r = flask_client.post("/v1/query", data={
+        "q": "and what about chlorophyll", "ctx": "what is photosynthesis",
+    })
+    assert r.status_code == 200
+    assert r.headers["Cache-Control"] == "no-store"
+
+
+# ── Paged answers: X-Elimu-Next and /v1/query/next ─────────────────────────
+
+@given(st.text(alphabet=st.sampled_from("ab \n\u00e9\U0001F600"), max_size=2000),
+       st.integers(1, 600))
+def test_split_pages_roundtrip(answer, page_chars):
+    pages = split_pages(answer, page_chars)
+    assert "".join(pages) == answer
+    assert all(0 < len(p) <= page_chars for p in pages) or pages == [""]
+
+
+def test_split_pages_breaks_at_whitespace():
+    assert split_pages("aaaa bbbb cccc", 7) == ["aaaa ", "bbbb ", "cccc"]
+    assert split_pages("a bbbbbbbbbb", 7) == ["a bbbbb", "bbbbb"]  # no space late enough
+
+
+def test_page_store_walks_pages():
+    store = PageStore()
+    token = store.put(["two ", "three"])
+    page, next_token = store.take(token)
+    assert page == "two "
+    assert store.take(token) == (page, next_token)  # a retry gets the same page
+    assert store.take(next_token) == ("three", None)
+    assert store.put([]) is None
+
+
+def test_page_store_expires_and_evicts():
+    now = [0.0]
+    store = PageStore(max_pages=2, ttl_s=60, clock=lambda: now[0])
+    old, mid = store.put(["a"]), store.put(["b"])
+    assert store.take(store.put(["c"])) == ("c", None)
+    assert store.take(old) is None          # evicted for "c"
+    now[0] = 61
+    assert store.take(mid) is None          # expired
+    assert len(store) == 0
+
+
+def test_query_long_answer_is_paged(flask_client, monkeypatch):
+    import server
+    answer = " ".join(f"word{i}" for i in range(400))
+    monkeypatch.setattr(server, "_ask_llm", lambda question, ctx: answer)
+    r = flask_client.post("/v1/query", data={"q": "explain the water cycle"})
+    assert r.status_code == 200
+    got = [r.get_data(as_text=True)]
+    assert len(got[0]) <= server.ANSWER_PAGE_CHARS
+    assert "X-Elimu-Intent" in r.headers
+    while "X-Elimu-Next" in r.headers:
+        r = flask_client.post("/v1/query/next", data={"token": r.headers["X-Elimu-Next"]})
+        assert r.status_code == 200
+        assert r.headers["Cache-Control"] == "no-store"
+        got.append(r.get_data(as_text=True))
+    assert len(got) > 2 and "".join(got) == answer
+
+
+def test_query_short_answer_has_no_next_page(flask_client):
+    r = flask_client.post("/v1/query", data={"q": "what is photosynthesis"})
+    assert r.status_code == 200
+    assert "X-Elimu-Next" not in r.headers
+
+
+def test_query_next_rejects_unknown_token(flask_client):
+    assert flask_client.post("/v1/query/next", data={"token": "nope"}).status_code == 404
+    assert flask_client.post("/v1/query/next", data={}).status_code == 404
+
+
+# ── /v1/query-batch: questions queued offline, answered in one POST ─────────
+
+def _decode_query_batch(data: bytes) -> list[tuple[int, int, str]]:
+    """Parse a query-batch reply the way SMSManager does."""
+    n, at, out = data[0], 1, []
+    for _ in range(n):
+        status = data[at]
+        at += 1
+        if status != ANSWERED:
+            out.append((status, 0, ""))
+            continue
+        max_age, length = struct.unpack(">IH", data[at:at + 6])
+        at += 6
+        out.append((status, max_age, data[at:at + length].decode("utf-8")))
+        at += length
+    assert at == len(data)
+    return out
+
+
+@given(st.lists(st.tuples(st.sampled_from([RETRY, ANSWERED, REJECTED]),
+                          st.integers(0, 2**32 - 1),
+                          st.text(max_size=300)),
+                min_size=1, max_size=MAX_QUERY_BATCH))
+def test_query_batch_reply_roundtrip(results):
+    expected = [(s, a, t) if s == ANSWERED else (s, 0, "") for s, a, t in results]
+    assert _decode_query_batch(encode_query_batch(results)) == expected
+
+
+def test_parse_query_batch_reads_questions_in_order():
+    form = {"n": "2", "q0": " what is soil ", "q1": "and clay?", "c1": "what is soil"}
+    assert parse_query_batch(form) == [("what is soil", ""), ("and clay?", "what is soil")]
+
+
+@pytest.mark.parametrize("n", [None, "", "x", "0", str(MAX_QUERY_BATCH + 1)])
+def test_parse_query_batch_rejects_bad_count(n):
+    form = {"q0": "what is soil"}
+    if n is not None:
+        form["n"] = n
+    with pytest.raises(ValueError):
+        parse_query_batch(form)
+
+
+def test_query_batch_answers_every_question(flask_client):
+    r = flask_client.post("/v1/query-batch", data={
+        "n": "3", "q0": "what is photosynthesis",
+        "q1": "and chlorophyll?", "c1": "what is photosynthesis", "q2": "  ",
+    })
+    assert r.status_code == 200
+    replies = _decode_query_batch(r.data)
+    assert replies[0][0] == ANSWERED and replies[0][1] > 0 and replies[0][2] == "test"
+    assert replies[1] == (ANSWERED, 0, "test")  # follow-up: not cacheable
+    assert replies[2] == (REJECTED, 0, "")
+
+
+def test_query_batch_llm_failure_leaves_question_queued(flask_client, monkeypatch):
+    import server
+    calls = []
+
+    def flaky(question, ctx):
+        calls.append(question)
+        if len(calls) == 2:
+            raise TimeoutError("backend wedged")
+        return "answer to " + question
+
+    monkeypatch.setattr(server, "_ask_llm", flaky)
+    r = flask_client.post("/v1/query-batch", data={
+        "n": "3", "q0": "what is soil", "q1": "what is clay", "q2": "what is loam",
+    })
+    assert r.status_code == 200
+    assert [(s, t) for s, _, t in _decode_query_batch(r.data)] == [
+        (ANSWERED, "answer to what is soil"), (RETRY, ""),
+        (ANSWERED, "answer to what is loam"),
+    ]
+
+
+def test_query_batch_rejects_bad_count(flask_client):
+    r = flask_client.post("/v1/query-batch", data={"n": "0"})
+    assert r.status_code == 400
+    assert "n must be" in r.get_json()["error"]
+
+
 # ── Server-side automatic retraining ────────────────────────────────────────
 
 def test_auto_retrain_promotes_weights_to_fl_global(tmp_path):
@@ -1,5 +1,5 @@
-// Quantised weights bundled with the app, byte-identical to the J2ME
-// CompressedTinyML.COMPRESSED_WEIGHTS / COMPRESSED_BIASES arrays.
+// Quantised weights bundled with the app, byte-identical to the packed
+// tensors in the J2ME model resource (resources/model_data.bin).
 // Trained by elimu-model/train_and_pack.py on the STEM-only corpus
 // (english_help intent retired). Quantised test acc ≈ 71.8%.
 //
@@ -0,0 +1,162 @@
+"""
+Versioned binary model container for CompressedTinyML.
+
+The container is shipped as resources/model_data.bin and read by
+CompressedTinyML.loadModel() through getResourceAsStream.
+
+Layout (big-endian, so the MIDlet can parse it with DataInputStream):
+
+  offset  size  field
+  0       4     magic "ELMD"
+  4       1     format version (1)
+  5       1     quantisation scheme (1 = NIBBLE4: q in 0..15,
+                w = (q - 7.5) / 7.5, even index in the low nibble)
+  6       2     input size   (features)
+  8       2     hidden size
+  10      2     output size  (intents)
+  12      1     label count  (== output size)
+  13      ...   labels, each a u16 length + ASCII bytes (Java writeUTF)
+          2     packed weight byte count
+          ...   packed weights: W1 (hidden x input, row-major) then
+                W2 (output x hidden, row-major)
+          2     packed bias byte count
+          ...   packed biases: b1 then b2
+          4     Adler-32 of every preceding byte
+
+Inputs 0-25 are the MIDlet's keyword features. A model with more inputs
+gets the rest as hashed words: every run of ASCII letters/digits in the
+lower-cased query sets input 26 + FNV-1a(word) % (n_in - 26); see
+hashed_bucket() below, which must agree with CompressedTinyML.hashWords.
+
+Usage (from the repository root):
+  python3 simulators/model_container.py \
+      --from-web elimu-web/src/weights.ts --out resources/model_data.bin
+  python3 simulators/model_container.py --dump resources/model_data.bin
+"""
+
+import argparse
+import re
+import struct
+import zlib
+
+MAGIC = b"ELMD"
+FORMAT_VERSION = 1
+QUANT_NIBBLE4 = 1
+
+DEFAULT_LABELS = [
+    "math_help", "science_help", "english_help", "quiz",
+    "general_help", "progress", "greeting", "farewell",
+]
+
+
+BASE_FEATURES = 26
+
+
+def hashed_bucket(word, n_in):
+    """Input index of a lower-case ASCII word in an n_in > 26 model."""
+    h = 0x811C9DC5
+    for ch in word:
+        h = ((h ^ ord(ch)) * 0x01000193) & 0xFFFFFFFF
+    return BASE_FEATURES + (h & 0x7FFFFFFF) % (n_in - BASE_FEATURES)
+
+
+def packed_len(n_values):
+    return (n_values + 1) // 2
+
+
+def write_container(path, weights, biases, n_in, n_hidden, n_out,
+                    labels=DEFAULT_LABELS, quant=QUANT_NIBBLE4):
+    """Write packed nibble tensors (as produced by pack_nibbles) to `path`."""
+    weights = bytes(bytearray(weights))
+    biases = bytes(bytearray(biases))
+    if len(labels) != n_out:
+        raise ValueError("need %d labels, got %d" % (n_out, len(labels)))
+    if len(weights) != packed_len(n_hidden * n_in + n_out * n_hidden):
+        raise ValueError("weight bytes %d do not match %d-%d-%d"
+                         % (len(weights), n_in, n_hidden, n_out))
+    if len(biases) != packed_len(n_hidden + n_out):
+        raise ValueError("bias bytes %d do not match %d-%d-%d"
+                         % (len(biases), n_in, n_hidden, n_out))
+
+    body = bytearray()
+    body += MAGIC
+    body += struct.pack(">BBHHHB", FORMAT_VERSION, quant,
+                        n_in, n_hidden, n_out, len(labels))
+    for label in labels:
+        raw = label.encode("ascii")
+        body += struct.pack(">H", len(raw)) + raw
+    body += struct.pack(">H", len(weights)) + weights
+    body += struct.pack(">H", len(biases)) + biases
+    body += struct.pack(">I", zlib.adler32(bytes(body)) & 0xFFFFFFFF)
+
+    with open(path, "wb") as fh:
+        fh.write(body)
+    return len(body)
+
+
+def read_container(path):
+    """Parse and validate a container; returns a dict of its fields."""
+    with open(path, "rb") as fh:
+        data = fh.read()
+    if len(data) < 17 or data[:4] != MAGIC:
+        raise ValueError("not an ELMD model container")
+    (stored,) = struct.unpack(">I", data[-4:])
+    if zlib.adler32(data[:-4]) & 0xFFFFFFFF != stored:
+        raise ValueError("checksum mismatch")
+    version, quant, n_in, n_hidden, n_out, n_labels = \
+        struct.unpack(">BBHHHB", data[4:13])
+    pos = 13
+    labels = []
+    for _ in range(n_labels):
+        (n,) = struct.unpack(">H", data[pos:pos + 2])
+        labels.append(data[pos + 2:pos + 2 + n].decode("ascii"))
+        pos += 2 + n
+    (wn,) = struct.unpack(">H", data[pos:pos + 2])
+    weights = data[pos + 2:pos + 2 + wn]
+    pos += 2 + wn
+    (bn,) = struct.unpack(">H", data[pos:pos + 2])
+    biases = data[pos + 2:pos + 2 + bn]
+    return {
+        "version": version, "quant": quant,
+        "n_in": n_in, "n_hidden": n_hidden, "n_out": n_out,
+        "labels": labels, "weights": weights, "biases": biases,
+    }
+
+
+def _hex_const(source, name):
+    m = re.search(name + r'\s*=\s*"([0-9A-Fa-f]+)"', source)
+    if not m:
+        raise ValueError(name + " not found")
+    return bytes.fromhex(m.group(1))
+
+
+def main():
+    ap = argparse.ArgumentParser(description=__doc__)
+    ap.add_argument("--from-web", help="elimu-web/src/weights.ts to convert")
+    ap.add_argument("--out", default="resources/model_data.bin")
+    ap.add_argument("--dump", help="print the header of an existing container")
+    ap.add_argument("--dims", default="26,12,8", help="input,hidden,output")
+    args = ap.parse_args()
+
+    if args.dump:
+        c = read_container(args.dump)
+        print("ELMD v%d quant=%d  %d-%d-%d  %d weight bytes, %d bias bytes"
+              % (c["version"], c["quant"], c["n_in"], c["n_hidden"],
+                 c["n_out"], len(c["weights"]), len(c["biases"])))
+        print("labels:", ", ".join(c["labels"]))
+        return
+
+    if not args.from_web:
+        ap.error("--from-web or --dump is required")
+    with open(args.from_web) as fh:
+        src = fh.read()
+    n_in, n_hidden, n_out = [int(x) for x in args.dims.split(",")]
+    size = write_container(args.out,
+                           _hex_const(src, "COMPRESSED_WEIGHTS_HEX"),
+                           _hex_const(src, "COMPRESSED_BIASES_HEX"),
+                           n_in, n_hidden, n_out)
+    print("Wrote %s (%d bytes)" % (args.out, size))
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,560 @@
+package com.elimu;
+
+import java.io.*;
+import javax.microedition.rms.*;
+
+/**
+ * Cloud answers kept on the handset, so a question asked again is answered
+ * without a GPRS round trip or an LLM call.
+ *
+ * Entries are keyed by the normalised query processQuery() routes
+ * (normalizeQuery + injectContext), so spellings the normaliser folds
+ * together share one entry. SMSManager stores every cloud answer it
+ * receives; processQuery() looks a question up once the cascade has decided
+ * it is bound for the cloud, so answers the rules or the network give are
+ * never displaced by cached ones.
+ *
+ * Index: INDEX_SLOTS chained buckets on String.hashCode(), lighter than a
+ * Hashtable, plus a doubly linked recency list. Entries are charged their
+ * RMS record size, and the least recently used are evicted while the total
+ * is over the byte budget.
+ *
+ * Near duplicates: a question that misses the exact key can still be
+ * answered by a cached question that differs only in surface form ("wht is
+ * photosyn", a trailing "?", a "science " prefix from the session context,
+ * one extra word in a long question). Each entry carries a 64-bit sketch:
+ *   bits  0-25  CompressedTinyML.keywordFeatures(), the network's inputs
+ *   bits 26-63  content words, each word's first STEM_CHARS letters hashed
+ *               (FNV-1a) to two of the 38 bits; question words, fillers and
+ *               subject names (already features) are skipped
+ * A question containing a digit gets no sketch, since a calculation with
+ * different numbers is a different question. Sketches are indexed in BANDS
+ * bucketed tables, one per 16-bit band, so any sketch within MAX_DISTANCE
+ * bits shares a band with the query (pigeonhole) and only those buckets are
+ * scanned. The guard accepts a candidate only if it is within MAX_DISTANCE
+ * bits, asks the same kind of question (what / how / why / when bits
+ * equal), shares content words and has SHARED_PER_DIFF shared content bits
+ * for every content bit that differs; the nearest wins, and a tie between
+ * different answers answers nothing. Near hits are counted apart from exact
+ * ones; benchmarkNearDuplicates() measures what the tier adds.
+ *
+ * Expiry: the server's Cache-Control header decides, "max-age=N" keeps the
+ * answer N seconds (at most MAX_TTL_MS) and "no-store" or "no-cache" not at
+ * all. Without the header, an answer given without conversation context is
+ * kept DEFAULT_TTL_MS and one given with context is not, since it may lean
+ * on the earlier turns. Expired entries are dropped when met.
+ *
+ * RMS: one record per entry in RMS_STORE, written when the answer arrives
+ * and deleted on eviction or expiry:
+ *   u8 format, i64 expiry (ms since the epoch), UTF question, UTF answer.
+ * Recency is not persisted (a hit would cost a record write); a new
+ * session ranks entries by age, oldest evicted first.
+ *
+ * Thread-safe: put() runs on the network worker, get() on the UI thread.
+ */
+final class AnswerCache {
+
+    private static final String RMS_STORE = "ElimuAnswers";
+    private static final int    FORMAT    = 1;
+    // Record bytes that are not question or answer text: format, expiry and
+    // the two UTF lengths.
+    private static final int    RECORD_OVERHEAD = 1 + 8 + 2 + 2;
+
+    private static final long DEFAULT_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long MAX_TTL_MS     = 30L * 24 * 60 * 60 * 1000;
+    private static final int  INDEX_SLOTS    = 64; // power of two
+
+    // Near-duplicate tier (see the class comment).
+    private static final int  STEM_CHARS      = 5;
+    private static final int  CONTENT_SHIFT   = 26;
+    private static final int  CONTENT_BITS    = 64 - CONTENT_SHIFT;
+    private static final long CONTENT_MASK    = -1L << CONTENT_SHIFT;
+    private static final long QUESTION_MASK   = 0xFL << 14; // features 14-17
+    private static final int  MAX_DISTANCE    = 3;
+    private static final int  SHARED_PER_DIFF = 3;
+    private static final int  BANDS           = 4;          // 16 bits each
+    private static final int  BAND_SLOTS      = 32;         // power of two
+
+    private static final String[] STOP_WORDS = {
+        "what", "whats", "which", "how", "why", "when", "where", "who", "the",
+        "are", "was", "were", "does", "did", "can", "could", "you", "your",
+        "please", "tell", "about", "and", "for", "with", "from", "that",
+        "this", "these", "those", "there", "their", "they", "its", "give",
+        "define", "definition", "explain", "meaning", "describe", "some",
+        "any", "has", "have", "will", "would", "should", "into", "our",
+        "science", "math", "english"
+    };
+
+    private static final class Entry {
+        final String question;
+        final String answer;
+        final long   expiresAt;
+        final int    bytes;     // RMS record size
+        final long   sketch;    // 0: never matched as a near duplicate
+        int          recordId;  // 0 until stored
+        Entry        chain;     // next in the same index slot
+        Entry[]      bandChain; // next in the same slot of each band table
+        Entry        newer, older;
+
+        Entry(String question, String answer, long expiresAt, int bytes) {
+            this.question  = question;
+            this.answer    = answer;
+            this.expiresAt = expiresAt;
+            this.bytes     = bytes;
+            this.sketch    = sketch(question);
+            if (sketch != 0) bandChain = new Entry[BANDS];
+        }
+    }
+
+    private final String  store;   // null: in-memory only (benchmarks)
+    private final int     budgetBytes;
+    private final Entry[] index = new Entry[INDEX_SLOTS];
+    private final Entry[] bands = new Entry[BANDS * BAND_SLOTS];
+    private Entry newest, oldest;
+    private int   usedBytes = 0;
+    private int   count     = 0;
+
+    /** Persistent cache backed by RMS; call load() before use. */
+    AnswerCache(int budgetBytes) {
+        this(RMS_STORE, budgetBytes);
+    }
+
+    AnswerCache(String store, int budgetBytes) {
+        this.store       = store;
+        this.budgetBytes = budgetBytes;
+    }
+
+    // ── Lookup ────────────────────────────────────────────────────────────────
+    /**
+     * The cached answer to `question` or, failing that, to a near duplicate
+     * of it; null if neither. Counts an exact hit, a near hit or a miss for
+     * the weekly report; call it only for questions bound for the cloud.
+     */
+    synchronized String get(String question) {
+        Entry e = live(question);
+        if (e != null) {
+            EvaluationLogger.recordAnswerCacheHit(e.bytes - RECORD_OVERHEAD);
+        } else if ((e = nearest(sketch(question))) != null) {
+            EvaluationLogger.recordAnswerCacheNearHit(e.bytes - RECORD_OVERHEAD);
+        } else {
+            EvaluationLogger.recordAnswerCacheMiss();
+            return null;
+        }
+        unlink(e);
+        linkNewest(e);
+        return e.answer;
+    }
+
+    /** True if get() would answer `question`; no counting, no recency. */
+    synchronized boolean contains(String question) {
+        return live(question) != null || nearest(sketch(question)) != null;
+    }
+
+    private Entry live(String question) {
+        Entry e = find(question);
+        if (e != null && e.expiresAt <= System.currentTimeMillis()) {
+            remove(e);
+            return null;
+        }
+        return e;
+    }
+
+    private Entry find(String question) {
+        for (Entry e = index[slot(question)]; e != null; e = e.chain) {
+            if (e.question.equals(question)) return e;
+        }
+        return null;
+    }
+
+    private static int slot(String question) {
+        return question.hashCode() & (INDEX_SLOTS - 1);
+    }
+
+    // ── Near duplicates ───────────────────────────────────────────────────────
+    /** The live entry the guard accepts for sketch `s`, nearest first, or null. */
+    private Entry nearest(long s) {
+        if (s == 0) return null;
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        int bestDistance = MAX_DISTANCE + 1;
+        boolean tied = false;
+        for (int b = 0; b < BANDS; b++) {
+            for (Entry e = bands[bandSlot(s, b)]; e != null; e = e.bandChain[b]) {
+                if (e.expiresAt <= now || !similar(s, e.sketch)) continue;
+                int d = bitCount(s ^ e.sketch);
+                if (d < bestDistance) {
+                    best = e;
+                    bestDistance = d;
+                    tied = false;
+                } else if (d == bestDistance && !e.answer.equals(best.answer)) {
+                    tied = true;
+                }
+            }
+        }
+        return tied ? null : best;
+    }
+
+    /** The confidence guard: may a cached sketch `c` answer query sketch `q`? */
+    private static boolean similar(long q, long c) {
+        long diff = q ^ c;
+        if ((diff & QUESTION_MASK) != 0) return false;
+        if (bitCount(diff) > MAX_DISTANCE) return false;
+        int shared = bitCount(q & c & CONTENT_MASK);
+        return shared > 0 && shared >= SHARED_PER_DIFF * bitCount(diff & CONTENT_MASK);
+    }
+
+    /**
+     * The 64-bit sketch of `question` (see the class comment), or 0 if it
+     * has a digit or no content word.
+     */
+    static long sketch(String question) {
+        long content = 0;
+        int n = question.length();
+        int start = -1;
+        for (int i = 0; i <= n; i++) {
+            char c = (i < n) ? Character.toLowerCase(question.charAt(i)) : ' ';
+            if (c >= '0' && c <= '9') return 0;
+            if (c >= 'a' && c <= 'z') {
+                if (start < 0) start = i;
+                continue;
+            }
+            if (start >= 0 && i - start >= 3 && !isStopWord(question, start, i)) {
+                int h = 0x811C9DC5; // FNV-1a, as CompressedTinyML.hashWords
+                int end = Math.min(i, start + STEM_CHARS);
+                for (int k = start; k < end; k++) {
+                    h = (h ^ Character.toLowerCase(question.charAt(k))) * 0x01000193;
+                }
+                h &= 0x7fffffff;
+                content |= 1L << (CONTENT_SHIFT + h % CONTENT_BITS);
+                content |= 1L << (CONTENT_SHIFT + (h >>> 8) % CONTENT_BITS);
+            }
+            start = -1;
+        }
+        if (content == 0) return 0;
+        return content | (CompressedTinyML.keywordFeatures(question) & 0xFFFFFFFFL);
+    }
+
+    private static boolean isStopWord(String text, int start, int end) {
+        int len = end - start;
+        for (int w = 0; w < STOP_WORDS.length; w++) {
+            String sw = STOP_WORDS[w];
+            if (sw.length() == len && text.regionMatches(true, start, sw, 0, len)) return true;
+        }
+        return false;
+    }
+
+    private static int bitCount(long x) {
+        int n = 0;
+        while (x != 0) {
+            x &= x - 1;
+            n++;
+        }
+        return n;
+    }
+
+    private static int bandSlot(long sketch, int band) {
+        int v = (int) (sketch >>> (16 * band)) & 0xFFFF;
+        return band * BAND_SLOTS + ((v ^ (v >>> 5) ^ (v >>> 10)) & (BAND_SLOTS - 1));
+    }
+
+    // ── Insertion and eviction ────────────────────────────────────────────────
+    /**
+     * Keep the cloud's `answer` to `question`, asked with conversation
+     * `context`, if `cacheControl` (the response's Cache-Control header,
+     * may be null) allows. Replaces an older answer to the same question.
+     */
+    synchronized void put(String question, String context, String answer,
+                          String cacheControl) {
+        long ttl = ttlMs(cacheControl, context.length() > 0);
+        if (ttl <= 0) return;
+        long expiresAt = System.currentTimeMillis() + ttl;
+        byte[] record;
+        try {
+            record = encode(expiresAt, question, answer);
+        } catch (IOException ex) {
+            return; // a UTF string over 64 KB; never from the cloud's 4 KB cap
+        }
+        if (record.length > budgetBytes / 4) return; // would flush a quarter of the cache
+        Entry old = find(question);
+        if (old != null) remove(old);
+        Entry e = new Entry(question, answer, expiresAt, record.length);
+        if (store != null) {
+            RecordStore rs = null;
+            try {
+                rs = RecordStore.openRecordStore(store, true);
+                e.recordId = rs.addRecord(record, 0, record.length);
+            } catch (RecordStoreException ex) {
+                log("put: ", ex.getMessage()); // keep it for this session only
+            } finally {
+                if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+            }
+        }
+        insert(e);
+        while (usedBytes > budgetBytes && oldest != e) remove(oldest);
+    }
+
+    /** Lifetime the server allowed for an answer, or 0 to not keep it. */
+    private static long ttlMs(String cacheControl, boolean withContext) {
+        if (cacheControl == null) return withContext ? 0 : DEFAULT_TTL_MS;
+        String cc = cacheControl.toLowerCase();
+        if (cc.indexOf("no-store") >= 0 || cc.indexOf("no-cache") >= 0) return 0;
+        int at = cc.indexOf("max-age=");
+        if (at < 0) return withContext ? 0 : DEFAULT_TTL_MS;
+        long seconds = 0;
+        for (int i = at + 8; i < cc.length(); i++) {
+            char c = cc.charAt(i);
+            if (c < '0' || c > '9') break;
+            seconds = seconds * 10 + (c - '0');
+            if (seconds * 1000 >= MAX_TTL_MS) return MAX_TTL_MS;
+        }
+        return seconds * 1000;
+    }
+
+    private void insert(Entry e) {
+        int s = slot(e.question);
+        e.chain  = index[s];
+        index[s] = e;
+        if (e.sketch != 0) {
+            for (int b = 0; b < BANDS; b++) {
+                int bs = bandSlot(e.sketch, b);
+                e.bandChain[b] = bands[bs];
+                bands[bs] = e;
+            }
+        }
+        linkNewest(e);
+        usedBytes += e.bytes;
+        count++;
+    }
+
+    /** Drop `e` from memory and RMS. */
+    private void remove(Entry e) {
+        int s = slot(e.question);
+        if (index[s] == e) {
+            index[s] = e.chain;
+        } else {
+            Entry p = index[s];
+            while (p.chain != e) p = p.chain;
+            p.chain = e.chain;
+        }
+        if (e.sketch != 0) {
+            for (int b = 0; b < BANDS; b++) {
+                int bs = bandSlot(e.sketch, b);
+                if (bands[bs] == e) {
+                    bands[bs] = e.bandChain[b];
+                } else {
+                    Entry p = bands[bs];
+                    while (p.bandChain[b] != e) p = p.bandChain[b];
+                    p.bandChain[b] = e.bandChain[b];
+                }
+            }
+        }
+        unlink(e);
+        usedBytes -= e.bytes;
+        count--;
+        if (e.recordId == 0) return;
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(store, false);
+            rs.deleteRecord(e.recordId);
+        } catch (RecordStoreException ex) {
+            log("remove: ", ex.getMessage());
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    private void linkNewest(Entry e) {
+        e.older = newest;
+        e.newer = null;
+        if (newest != null) newest.newer = e;
+        newest = e;
+        if (oldest == null) oldest = e;
+    }
+
+    private void unlink(Entry e) {
+        if (e.newer != null) e.newer.older = e.older; else newest = e.older;
+        if (e.older != null) e.older.newer = e.newer; else oldest = e.newer;
+        e.newer = null;
+        e.older = null;
+    }
+
+    // ── RMS persistence ───────────────────────────────────────────────────────
+    private static byte[] encode(long expiresAt, String question, String answer)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(FORMAT);
+        dos.writeLong(expiresAt);
+        dos.writeUTF(question);
+        dos.writeUTF(answer);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Restore the entries saved by earlier sessions, dropping expired and
+     * unreadable records and, oldest first, any over the budget. Call once
+     * at startup.
+     */
+    synchronized void load() {
+        if (store == null) return;
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(store, false);
+            int n = rs.getNumRecords();
+            int[] ids = new int[n];
+            RecordEnumeration en = rs.enumerateRecords(null, null, false);
+            n = 0;
+            while (en.hasNextElement() && n < ids.length) ids[n++] = en.nextRecordId();
+            en.destroy();
+            // Record ids grow with each add: ascending id is oldest first.
+            for (int i = 1; i < n; i++) {
+                int id = ids[i], j = i - 1;
+                while (j >= 0 && ids[j] > id) { ids[j + 1] = ids[j]; j--; }
+                ids[j + 1] = id;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < n; i++) {
+                Entry e = null;
+                try {
+                    byte[] record = rs.getRecord(ids[i]);
+                    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+                    if (dis.readUnsignedByte() == FORMAT) {
+                        long expiresAt = dis.readLong();
+                        String q = dis.readUTF();
+                        String a = dis.readUTF();
+                        if (expiresAt > now && find(q) == null) {
+                            e = new Entry(q, a, expiresAt, record.length);
+                        }
+                    }
+                } catch (IOException ex) {
+                    // unreadable: dropped below
+                }
+                if (e == null) {
+                    rs.deleteRecord(ids[i]);
+                    continue;
+                }
+                e.recordId = ids[i];
+                insert(e);
+            }
+            rs.closeRecordStore();
+            rs = null;
+            while (usedBytes > budgetBytes) remove(oldest);
+        } catch (RecordStoreNotFoundException e) {
+            // First install — nothing cached yet
+        } catch (Exception e) {
+            log("load: ", e.getMessage());
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    // ── Benchmark ─────────────────────────────────────────────────────────────
+    /**
+     * A replayed log of learner questions as typed, BENCH_TOPIC[i] numbering
+     * the question each one really asks: repeats, abbreviations, Kiswahili,
+     * punctuation, a dropped or added word. Some topics are lookalikes of
+     * others (mammal / reptile, heart / lungs, water / light) to catch near
+     * hits that would give the wrong answer.
+     */
+    static final String[] BENCH_LOG = {
+        "what is photosynthesis",
+        "how do plants make food",
+        "What is photosynthesis?",
+        "what is a mammal",
+        "wht is photosyn",
+        "what is a reptile",
+        "what are mammals",
+        "how do plants make their food",
+        "what is the function of the heart",
+        "ni nini usanisinuru",
+        "what is the function of the lungs",
+        "function of the heart",
+        "why do plants need water",
+        "what is soil erosion",
+        "why do plants need light",
+        "hw do plants make food",
+        "what is photosynthesis",
+        "what are reptiles",
+        "what is erosion of soil",
+        "why do plants need water?",
+        "what is a mammal?",
+        "function of the lungs",
+        "wht is soil erosion",
+        "how does a plant make food",
+        "what is the function of the heart",
+        "why do plants need light",
+        "explain photosynthesis",
+        "what is a reptile",
+        "whats the function of the heart",
+        "what is soil erosion?"
+    };
+    private static final int[] BENCH_TOPIC = {
+        0, 1, 0, 2, 0, 3, 2, 1, 4, 0,
+        5, 4, 6, 7, 8, 1, 0, 3, 7, 6,
+        2, 5, 7, 1, 4, 8, 9, 3, 4, 7
+    };
+
+    /**
+     * Replay `queries` (BENCH_LOG as processQuery() keys it, normalised and
+     * with context injected) through two in-memory caches, one matching
+     * exact keys only and one with the near-duplicate tier. A miss stands
+     * for a cloud call and caches that topic's answer. Reports the hit rate
+     * of each, the points the near tier adds, how many of its answers were
+     * for another topic and its lookup time. Enabled on device by the JAD
+     * attribute Elimu-Benchmark=true.
+     */
+    static void benchmarkNearDuplicates(String[] queries) {
+        AnswerCache exact = new AnswerCache(null, 64 * 1024);
+        AnswerCache near  = new AnswerCache(null, 64 * 1024);
+        int n = queries.length;
+        int exactHits = 0, hits = 0, nearHits = 0, wrong = 0;
+        long nearMs = 0;
+        for (int i = 0; i < n; i++) {
+            String truth = String.valueOf(BENCH_TOPIC[i]);
+            if (exact.live(queries[i]) != null) exactHits++;
+            else exact.put(queries[i], "", truth, null);
+
+            Entry e = near.live(queries[i]);
+            if (e == null) {
+                long t0 = System.currentTimeMillis();
+                e = near.nearest(sketch(queries[i]));
+                nearMs += System.currentTimeMillis() - t0;
+                if (e != null) {
+                    nearHits++;
+                    if (!e.answer.equals(truth)) wrong++;
+                }
+            }
+            if (e != null) hits++;
+            else near.put(queries[i], "", truth, null);
+        }
+        StringBuffer sb = new StringBuffer("Near duplicates: ");
+        sb.append(n);            sb.append(" queries; exact keys ");
+        sb.append(exactHits);    sb.append(" hits (");
+        sb.append(exactHits * 100 / n);
+        sb.append("%); with near tier "); sb.append(hits);
+        sb.append(" hits (");    sb.append(hits * 100 / n);
+        sb.append("%, ");        sb.append(nearHits);
+        sb.append(" near, ");    sb.append(wrong);
+        sb.append(" wrong): +"); sb.append((hits - exactHits) * 100 / n);
+        sb.append(" points, near lookups "); sb.append(nearMs);
+        sb.append(" ms");
+        System.out.println(sb.toString());
+    }
+
+    private static void log(String what, String detail) {
+        StringBuffer sb = new StringBuffer("[AnswerCache] ");
+        sb.append(what);
+        sb.append(detail);
+        System.out.println(sb.toString());
+    }
+
+    /** e.g. "Answer cache: 14 answers, 9214/24576 B". */
+    synchronized String getReport() {
+        StringBuffer sb = new StringBuffer("Answer cache: ");
+        sb.append(count);     sb.append(" answers, ");
+        sb.append(usedBytes); sb.append('/');
+        sb.append(budgetBytes); sb.append(" B");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package com.elimu;
+
+import java.util.Vector;
+
+/**
+ * Single-worker priority queue for background I/O, one per contended
+ * resource.
+ *
+ * Cloud queries, FL uploads and FL pulls each used to start a thread of
+ * their own, and every cloud answer also started an FL flush, so a burst of
+ * questions opened parallel HTTP connections on handsets that allow one or
+ * two sockets. Now all network traffic goes through NETWORK and background
+ * RMS work (weight saves, replay training) through STORAGE. Each has one
+ * worker thread, started on first use, which runs tasks one at a time:
+ * lower PRIORITY_* first, then in submission order. A running task is never
+ * preempted, so an interactive query waits at most for the task in hand.
+ *
+ * cancel() drops a task that has not started. A running task cannot be
+ * stopped, but long ones (the cloud retry loop) poll currentTaskCancelled()
+ * between steps.
+ *
+ * Each executor counts tasks, cancellations, the deepest the queue got and
+ * how long tasks waited before starting; see getReport().
+ */
+final class BackgroundExecutor implements Runnable {
+
+    static final int PRIORITY_INTERACTIVE = 0; // a learner is waiting on it
+    static final int PRIORITY_SPECULATIVE = 1; // may be needed soon (prefetch)
+    static final int PRIORITY_BACKGROUND  = 2; // FL traffic, training, saves
+
+    /** The one socket user: cloud queries and FL traffic. */
+    static final BackgroundExecutor NETWORK = new BackgroundExecutor("Network");
+    /** The one background RMS writer: weight saves and replay training. */
+    static final BackgroundExecutor STORAGE = new BackgroundExecutor("Storage");
+
+    private static final int QUEUED    = 0;
+    private static final int RUNNING   = 1;
+    private static final int DONE      = 2;
+    private static final int CANCELLED = 3;
+
+    /** A submitted piece of work. State is guarded by its executor. */
+    static final class Task {
+        private final BackgroundExecutor owner;
+        private final Runnable work;
+        private final int      priority;
+        private final long     queuedAt;
+        private int     state = QUEUED;
+        private boolean cancelRequested = false;
+
+        private Task(BackgroundExecutor owner, Runnable work, int priority) {
+            this.owner    = owner;
+            this.work     = work;
+            this.priority = priority;
+            this.queuedAt = System.currentTimeMillis();
+        }
+
+        /** Drop the task if it has not started; true if it never will run. */
+        boolean cancel() {
+            return owner.cancel(this);
+        }
+
+        /** True while queued, not yet started. */
+        boolean isPending() {
+            synchronized (owner) {
+                return state == QUEUED;
+            }
+        }
+    }
+
+    private final String name;
+    // All guarded by this.
+    private final Vector queue = new Vector(); // of Task, by priority then age
+    private Thread worker;
+    private Task   current;
+    private int    submitted = 0;
+    private int    cancelled = 0;
+    private int    maxDepth  = 0;
+    private int    started   = 0;
+    private long   waitMs    = 0;
+    private long   maxWaitMs = 0;
+
+    private BackgroundExecutor(String name) {
+        this.name = name;
+    }
+
+    /** Queue `work` at `priority` (a PRIORITY_* constant). */
+    synchronized Task submit(Runnable work, int priority) {
+        Task t = new Task(this, work, priority);
+        int at = queue.size();
+        while (at > 0 && ((Task) queue.elementAt(at - 1)).priority > priority) at--;
+        queue.insertElementAt(t, at);
+        submitted++;
+        if (queue.size() > maxDepth) maxDepth = queue.size();
+        if (worker == null) {
+            worker = new Thread(this);
+            worker.start();
+        }
+        notifyAll();
+        return t;
+    }
+
+    private synchronized boolean cancel(Task t) {
+        if (t.state == QUEUED) {
+            queue.removeElement(t);
+            t.state = CANCELLED;
+            cancelled++;
+            return true;
+        }
+        if (t.state == RUNNING) t.cancelRequested = true;
+        return false;
+    }
+
+    /**
+     * True if called from a worker whose running task has been cancelled;
+     * the task should stop at its next safe point.
+     */
+    static boolean currentTaskCancelled() {
+        Thread me = Thread.currentThread();
+        return NETWORK.runningCancelled(me) || STORAGE.runningCancelled(me);
+    }
+
+    private synchronized boolean runningCancelled(Thread me) {
+        return worker == me && current != null && current.cancelRequested;
+    }
+
+    public void run() {
+        while (true) {
+            Task t;
+            synchronized (this) {
+                try {
+                    while (queue.isEmpty()) wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                t = (Task) queue.elementAt(0);
+                queue.removeElementAt(0);
+                t.state = RUNNING;
+                current = t;
+                long w = System.currentTimeMillis() - t.queuedAt;
+                started++;
+                waitMs += w;
+                if (w > maxWaitMs) maxWaitMs = w;
+            }
+            try {
+                t.work.run();
+            } catch (Throwable e) {
+                StringBuffer sb = new StringBuffer("[");
+                sb.append(name); sb.append("] task failed: ");
+                sb.append(e.getClass().getName()); sb.append(' ');
+                sb.append(e.getMessage());
+                System.out.println(sb.toString());
+            }
+            synchronized (this) {
+                t.state = DONE;
+                current = null;
+            }
+        }
+    }
+
+    /** e.g. "Network: 14 tasks, 2 cancelled, queue max 3, wait avg 120ms max 900ms". */
+    synchronized String getReport() {
+        StringBuffer sb = new StringBuffer(name);
+        sb.append(": ");
+        sb.append(submitted); sb.append(" tasks, ");
+        sb.append(cancelled); sb.append(" cancelled, queue max ");
+        sb.append(maxDepth);  sb.append(", wait avg ");
+        sb.append(started > 0 ? waitMs / started : 0);
+        sb.append("ms max "); sb.append(maxWaitMs); sb.append("ms");
+        return sb.toString();
+    }
+}
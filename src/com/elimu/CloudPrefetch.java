@@ -0,0 +1,146 @@
+package com.elimu;
+
+/**
+ * A cloud request started while the learner is still typing.
+ *
+ * A cloud answer is a GPRS round trip of several seconds, and until now it
+ * only started once Send was pressed. The MIDlet classifies the question as
+ * it is typed; when typing pauses on a question the cascade would send to
+ * the cloud anyway, it starts one of these. On Send the prefetch is used if
+ * it was made for exactly the question and conversation context being
+ * submitted; otherwise it is cancelled (if it is still queued it never
+ * goes out) and counted as wasted.
+ *
+ * The result is held until a consumer attaches, then handed over — at once
+ * if it has already arrived. Only then does the answer go into the
+ * AnswerCache: a prefetch for a half-typed question nobody sends must not
+ * serve near-duplicate hits later. A CloudStreamListener consumer attaching
+ * mid-answer gets the continuation token and the text so far, then the
+ * rest as it arrives. Listener callbacks may run on the network worker or
+ * on the attaching thread; like every CloudResponseListener the consumer
+ * marshals to the UI thread itself.
+ */
+final class CloudPrefetch implements CloudStreamListener {
+
+    final String question;
+    final String context;
+    private final long started;
+    private BackgroundExecutor.Task task;
+
+    // Guarded by this.
+    private long    finished = 0;  // 0 while in flight
+    private boolean failed;
+    private String  answer;
+    private String  intentLabel;
+    private String  reason;
+    private String  partial;       // text so far while in flight
+    private String  continuation;  // X-Elimu-Next of the answer, if paged
+    private String  cacheControl;  // of the answer, for the AnswerCache
+    private CloudResponseListener consumer;
+
+    CloudPrefetch(String question, String context) {
+        this.question = question;
+        this.context  = context;
+        this.started  = System.currentTimeMillis();
+    }
+
+    /** Send the request; the result waits here until attach(). */
+    void start() {
+        task = SMSManager.prefetchFromCloud(question, context, this);
+    }
+
+    /** Not needed after all: don't send it if it is still queued. */
+    void cancel() {
+        if (task != null) task.cancel();
+    }
+
+    /** True if this prefetch answers `q` asked with context `ctx`. */
+    boolean matches(String q, String ctx) {
+        return question.equals(q) && context.equals(ctx);
+    }
+
+    /**
+     * Deliver the result to `l`, now or on arrival. Returns the part of
+     * the round trip already behind the learner: all of it if the answer
+     * is in, else the time since the request started.
+     */
+    long attach(CloudResponseListener l) {
+        long hidden;
+        synchronized (this) {
+            if (finished == 0) {
+                consumer = l;
+                // Catch up under the lock, so a partial arriving now
+                // cannot overtake the one sent here.
+                if (l instanceof CloudStreamListener) {
+                    CloudStreamListener s = (CloudStreamListener) l;
+                    if (continuation != null) s.onContinuation(continuation);
+                    if (partial != null)      s.onPartial(partial);
+                }
+                return System.currentTimeMillis() - started;
+            }
+            hidden = finished - started;
+        }
+        deliver(l, true);
+        return hidden;
+    }
+
+    /** The answer's Cache-Control header; set before onResponse(). */
+    synchronized void setCacheControl(String value) {
+        cacheControl = value;
+    }
+
+    public synchronized void onContinuation(String token) {
+        continuation = token;
+        if (consumer instanceof CloudStreamListener) {
+            ((CloudStreamListener) consumer).onContinuation(token);
+        }
+    }
+
+    public synchronized void onPartial(String textSoFar) {
+        partial = textSoFar;
+        if (consumer instanceof CloudStreamListener) {
+            ((CloudStreamListener) consumer).onPartial(textSoFar);
+        }
+    }
+
+    public void onResponse(String answer, String intentLabel) {
+        CloudResponseListener l;
+        synchronized (this) {
+            this.answer      = answer;
+            this.intentLabel = intentLabel;
+            l = arrived(false);
+        }
+        if (l != null) deliver(l, false);
+    }
+
+    public void onError(String reason) {
+        CloudResponseListener l;
+        synchronized (this) {
+            this.reason = reason;
+            l = arrived(true);
+        }
+        if (l != null) deliver(l, false);
+    }
+
+    /** Caller holds the lock. Returns the consumer waiting, if any. */
+    private CloudResponseListener arrived(boolean error) {
+        finished = System.currentTimeMillis();
+        failed   = error;
+        return consumer;
+    }
+
+    /** `late`: `l` attached after the answer was in, and has seen none of it. */
+    private void deliver(CloudResponseListener l, boolean late) {
+        if (failed) {
+            l.onError(reason);
+            return;
+        }
+        if (continuation == null) { // a first page is not the whole answer
+            SMSManager.cacheAnswer(question, context, answer, cacheControl);
+        }
+        if (late && continuation != null && l instanceof CloudStreamListener) {
+            ((CloudStreamListener) l).onContinuation(continuation);
+        }
+        l.onResponse(answer, intentLabel);
+    }
+}
@@ -0,0 +1,22 @@
+package com.elimu;
+
+/**
+ * A CloudResponseListener that also wants the answer while it arrives.
+ *
+ * Over GPRS the body of a cloud answer trickles in for seconds after the
+ * headers. SMSManager hands a listener of this type the decoded text so
+ * far as soon as the first screenful is in, then again every few hundred
+ * bytes; onResponse() still follows with the whole text. The server pages
+ * long answers: when more of this answer is waiting, onContinuation()
+ * delivers the token SMSManager.fetchNextPage() needs, before any text.
+ *
+ * Callbacks run on the network worker, in order: onContinuation (if any),
+ * onPartial (zero or more times), then onResponse or onError.
+ */
+interface CloudStreamListener extends CloudResponseListener {
+    /** The answer decoded so far; a prefix of the final text. */
+    void onPartial(String textSoFar);
+
+    /** More of this answer is on the server; `token` fetches the next page. */
+    void onContinuation(String token);
+}
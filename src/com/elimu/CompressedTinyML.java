@@ -1,314 +1,634 @@
 package com.elimu;
 
 import java.io.*;
-import javax.microedition.rms.*;
 
 /**
  * CompressedTinyML - TinyML model for J2ME/CLDC 1.1.
  * Fully compatible with MIDP 2.0.
  * Trained on Kenya CBC Grade 6 Living Things science data.
- * Accuracy: 91.79% test / 91.54% train  (FEATURE_SIZE=26, greeting/farewell split).
+ * Accuracy: 91.79% test / 91.54% train  (26 features, greeting/farewell split).
  *
  * Supports on-device online learning:
- *   call learn(correctIntent, lr) immediately after predict() to do one
- *   SGD backprop step, then saveWeights() to persist to RecordStore.
+ *   pass the Prediction returned by predict() to learn(p, correctIntent, lr)
+ *   to do one SGD backprop step, then saveWeights() to persist to RecordStore.
+ *
+ * Threading: predict() takes no lock. It reads one immutable weight
+ * snapshot (see Snapshot) and writes only into the caller's Prediction, so
+ * it may run on any thread while an FL pull or a cloud-labelled correction
+ * is being applied on another. Training methods are synchronized: they
+ * change ModelTrainer's private working copy, then publish a fresh snapshot
+ * with a single volatile write. A query therefore sees either the old or
+ * the new weights, never a mix. learn() only marks the snapshot stale; the
+ * next query (or training call) publishes, so a run of single-step
+ * corrections pays for one snapshot copy, not one per step.
  */
 public class CompressedTinyML {
 
     // ── Architecture ──────────────────────────────────────────────────────────
-    // f[24]=greeting-only, f[25]=farewell-only — split from the original single
-    // social feature to resolve greeting/farewell confusion (F1 0.22 → expected >0.80).
-    private static final int FEATURE_SIZE = 26;
-    private static final int HIDDEN_SIZE  = 12;
-    private static final int OUTPUT_SIZE  = 8;
-
-    // ── Factory-default compressed weights (4-bit nibble packed) ─────────────
-    // W1 (12×26) + W2 (8×12) = 408 nibbles = 204 bytes.
-    // Trained by elimu-model/train_and_pack.py on the STEM-only corpus
-    // (english_help intent retired). Quantised test accuracy ~71.8%.
-    private static final byte[] COMPRESSED_WEIGHTS = {
-            (byte)0x7C, (byte)0xB7, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x87, (byte)0x77, (byte)0x88,
-            (byte)0x78, (byte)0x88, (byte)0x87, (byte)0x77, (byte)0x66, (byte)0x68, (byte)0x88, (byte)0x77,
-            (byte)0x77, (byte)0x78, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x87, (byte)0x77, (byte)0x87,
-            (byte)0x7A, (byte)0x85, (byte)0x77, (byte)0x77, (byte)0x87, (byte)0x87, (byte)0x77, (byte)0x87,
-            (byte)0x88, (byte)0x77, (byte)0x78, (byte)0x77, (byte)0x88, (byte)0x88, (byte)0x87, (byte)0x78,
-            (byte)0x88, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x87, (byte)0x77, (byte)0x77, (byte)0x77,
-            (byte)0x76, (byte)0x67, (byte)0x77, (byte)0x79, (byte)0x67, (byte)0x88, (byte)0x77, (byte)0x77,
-            (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x87, (byte)0x88, (byte)0x78, (byte)0x89,
-            (byte)0x66, (byte)0x66, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x78, (byte)0x77, (byte)0x77,
-            (byte)0x88, (byte)0x77, (byte)0x8A, (byte)0x89, (byte)0x95, (byte)0xC6, (byte)0xC7, (byte)0x69,
-            (byte)0x78, (byte)0x88, (byte)0x98, (byte)0x88, (byte)0x88, (byte)0x98, (byte)0x78, (byte)0x76,
-            (byte)0x87, (byte)0x77, (byte)0x95, (byte)0xC6, (byte)0x96, (byte)0x78, (byte)0x89, (byte)0x98,
-            (byte)0x88, (byte)0x88, (byte)0x68, (byte)0x78, (byte)0x8A, (byte)0x88, (byte)0x86, (byte)0x78,
-            (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x78, (byte)0x77, (byte)0x77, (byte)0x88,
-            (byte)0x88, (byte)0x89, (byte)0x88, (byte)0x86, (byte)0xA6, (byte)0x66, (byte)0x68, (byte)0x77,
-            (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x88, (byte)0x87, (byte)0x89, (byte)0x79,
-            (byte)0x97, (byte)0x48, (byte)0x7A, (byte)0x97, (byte)0x88, (byte)0x88, (byte)0x88, (byte)0x88,
-            (byte)0x88, (byte)0x95, (byte)0x77, (byte)0x9B, (byte)0x69, (byte)0x99, (byte)0x77, (byte)0x77,
-            (byte)0x86, (byte)0x87, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x67, (byte)0x78,
-            (byte)0x77, (byte)0x77, (byte)0x77, (byte)0xAD, (byte)0x9D, (byte)0x87, (byte)0x88, (byte)0x95,
-            (byte)0x77, (byte)0x7A, (byte)0x76, (byte)0x77, (byte)0x67, (byte)0xCB, (byte)0x67, (byte)0x78,
-            (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x77, (byte)0x67, (byte)0x77, (byte)0xA6, (byte)0x88,
-            (byte)0x59, (byte)0x58, (byte)0x86, (byte)0x78, (byte)0x77, (byte)0x58, (byte)0xA8, (byte)0x95,
-            (byte)0xB9, (byte)0x6A, (byte)0x79, (byte)0x97, (byte)0x77, (byte)0x59, (byte)0x98, (byte)0x53,
-            (byte)0x56, (byte)0x97, (byte)0x57, (byte)0x85, (byte)0x96, (byte)0xC6, (byte)0x86, (byte)0x78,
-            (byte)0xB6, (byte)0x69, (byte)0x4A, (byte)0xA7
-    };
-
-    // 12 hidden + 8 output = 20 biases = 10 bytes
-    private static final byte[] COMPRESSED_BIASES = {
-            (byte)0xA9, (byte)0x97, (byte)0x99, (byte)0x9A, (byte)0xB9, (byte)0x98, (byte)0x88, (byte)0xB0,
-            (byte)0xA6, (byte)0x7B
-    };
-
-    // ── Mutable weight arrays (live during inference; updated by learning) ────
-    private float[] w1 = new float[HIDDEN_SIZE * FEATURE_SIZE]; // 12×26 row-major
-    private float[] w2 = new float[OUTPUT_SIZE  * HIDDEN_SIZE]; //  8×12 row-major
-    private float[] b1 = new float[HIDDEN_SIZE];
-    private float[] b2 = new float[OUTPUT_SIZE];
-
-    // ── Anchor weights for catastrophic-forgetting prevention ────────────────
-    // Each correction is penalised if it drifts too far from the last stable point.
-    private float[] anchorW1 = new float[HIDDEN_SIZE * FEATURE_SIZE];
-    private float[] anchorW2 = new float[OUTPUT_SIZE  * HIDDEN_SIZE];
-    private float[] anchorB1 = new float[HIDDEN_SIZE];
-    private float[] anchorB2 = new float[OUTPUT_SIZE];
-    private static final float LAMBDA = 0.01f; // regularisation strength
-
-    // ── FL anchor: snapshot of the last-synchronised global model. ────────────
-    // Used by FederatedLearning to compute the per-round delta. Distinct from
-    // the CFP anchor above, which advances on local corrections; the FL anchor
+    // input -> hidden (ReLU) -> output (softmax). The sizes and the intent
+    // label table come from the model header (see MODEL_RESOURCE below); the
+    // shipped model is 26-12-8 (428 parameters). Set once by loadModel().
+    //
+    // Inputs 0-25 are the keyword features; f[24]=greeting-only,
+    // f[25]=farewell-only — split from the original single social feature to
+    // resolve greeting/farewell confusion (F1 0.22 → expected >0.80). A model
+    // with more inputs gets the extra ones as hashed word buckets (see
+    // extractFeatures), so it can be widened without new keyword rules.
+    private static final int BASE_FEATURES = 26;
+
+    private int inputSize;
+    private int hiddenSize;
+    private int outputSize;
+    private String[] intentLabels;
+
+    // ── Weights ───────────────────────────────────────────────────────────────
+    // Both DenseLayers start packed: predict() reads the model's 4-bit nibble
+    // tables directly, dequantising each one through a 16-entry table, so a
+    // session that only classifies keeps the model at its packed size
+    // (214 bytes for 26-12-8). The trainer's float weights, CFP anchor and
+    // FL anchor (3 × 428 floats, about 5 KB) are only allocated once the
+    // weights have to leave the factory values: learn(), an RMS restore or an
+    // FL pull; each published snapshot then carries one more float copy.
+    //
+    // Anchors: the CFP anchor penalises each correction for drifting from
+    // the last stable point; the FL anchor is the last-synchronised global
+    // model, used by FederatedLearning to compute the per-round delta, and
     // only advances when a new global is pulled from the server.
-    private float[] flAnchorW1 = new float[HIDDEN_SIZE * FEATURE_SIZE];
-    private float[] flAnchorW2 = new float[OUTPUT_SIZE  * HIDDEN_SIZE];
-    private float[] flAnchorB1 = new float[HIDDEN_SIZE];
-    private float[] flAnchorB2 = new float[OUTPUT_SIZE];
-
-    public static final int TOTAL_PARAMS =
-            HIDDEN_SIZE * FEATURE_SIZE + OUTPUT_SIZE * HIDDEN_SIZE
-            + HIDDEN_SIZE + OUTPUT_SIZE; // 312 + 96 + 12 + 8 = 428
-
-    // ── Forward-pass cache (needed for backprop) ──────────────────────────────
-    private byte[]  lastFeatures = new byte[FEATURE_SIZE]; // 26 features
-    private float[] lastZ1       = new float[HIDDEN_SIZE]; // pre-ReLU hidden
-    private float[] lastA1       = new float[HIDDEN_SIZE]; // post-ReLU hidden
-    private float[] lastOutput   = new float[OUTPUT_SIZE]; // softmax probs
+    private ModelTrainer trainer;
+    private volatile Snapshot snapshot;
+    private volatile boolean  stale = false; // trainer has unpublished learn() steps
+    private final String weightsStore; // RMS store the trainer persists to
+
+    /** Weights the predict path reads; never modified once published. */
+    static final class Snapshot {
+        final DenseLayer hidden;
+        final DenseLayer output;
+        final boolean    fixedPoint; // integer copies present, use predictFixed
+
+        Snapshot(DenseLayer hidden, DenseLayer output, boolean fixedPoint) {
+            this.hidden = hidden;
+            this.output = output;
+            this.fixedPoint = fixedPoint;
+        }
+    }
 
-    private float lastConfidence = 0.0f;
+    // ── Fixed-point inference (FPU-less handsets) ─────────────────────────────
+    // Most low-end handsets have no hardware float unit, so every float
+    // multiply-add in the forward pass is a software-emulated call. With
+    // fixed-point enabled (JAD attribute Elimu-FixedPoint=true) predict()
+    // runs entirely in integers:
+    //   weights          Q8.8  in short[] (1/256 resolution, range +-128)
+    //   biases, hidden,
+    //   logits, probs    Q16.16 in int[]
+    // A Q8.8 x Q16.16 product is Q24.24; shifting each term right by 8 keeps
+    // the accumulator in Q16.16 without a 64-bit multiply. The integer weight
+    // copies are derived when a snapshot is published, so learning, RMS
+    // restore and FL pulls keep working on floats as before; while packed
+    // the layers read the nibbles directly.
+    private static final int Q16_ONE = 1 << 16;
+    public static final int CONFIDENCE_THRESHOLD_Q16 =
+            (int) (0.30f * Q16_ONE); // CONFIDENCE_THRESHOLD in Q16.16
+
+    private boolean fixedPoint = false;
 
     // ── Cloud-fallback routing policy ─────────────────────────────────────────
     // Below this softmax-max confidence, the MIDlet should defer to the cloud
     // generative tier instead of answering locally. Tunable per evaluation run.
     public static final float CONFIDENCE_THRESHOLD = 0.30f;
 
-    private static final String RMS_STORE = "ElimuWeights";
+    // ── Model resource (versioned container) ──────────────────────────────────
+    // Big-endian, parsed with DataInputStream:
+    //   "ELMD" magic, u8 format version, u8 quantisation scheme,
+    //   u16 input / hidden / output sizes,
+    //   u8 label count + that many writeUTF intent labels (index = intent id),
+    //   u16 length + packed weights (W1 row-major, then W2),
+    //   u16 length + packed biases (b1, then b2),
+    //   u32 Adler-32 of everything before it.
+    private static final String MODEL_RESOURCE = "/model_data.bin";
+    private static final int    MODEL_MAGIC    = 0x454C4D44; // "ELMD"
+    private static final int    MODEL_VERSION  = 1;
+    private static final int    QUANT_NIBBLE4  = 1;          // (q - 7.5) / 7.5
 
     // ── Lifecycle ─────────────────────────────────────────────────────────────
-    public void loadModel() {
-        decompressWeights();   // populate float arrays from static byte defaults
-        loadSavedWeights();    // overlay with persisted weights if any exist
-        initFLAnchorFromCurrent(); // FL anchor starts at the loaded model
+    /** The shipped model, persisting its weights to ElimuWeights. */
+    public CompressedTinyML() {
+        this(ModelTrainer.DEFAULT_STORE);
+    }
+
+    /** A model persisting its weights to `weightsStore` (see ModelRegistry). */
+    CompressedTinyML(String weightsStore) {
+        this.weightsStore = weightsStore;
+    }
+
+    /**
+     * Read the packed model from the JAR, then overlay persisted weights.
+     * Throws if the resource is missing, corrupt or not a model this class
+     * can run — there are no built-in fallback weights.
+     */
+    public void loadModel() throws IOException {
+        loadModel(readResource(MODEL_RESOURCE));
+    }
+
+    /** As loadModel(), from a model container already in memory. */
+    synchronized void loadModel(byte[] container) throws IOException {
+        parseModel(container);
+        trainer.loadSavedWeights();        // expands to floats if persisted weights exist
+        trainer.initFLAnchorFromCurrent(); // FL anchor starts at the loaded model
+        publish();
 
         StringBuffer sb = new StringBuffer("CompressedTinyML loaded: ");
-        sb.append(COMPRESSED_WEIGHTS.length);
-        sb.append(" bytes weights, ");
-        sb.append(FEATURE_SIZE);
-        sb.append(" features (Living Things model + online learning)");
+        sb.append(inputSize); sb.append('-');
+        sb.append(hiddenSize); sb.append('-');
+        sb.append(outputSize); sb.append(", ");
+        sb.append(getParamCount());
+        sb.append(" params (Living Things model + online learning), ");
+        sb.append(trainer.isExpanded() ? "float weights from RMS" : "packed");
         System.out.println(sb.toString());
     }
 
+    private void readModelResource() throws IOException {
+        parseModel(readResource(MODEL_RESOURCE));
+    }
+
+    /** The bytes of a JAR resource, e.g. a model container. */
+    static byte[] readResource(String path) throws IOException {
+        InputStream in = CompressedTinyML.class.getResourceAsStream(path);
+        if (in == null) {
+            StringBuffer sb = new StringBuffer("model resource missing: ");
+            sb.append(path);
+            throw new IOException(sb.toString());
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[256];
+            int n;
+            while ((n = in.read(buf)) > 0) baos.write(buf, 0, n);
+            return baos.toByteArray();
+        } finally {
+            try { in.close(); } catch (Exception ignore) {}
+        }
+    }
+
+    /** Parse and validate a model container; builds the trainer. */
+    private void parseModel(byte[] data) throws IOException {
+        if (data.length < 17) throw new IOException("model resource truncated");
+        int end = data.length - 4;
+        int stored = ((data[end] & 0xFF) << 24) | ((data[end + 1] & 0xFF) << 16)
+                   | ((data[end + 2] & 0xFF) << 8) | (data[end + 3] & 0xFF);
+        if (adler32(data, end) != stored) throw new IOException("model checksum mismatch");
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, 0, end));
+        if (dis.readInt() != MODEL_MAGIC) throw new IOException("not an ELMD model");
+        int version = dis.readUnsignedByte();
+        int quant   = dis.readUnsignedByte();
+        if (version != MODEL_VERSION) throw modelError("unsupported model version ", version);
+        if (quant != QUANT_NIBBLE4) throw modelError("unsupported quantisation ", quant);
+        int in0 = dis.readUnsignedShort();
+        int hid = dis.readUnsignedShort();
+        int out = dis.readUnsignedShort();
+        int labelCount = dis.readUnsignedByte();
+        String[] labels = new String[labelCount];
+        for (int i = 0; i < labelCount; i++) labels[i] = dis.readUTF();
+
+        byte[] w = new byte[dis.readUnsignedShort()];
+        dis.readFully(w);
+        byte[] b = new byte[dis.readUnsignedShort()];
+        dis.readFully(b);
+        initShape(in0, hid, out, labels, w, b);
+    }
+
+    /**
+     * Validate a model shape and build the trainer for it.
+     * `w` holds W1 (hid × in, row-major) then W2 (out × hid) as nibbles,
+     * `b` holds b1 then b2.
+     */
+    private void initShape(int in0, int hid, int out, String[] labels,
+                           byte[] w, byte[] b) throws IOException {
+        if (in0 < BASE_FEATURES) throw modelError("model needs at least 26 inputs, has ", in0);
+        if (in0 > Short.MAX_VALUE) throw modelError("too many inputs: ", in0);
+        if (hid < 1) throw modelError("bad hidden size ", hid);
+        if (out < 2 || out > Byte.MAX_VALUE) throw modelError("bad output size ", out);
+        if (labels.length != out) throw modelError("label table size ", labels.length);
+        if (w.length != (hid * in0 + out * hid + 1) / 2 || b.length != (hid + out + 1) / 2) {
+            throw new IOException("packed tensor size mismatch");
+        }
+        inputSize    = in0;
+        hiddenSize   = hid;
+        outputSize   = out;
+        intentLabels = labels;
+        trainer = new ModelTrainer(new DenseLayer(in0, hid, true,  w, 0,         b, 0),
+                                   new DenseLayer(hid, out, false, w, hid * in0, b, hid),
+                                   weightsStore);
+    }
+
+    /**
+     * Make the trainer's current weights visible to predict(). Callers hold
+     * the model lock, so snapshots are published in the order they were
+     * taken.
+     */
+    private void publish() {
+        snapshot = trainer.snapshot(fixedPoint);
+        stale = false;
+    }
+
+    /**
+     * The snapshot queries read, publishing first if learn() left it stale.
+     * Takes the model lock only in that case.
+     */
+    private Snapshot current() {
+        if (stale) {
+            synchronized (this) {
+                if (stale) publish();
+            }
+        }
+        return snapshot;
+    }
+
+    private static IOException modelError(String what, int value) {
+        StringBuffer sb = new StringBuffer(what);
+        sb.append(value);
+        return new IOException(sb.toString());
+    }
+
+    /** Adler-32 of data[0..len), as written by zlib.adler32 in model_container.py. */
+    private static int adler32(byte[] data, int len) {
+        int a = 1, b = 0;
+        for (int i = 0; i < len; i++) {
+            a = (a + (data[i] & 0xFF)) % 65521;
+            b = (b + a) % 65521;
+        }
+        return (b << 16) | a;
+    }
+
+    /** Number of trainable parameters: W1, W2, b1, b2. */
+    public int getParamCount() {
+        return trainer.paramCount();
+    }
+
     // ── Inference ─────────────────────────────────────────────────────────────
-    public byte predict(String text) {
-        byte[] features = extractFeatures(text);
-        System.arraycopy(features, 0, lastFeatures, 0, FEATURE_SIZE);
-        computeHiddenLayer(features);          // fills lastZ1, lastA1
-        float[] output = computeOutputLayer(); // reads lastA1, fills lastOutput
-        lastConfidence = getConfidence(output);
-        return argMax(output);
+    /**
+     * Select the integer forward pass (see the fixed-point section above).
+     * Called once at startup from the Elimu-FixedPoint JAD attribute.
+     */
+    public synchronized void setFixedPoint(boolean on) {
+        fixedPoint = on;
+        if (trainer != null) publish(); // otherwise loadModel() publishes
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPoint;
     }
 
-    public float getLastConfidence() {
-        return lastConfidence;
+    /** A result buffer sized for the loaded model, for reuse across predict() calls. */
+    public Prediction newPrediction() {
+        return new Prediction(inputSize, hiddenSize, outputSize);
     }
 
     /**
-     * Routing decision: should this query be deferred to the cloud generative
-     * tier instead of answered from on-device templates? Call after predict().
+     * Classify one query into `into` and return it. Lock-free (unless a
+     * learn() step is still to be published), and allocation-free when
+     * `into` came from newPrediction(); with null (or a Prediction sized for
+     * another model) a new one is allocated.
      */
-    public boolean shouldFallbackToCloud() {
-        return lastConfidence < CONFIDENCE_THRESHOLD;
+    public Prediction predict(String text, Prediction into) {
+        Prediction p = into;
+        if (p == null || !p.fits(inputSize, hiddenSize, outputSize)) p = newPrediction();
+        Snapshot s = current(); // one read: the whole query uses these weights
+        p.activeCount = extractFeatures(text, p.features, p.active);
+        p.fixedPoint  = s.fixedPoint;
+        if (s.fixedPoint) {
+            predictFixed(s, p);
+            return p;
+        }
+        p.floatStale = false;
+        s.hidden.forwardActive(p.active, p.activeCount, p.z1);
+        for (int i = 0; i < hiddenSize; i++) p.a1[i] = relu(p.z1[i]);
+        s.output.forward(p.a1, p.z2);
+        softmax(p.z2, p.probs);
+        p.confidence = getConfidence(p.probs);
+        p.intent     = argMax(p.probs);
+        return p;
     }
 
-    // ── On-device online learning ─────────────────────────────────────────────
+    // ── Batch classification (offline scoring on the JVM) ────────────────────
+    // For scoring whole query logs: intents, confidences and optional
+    // probability rows come back in flat primitive arrays. Rows are processed
+    // in blocks of BATCH_BLOCK, layer by layer, so each inner loop is a
+    // plain counted loop over contiguous arrays that the JIT can unroll (the
+    // hidden layer's column adds also vectorise). Always the float pass,
+    // whatever setFixedPoint() says, and bit-identical to float predict().
+    private static final int BATCH_BLOCK = 64;
+
+    public int getInputSize()  { return inputSize; }
+    public int getOutputSize() { return outputSize; }
+
     /**
-     * One stochastic gradient-descent step using cached forward-pass state.
-     * Must be called immediately after predict() — uses lastFeatures, lastZ1,
-     * lastA1, lastOutput which were set during that predict() call.
-     *
-     * Gradient derivation (cross-entropy loss + softmax):
-     *   dL/dz2_k  = output_k - 1{k == correctIntent}   (clean closed form)
-     *   dL/dW2_ij = dL/dz2_i * a1_j
-     *   dL/db2_i  = dL/dz2_i
-     *   dL/da1_j  = sum_i( W2_ij * dL/dz2_i )
-     *   dL/dz1_i  = dL/da1_i * relu'(z1_i)             relu' = 1 if z1>0 else 0
-     *   dL/dW1_ij = dL/dz1_i * x_j
-     *   dL/db1_i  = dL/dz1_i
-     *
-     * @param correctIntent  true intent label 0-7
-     * @param lr             learning rate (0.05f recommended)
+     * Classify queries[0 .. n). Row r's intent goes to intents[r] and its
+     * confidence to confidences[r]; if `probs` is non-null it also receives
+     * the softmax row at probs[r * getOutputSize()]. Lock-free like predict().
      */
-    public void learn(int correctIntent, float lr) {
-        // ── Output-layer delta ────────────────────────────────────────────────
-        float[] delta2 = new float[OUTPUT_SIZE];
-        for (int i = 0; i < OUTPUT_SIZE; i++) {
-            delta2[i] = lastOutput[i] - (i == correctIntent ? 1.0f : 0.0f);
-        }
-
-        // ── Update W2 and b2 (gradient + L2 pull toward anchor) ─────────────
-        for (int i = 0; i < OUTPUT_SIZE; i++) {
-            b2[i] -= lr * (delta2[i] + LAMBDA * (b2[i] - anchorB2[i]));
-            for (int j = 0; j < HIDDEN_SIZE; j++) {
-                int idx = i * HIDDEN_SIZE + j;
-                w2[idx] -= lr * (delta2[i] * lastA1[j] + LAMBDA * (w2[idx] - anchorW2[idx]));
+    public void predictBatch(String[] queries, byte[] intents, float[] confidences,
+                             float[] probs) {
+        int n = queries.length;
+        checkBatchOutputs(n, intents, confidences, probs);
+        BatchScratch bs = new BatchScratch(current());
+        byte[]  rowFeatures = new byte[inputSize];
+        short[] rowActive   = new short[inputSize];
+        for (int first = 0; first < n; first += BATCH_BLOCK) {
+            int rows = n - first < BATCH_BLOCK ? n - first : BATCH_BLOCK;
+            int k = 0;
+            for (int r = 0; r < rows; r++) {
+                bs.start[r] = k;
+                int count = extractFeatures(queries[first + r], rowFeatures, rowActive);
+                System.arraycopy(rowActive, 0, bs.active, k, count);
+                k += count;
             }
+            bs.start[rows] = k;
+            classifyBlock(bs, rows, first, intents, confidences, probs);
         }
+    }
 
-        // ── Hidden-layer delta (backprop through W2 then ReLU) ────────────────
-        float[] delta1 = new float[HIDDEN_SIZE];
-        for (int j = 0; j < HIDDEN_SIZE; j++) {
-            float sum = 0.0f;
-            for (int i = 0; i < OUTPUT_SIZE; i++) {
-                sum += w2[i * HIDDEN_SIZE + j] * delta2[i];
+    /**
+     * Classify `rows` pre-extracted feature rows: features[r * getInputSize()
+     * + j] is feature j of row r, non-zero meaning set (see
+     * extractFeatureMatrix). Outputs as for predictBatch(String[], ...).
+     */
+    public void predictBatch(byte[] features, int rows, byte[] intents,
+                             float[] confidences, float[] probs) {
+        if (features.length < rows * inputSize) {
+            throw new IllegalArgumentException("feature matrix too small");
+        }
+        checkBatchOutputs(rows, intents, confidences, probs);
+        BatchScratch bs = new BatchScratch(current());
+        for (int first = 0; first < rows; first += BATCH_BLOCK) {
+            int block = rows - first < BATCH_BLOCK ? rows - first : BATCH_BLOCK;
+            int k = 0;
+            for (int r = 0; r < block; r++) {
+                bs.start[r] = k;
+                int fb = (first + r) * inputSize;
+                for (int j = 0; j < inputSize; j++) {
+                    if (features[fb + j] != 0) bs.active[k++] = (short) j;
+                }
             }
-            // ReLU derivative: pass gradient only where pre-activation was positive
-            delta1[j] = (lastZ1[j] > 0) ? sum : 0.0f;
+            bs.start[block] = k;
+            classifyBlock(bs, block, first, intents, confidences, probs);
+        }
+    }
+
+    /** Binary feature rows of `queries`, laid out for predictBatch(byte[], ...). */
+    public byte[] extractFeatureMatrix(String[] queries) {
+        byte[] m = new byte[queries.length * inputSize];
+        byte[]  row    = new byte[inputSize];
+        short[] active = new short[inputSize];
+        for (int r = 0; r < queries.length; r++) {
+            extractFeatures(queries[r], row, active);
+            System.arraycopy(row, 0, m, r * inputSize, inputSize);
         }
+        return m;
+    }
 
-        // ── Update W1 and b1 (gradient + L2 pull toward anchor) ─────────────
-        for (int i = 0; i < HIDDEN_SIZE; i++) {
-            b1[i] -= lr * (delta1[i] + LAMBDA * (b1[i] - anchorB1[i]));
-            for (int j = 0; j < FEATURE_SIZE; j++) {
-                int idx = i * FEATURE_SIZE + j;
-                w1[idx] -= lr * (delta1[i] * lastFeatures[j] + LAMBDA * (w1[idx] - anchorW1[idx]));
+    private void checkBatchOutputs(int rows, byte[] intents, float[] confidences,
+                                   float[] probs) {
+        if (intents.length < rows || confidences.length < rows
+                || (probs != null && probs.length < rows * outputSize)) {
+            throw new IllegalArgumentException("batch output array too small");
+        }
+    }
+
+    /** Per-call working set of a batch: float layers plus one block of rows. */
+    private final class BatchScratch {
+        final DenseLayer hidden;
+        final DenseLayer output;
+        final short[] active = new short[BATCH_BLOCK * inputSize];
+        final int[]   start  = new int[BATCH_BLOCK + 1];
+        final float[] z1     = new float[BATCH_BLOCK * hiddenSize];
+        final float[] a1     = new float[BATCH_BLOCK * hiddenSize];
+        final float[] z2     = new float[BATCH_BLOCK * outputSize];
+        final float[] row    = new float[outputSize]; // softmax row when probs == null
+
+        BatchScratch(Snapshot s) {
+            hidden = s.hidden.floatCopy();
+            output = s.output.floatCopy();
+        }
+    }
+
+    /** Forward pass for bs.start/bs.active rows, writing outputs from outRow on. */
+    private void classifyBlock(BatchScratch bs, int rows, int outRow, byte[] intents,
+                               float[] confidences, float[] probs) {
+        bs.hidden.forwardActiveBatch(bs.active, bs.start, rows, bs.z1);
+        float[] z1 = bs.z1, a1 = bs.a1;
+        int n = rows * hiddenSize;
+        for (int k = 0; k < n; k++) a1[k] = (z1[k] > 0) ? z1[k] : 0;
+        bs.output.forwardBatch(a1, rows, bs.z2);
+
+        for (int r = 0; r < rows; r++) {
+            float[] dst = probs != null ? probs : bs.row;
+            int d = probs != null ? (outRow + r) * outputSize : 0;
+            softmax(bs.z2, r * outputSize, dst, d, outputSize);
+            int best = 0;
+            for (int i = 1; i < outputSize; i++) {
+                if (dst[d + i] > dst[d + best]) best = i;
             }
+            intents[outRow + r]     = (byte) best;
+            confidences[outRow + r] = dst[d + best];
         }
     }
 
-    // ── Weight persistence (RecordStore) ──────────────────────────────────────
     /**
-     * Serialise current weights to RMS so they survive app restarts.
-     * Total size: (300+96+12+8) floats × 4 bytes = 1664 bytes (< 8 KB minimum).
+     * Batch throughput against the one-at-a-time path on a synthetic query
+     * log (self-test queries paired pseudo-randomly, fixed seed): queries/s
+     * for predict() in a loop, predictBatch over strings and over a
+     * pre-extracted feature matrix, plus a parity count. Enabled on device by
+     * Elimu-Benchmark=true; mostly meant for desktop runs.
      */
-    public void saveWeights() {
-        RecordStore rs = null;
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(baos);
-            for (int i = 0; i < w1.length; i++) dos.writeFloat(w1[i]);
-            for (int i = 0; i < w2.length; i++) dos.writeFloat(w2[i]);
-            for (int i = 0; i < b1.length; i++) dos.writeFloat(b1[i]);
-            for (int i = 0; i < b2.length; i++) dos.writeFloat(b2[i]);
-            dos.flush();
-            byte[] data = baos.toByteArray();
-
-            rs = RecordStore.openRecordStore(RMS_STORE, true);
-            if (rs.getNumRecords() == 0) {
-                rs.addRecord(data, 0, data.length);
+    public boolean benchmarkBatch(int queries) {
+        String[] log = new String[queries];
+        int seed = 20240601;
+        for (int q = 0; q < queries; q++) {
+            seed = seed * 1664525 + 1013904223;
+            String a = SELF_TEST_CASES[((seed >>> 8) & 0x7fffff) % SELF_TEST_CASES.length];
+            seed = seed * 1664525 + 1013904223;
+            String b = SELF_TEST_CASES[((seed >>> 8) & 0x7fffff) % SELF_TEST_CASES.length];
+            if ((q & 1) == 0) {
+                log[q] = a;
             } else {
-                rs.setRecord(1, data, 0, data.length);
+                StringBuffer sb = new StringBuffer(a);
+                sb.append(' '); sb.append(b);
+                log[q] = sb.toString();
             }
-            copyToAnchor(); // advance anchor so the next correction protects this one
-            System.out.println("Weights saved to RMS.");
-        } catch (Exception e) {
-            StringBuffer se = new StringBuffer("saveWeights failed: ");
-            se.append(e.getMessage());
-            System.out.println(se.toString());
-        } finally {
-            if (rs != null) {
-                try { rs.closeRecordStore(); } catch (Exception ignore) {}
+        }
+        boolean wasFixed = fixedPoint;
+        if (wasFixed) setFixedPoint(false); // batch is always the float pass
+
+        byte[]  serialIntent = new byte[queries];
+        float[] serialConf   = new float[queries];
+        Prediction p = newPrediction();
+        long t0 = System.currentTimeMillis();
+        for (int q = 0; q < queries; q++) {
+            predict(log[q], p);
+            serialIntent[q] = p.intent;
+            serialConf[q]   = p.confidence;
+        }
+        long serialMs = System.currentTimeMillis() - t0;
+
+        byte[]  intents = new byte[queries];
+        float[] conf    = new float[queries];
+        t0 = System.currentTimeMillis();
+        predictBatch(log, intents, conf, null);
+        long batchMs = System.currentTimeMillis() - t0;
+
+        byte[] matrix = extractFeatureMatrix(log);
+        byte[]  mIntents = new byte[queries];
+        float[] mConf    = new float[queries];
+        t0 = System.currentTimeMillis();
+        predictBatch(matrix, queries, mIntents, mConf, null);
+        long matrixMs = System.currentTimeMillis() - t0;
+
+        if (wasFixed) setFixedPoint(true);
+
+        int same = 0;
+        for (int q = 0; q < queries; q++) {
+            if (intents[q] == serialIntent[q] && conf[q] == serialConf[q]
+                    && mIntents[q] == serialIntent[q] && mConf[q] == serialConf[q]) {
+                same++;
             }
         }
+        StringBuffer sb = new StringBuffer(same == queries ? "[OK] " : "[??] ");
+        sb.append("Batch: "); sb.append(queries); sb.append(" queries, predict() ");
+        sb.append(perSecond(queries, serialMs));
+        sb.append("/s, predictBatch(String[]) "); sb.append(perSecond(queries, batchMs));
+        sb.append("/s, predictBatch(features) "); sb.append(perSecond(queries, matrixMs));
+        sb.append("/s, identical "); sb.append(same); sb.append("/"); sb.append(queries);
+        System.out.println(sb.toString());
+        return same == queries;
     }
 
-    /** Overwrite current weights with the original factory defaults and clear RMS. */
-    public void resetWeights() {
-        decompressWeights();
-        RecordStore rs = null;
-        try {
-            rs = RecordStore.openRecordStore(RMS_STORE, false);
-            rs.deleteRecord(1);
-        } catch (Exception ignore) {
-        } finally {
-            if (rs != null) {
-                try { rs.closeRecordStore(); } catch (Exception ignore) {}
-            }
-        }
-        System.out.println("Weights reset to factory defaults.");
+    private static long perSecond(int count, long ms) {
+        return count * 1000L / (ms > 0 ? ms : 1);
+    }
+
+    // ── On-device online learning ─────────────────────────────────────────────
+    /**
+     * One stochastic gradient-descent step using the forward state recorded
+     * in `p` by predict(). `p` may be kept for as long as needed (e.g. until
+     * the cloud has labelled the query) and must not be reused for another
+     * query until this returns.
+     *
+     * Gradient derivation (cross-entropy loss + softmax):
+     *   dL/dz2_k  = output_k - 1{k == correctIntent}   (clean closed form)
+     *   dL/dW2_ij = dL/dz2_i * a1_j
+     *   dL/db2_i  = dL/dz2_i
+     *   dL/da1_j  = sum_i( W2_ij * dL/dz2_i )
+     *   dL/dz1_i  = dL/da1_i * relu'(z1_i)             relu' = 1 if z1>0 else 0
+     *   dL/dW1_ij = dL/dz1_i * x_j
+     *   dL/db1_i  = dL/dz1_i
+     * Each weight update also carries an L2 pull toward the CFP anchor.
+     *
+     * @param p              result of the predict() call being corrected
+     * @param correctIntent  true intent label, 0 .. outputs-1
+     * @param lr             learning rate (0.05f recommended)
+     *
+     * The step reaches predict() with the next query, which publishes it
+     * together with any other steps taken in between. learn() itself
+     * allocates nothing once each touched weight group has its anchor copy.
+     */
+    public synchronized void learn(Prediction p, int correctIntent, float lr) {
+        if (p == null || !p.fits(inputSize, hiddenSize, outputSize)) return;
+        trainer.learn(p, correctIntent, lr);
+        stale = true;
     }
 
-    // ── Internal: decompress static bytes → float arrays ─────────────────────
-    private void decompressWeights() {
-        // W1: first 300 logical indices
-        for (int i = 0; i < HIDDEN_SIZE * FEATURE_SIZE; i++) {
-            w1[i] = getRawWeight(i);
+    /** Corrections buffered before the MIDlet trains a replay round. */
+    public static final int REPLAY_BATCH = 8;
+
+    /**
+     * Train the replay buffer's pending corrections (plus as many older
+     * ones, for rehearsal) in mini-batches of `batchSize`, then publish the
+     * result once. The caller persists with saveWeights() when convenient
+     * (the MIDlet goes through WriteBehindSaver) — the corrections
+     * themselves are already safe in the buffer's RMS store.
+     *
+     * @return mini-batch steps taken; 0 if nothing was pending
+     */
+    public synchronized int trainReplay(ReplayBuffer rb, int batchSize, float lr) {
+        if (trainer == null || batchSize < 1) return 0;
+        int cap = 2 * rb.capacity();
+        short[][] act = new short[cap][];
+        byte[]    lab = new byte[cap];
+        float[]   wt  = new float[cap];
+        int sel = rb.select(act, lab, wt);
+        if (sel == 0) return 0;
+        int n = 0;
+        for (int k = 0; k < sel; k++) { // drop entries recorded for another model shape
+            if (lab[k] < 0 || lab[k] >= outputSize || !indicesFit(act[k])) continue;
+            act[n] = act[k]; lab[n] = lab[k]; wt[n] = wt[k];
+            n++;
         }
-        // W2: next 96 logical indices
-        for (int i = 0; i < OUTPUT_SIZE * HIDDEN_SIZE; i++) {
-            w2[i] = getRawWeight(HIDDEN_SIZE * FEATURE_SIZE + i);
+        int steps = 0;
+        for (int from = 0; from < n; from += batchSize) {
+            int m = n - from < batchSize ? n - from : batchSize;
+            trainer.learnBatch(act, lab, wt, from, m, lr);
+            steps++;
         }
-        for (int i = 0; i < HIDDEN_SIZE; i++) b1[i] = getRawBias(i);
-        for (int i = 0; i < OUTPUT_SIZE; i++) b2[i] = getRawBias(HIDDEN_SIZE + i);
-        copyToAnchor(); // anchor starts at factory defaults
+        publish();
+        rb.markTrained();
+        return steps;
+    }
+
+    private boolean indicesFit(short[] idx) {
+        for (int j = 0; j < idx.length; j++) {
+            if (idx[j] < 0 || idx[j] >= inputSize) return false;
+        }
+        return true;
+    }
+
+    // ── Weight persistence (RecordStore) ──────────────────────────────────────
+    /**
+     * Persist current weights to RMS so they survive app restarts. Usually
+     * writes only the parameters changed since the last save; those changes
+     * are first rounded to the journal's 2^-16 grid, so the published
+     * snapshot is refreshed to match what is on RMS.
+     */
+    public synchronized void saveWeights() {
+        trainer.saveWeights(false);
+        publish();
     }
 
-    /** Snapshot current weights as the new stable baseline for L2 regularisation. */
-    private void copyToAnchor() {
-        System.arraycopy(w1, 0, anchorW1, 0, w1.length);
-        System.arraycopy(w2, 0, anchorW2, 0, w2.length);
-        System.arraycopy(b1, 0, anchorB1, 0, b1.length);
-        System.arraycopy(b2, 0, anchorB2, 0, b2.length);
+    /** Overwrite current weights with the original factory defaults and clear RMS. */
+    public synchronized void resetWeights() {
+        trainer.resetWeights();
+        publish();
     }
 
     // ── Federated learning hooks ──────────────────────────────────────────────
 
     /**
-     * Flatten current weights minus FL anchor into one float[428] in the
-     * canonical order: w1, w2, b1, b2. The result is the per-round delta the
-     * device contributes to the federated average; differential-privacy noise
-     * is added by FederatedLearning before this leaves the security boundary.
+     * Flatten current weights minus FL anchor into one float[getParamCount()]
+     * in the canonical order: w1, w2, b1, b2. The result is the per-round
+     * delta the device contributes to the federated average;
+     * differential-privacy noise is added by FederatedLearning before this
+     * leaves the security boundary.
      */
-    public float[] computeDeltaFromFLAnchor() {
-        float[] delta = new float[TOTAL_PARAMS];
-        int idx = 0;
-        for (int i = 0; i < w1.length; i++) delta[idx++] = w1[i] - flAnchorW1[i];
-        for (int i = 0; i < w2.length; i++) delta[idx++] = w2[i] - flAnchorW2[i];
-        for (int i = 0; i < b1.length; i++) delta[idx++] = b1[i] - flAnchorB1[i];
-        for (int i = 0; i < b2.length; i++) delta[idx++] = b2[i] - flAnchorB2[i];
-        return delta;
+    public synchronized float[] computeDeltaFromFLAnchor() {
+        return trainer.computeDeltaFromFLAnchor();
     }
 
     /**
      * Replace current weights with a fresh global pulled from the FL server,
      * advance both anchors so future learn() corrections regularise toward
-     * the global, and persist to RMS.
+     * the global, and persist to RMS. Safe to call from the network thread:
+     * queries in flight finish on the weights they started with.
      */
-    public void applyGlobalUpdate(float[] newGlobal) {
-        if (newGlobal == null || newGlobal.length != TOTAL_PARAMS) return;
-        int idx = 0;
-        for (int i = 0; i < w1.length; i++) { w1[i] = newGlobal[idx]; flAnchorW1[i] = newGlobal[idx]; idx++; }
-        for (int i = 0; i < w2.length; i++) { w2[i] = newGlobal[idx]; flAnchorW2[i] = newGlobal[idx]; idx++; }
-        for (int i = 0; i < b1.length; i++) { b1[i] = newGlobal[idx]; flAnchorB1[i] = newGlobal[idx]; idx++; }
-        for (int i = 0; i < b2.length; i++) { b2[i] = newGlobal[idx]; flAnchorB2[i] = newGlobal[idx]; idx++; }
-        copyToAnchor();
-        saveWeights();
+    public synchronized void applyGlobalUpdate(float[] newGlobal) {
+        if (newGlobal == null || newGlobal.length != getParamCount()) return;
+        trainer.applyGlobalUpdate(newGlobal);
+        publish();
+        trainer.saveWeights(true); // everything changed: a fresh base checkpoint
     }
 
     /** Initialise FL anchor to current weights — called once at first run. */
-    public void initFLAnchorFromCurrent() {
-        System.arraycopy(w1, 0, flAnchorW1, 0, w1.length);
-        System.arraycopy(w2, 0, flAnchorW2, 0, w2.length);
-        System.arraycopy(b1, 0, flAnchorB1, 0, b1.length);
-        System.arraycopy(b2, 0, flAnchorB2, 0, b2.length);
+    public synchronized void initFLAnchorFromCurrent() {
+        trainer.initFLAnchorFromCurrent();
     }
 
     /**
@@ -352,90 +672,64 @@ public class CompressedTinyML {
         return lnM - k * 0.6931471805599453; // ln(2)
     }
 
-    /** Load persisted weights from RMS; silently keeps current weights if not found. */
-    private void loadSavedWeights() {
-        RecordStore rs = null;
-        try {
-            rs = RecordStore.openRecordStore(RMS_STORE, false);
-            if (rs.getNumRecords() > 0) {
-                byte[] data = rs.getRecord(1);
-                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-                for (int i = 0; i < w1.length; i++) w1[i] = dis.readFloat();
-                for (int i = 0; i < w2.length; i++) w2[i] = dis.readFloat();
-                for (int i = 0; i < b1.length; i++) b1[i] = dis.readFloat();
-                for (int i = 0; i < b2.length; i++) b2[i] = dis.readFloat();
-                copyToAnchor(); // anchor = what was persisted, so future corrections don't forget it
-                System.out.println("Loaded saved weights from RMS.");
-            }
-        } catch (RecordStoreNotFoundException e) {
-            System.out.println("No saved weights — using factory defaults.");
-        } catch (Exception e) {
-            StringBuffer le = new StringBuffer("loadSavedWeights error: ");
-            le.append(e.getMessage());
-            System.out.println(le.toString());
-        } finally {
-            if (rs != null) {
-                try { rs.closeRecordStore(); } catch (Exception ignore) {}
-            }
+    // ── Forward pass (fixed point) ────────────────────────────────────────────
+    /** Integer-only forward pass; mirrors the float path in predict(). */
+    private void predictFixed(Snapshot s, Prediction p) {
+        int[] qZ1 = p.qZ1, qA1 = p.qA1, qZ2 = p.qZ2;
+        s.hidden.forwardActiveFixed(p.active, p.activeCount, qZ1);
+        for (int i = 0; i < hiddenSize; i++) {
+            qA1[i] = (qZ1[i] > 0) ? qZ1[i] : 0;
         }
-    }
+        s.output.forwardFixed(qA1, qZ2);
+        softmaxFixed(qZ2);
 
-    // ── Nibble decompression (maps 4-bit [0,15] → float [-1.0, 1.0]) ─────────
-    private float getRawWeight(int logicalIndex) {
-        int byteIdx   = logicalIndex / 2;
-        int nibbleShift = (logicalIndex % 2) * 4;
-        if (byteIdx < COMPRESSED_WEIGHTS.length) {
-            int w4 = (COMPRESSED_WEIGHTS[byteIdx] >> nibbleShift) & 0x0F;
-            return (w4 - 7.5f) / 7.5f;
+        byte best = 0;
+        for (byte i = 1; i < outputSize; i++) {
+            if (qZ2[i] > qZ2[best]) best = i;
         }
-        return 0.0f;
+        p.intent        = best;
+        p.confidenceQ16 = qZ2[best];
+        p.confidence    = p.confidenceQ16 * (1.0f / Q16_ONE);
+        p.floatStale    = true;
     }
 
-    private float getRawBias(int index) {
-        if (index < 20) {
-            int byteIdx     = index / 2;
-            int nibbleShift = (index % 2) * 4;
-            int b4 = (COMPRESSED_BIASES[byteIdx] >> nibbleShift) & 0x0F;
-            return (b4 - 7.5f) / 7.5f;
+    /** In-place Q16.16 softmax: logits in, probabilities (sum ~ 1.0) out. */
+    private static void softmaxFixed(int[] x) {
+        int max = x[0];
+        for (int i = 1; i < x.length; i++) {
+            if (x[i] > max) max = x[i];
         }
-        return 0.0f;
-    }
-
-    // ── Forward pass ──────────────────────────────────────────────────────────
-    /** Computes hidden layer; stores pre-ReLU in lastZ1, post-ReLU in lastA1. */
-    private void computeHiddenLayer(byte[] features) {
-        for (int i = 0; i < HIDDEN_SIZE; i++) {
-            float sum = b1[i];
-            for (int j = 0; j < FEATURE_SIZE; j++) {
-                sum += features[j] * w1[i * FEATURE_SIZE + j];
+        int sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            x[i] = expFixed(x[i] - max);
+            sum += x[i];
+        }
+        if (sum > 0) {
+            for (int i = 0; i < x.length; i++) {
+                x[i] = (int) (((long) x[i] << 16) / sum);
             }
-            lastZ1[i] = sum;
-            lastA1[i] = relu(sum);
         }
     }
 
-    /** Computes output layer from lastA1; stores softmax probs in lastOutput. */
-    private float[] computeOutputLayer() {
-        float[] z2 = new float[OUTPUT_SIZE];
-        for (int i = 0; i < OUTPUT_SIZE; i++) {
-            float sum = b2[i];
-            for (int j = 0; j < HIDDEN_SIZE; j++) {
-                sum += lastA1[j] * w2[i * HIDDEN_SIZE + j];
-            }
-            z2[i] = sum;
-        }
-        float[] out = softmax(z2);
-        for (int i = 0; i < OUTPUT_SIZE; i++) lastOutput[i] = out[i];
-        return out;
+    /**
+     * Q16.16 twin of expApprox: (1 + x/8)^8 with the same clamps. Only
+     * called with x <= 0 (after max subtraction), so t stays in [0, 1].
+     */
+    private static int expFixed(int x) {
+        if (x >  5 * Q16_ONE) return 9726427;  // 148.413 in Q16.16
+        if (x < -5 * Q16_ONE) return 439;      // 0.0067 in Q16.16
+        long t = Q16_ONE + (x >> 3);
+        t = (t * t) >> 16; t = (t * t) >> 16; t = (t * t) >> 16; // ^8
+        return (int) t;
     }
 
     // ── Math ──────────────────────────────────────────────────────────────────
-    private float[] softmax(float[] x) {
+    /** Writes softmax(x) into out; x and out must have the same length. */
+    private void softmax(float[] x, float[] out) {
         float max = x[0];
         for (int i = 1; i < x.length; i++) {
             if (x[i] > max) max = x[i];
         }
-        float[] out = new float[x.length];
         float sum = 0.0f;
         for (int i = 0; i < x.length; i++) {
             out[i] = expApprox(x[i] - max);
@@ -444,11 +738,26 @@ public class CompressedTinyML {
         if (sum > 0.00001f) {
             for (int i = 0; i < out.length; i++) out[i] /= sum;
         }
-        return out;
+    }
+
+    /** softmax() over x[xOff .. xOff + n) into out[oOff ..]. */
+    static void softmax(float[] x, int xOff, float[] out, int oOff, int n) {
+        float max = x[xOff];
+        for (int i = 1; i < n; i++) {
+            if (x[xOff + i] > max) max = x[xOff + i];
+        }
+        float sum = 0.0f;
+        for (int i = 0; i < n; i++) {
+            out[oOff + i] = expApprox(x[xOff + i] - max);
+            sum += out[oOff + i];
+        }
+        if (sum > 0.00001f) {
+            for (int i = 0; i < n; i++) out[oOff + i] /= sum;
+        }
     }
 
     /** Fast exp approximation via (1 + x/8)^8 — accurate enough for softmax routing. */
-    private float expApprox(float x) {
+    static float expApprox(float x) {
         if (x >  5.0f) return 148.413f;
         if (x < -5.0f) return 0.0067f;
         float t = 1.0f + x / 8.0f;
@@ -474,194 +783,171 @@ public class CompressedTinyML {
         return max;
     }
 
-    // ── Feature extraction (25 binary features) ───────────────────────────────
-    private byte[] extractFeatures(String text) {
-        byte[] features = new byte[FEATURE_SIZE];
-        String lower = text.toLowerCase();
-
-        // Features 0-8: Subject keywords
-        String[] subjectKeywords = {
-            "math", "science", "english", "calculat", "experiment",
-            "grammar", "plant", "animal", "living"
-        };
-        for (int i = 0; i < subjectKeywords.length; i++) {
-            if (contains(lower, subjectKeywords[i])) features[i] = 1;
-        }
-
+    // ── Feature extraction (26 keyword features + hashed words) ──────────────
+    // Every keyword rule of the original indexOf-based extractor, flattened
+    // into (keyword group, feature mask) pairs and compiled once into a
+    // single Aho--Corasick automaton. One left-to-right pass over the query
+    // sets all 26 bits. test/com/elimu/FeatureExtractorParity.java keeps the
+    // original extractor as the oracle, off the device.
+    private static final int F_SCIENCE = 1 << 1;
+    private static final int F_PLANT   = 1 << 6;
+    private static final int F_ANIMAL  = 1 << 7;
+    private static final int F_LIVING  = 1 << 8;
+    private static final int F_GREET   = 1 << 24;
+    private static final int F_FAREWELL = 1 << 25;
+
+    private static final String[][] FEATURE_KEYWORDS = {
+        // Features 0-8: subject keywords (one group per feature)
+        {"math"}, {"science"}, {"english"}, {"calculat"}, {"experiment"},
+        {"grammar"}, {"plant"}, {"animal"}, {"living"},
         // Aliases: biology terms not in the primary keyword list
-        if (contains(lower, "insect")    || contains(lower, "vertebr")  ||
-            contains(lower, "invertebr") || contains(lower, "pollinat") ||
-            contains(lower, "bee")       || contains(lower, "worm")     ||
-            contains(lower, "bird")      || contains(lower, "fish")     ||
-            contains(lower, "mammal")    || contains(lower, "reptile")  ||
-            contains(lower, "amphibian")) {
-            features[7] = 1; features[1] = 1;
-        }
-        if (contains(lower, "chlorophyll") || contains(lower, "stomata") ||
-            contains(lower, "transpir")    || contains(lower, "leaf")    ||
-            contains(lower, "leaves")      || contains(lower, "root")    ||
-            contains(lower, "seed")        || contains(lower, "flower")  ||
-            contains(lower, "stem")) {
-            features[6] = 1; features[1] = 1;
-        }
-        if (features[6] == 1 || features[7] == 1 || features[8] == 1) features[1] = 1;
-
-        // Human body / health
-        if (contains(lower, "heart")    || contains(lower, "blood")    ||
-            contains(lower, "circul")   || contains(lower, "artery")   ||
-            contains(lower, "arteries") || contains(lower, "vein")     ||
-            contains(lower, "capillar") || contains(lower, "pulse")    ||
-            contains(lower, "plasma")   || contains(lower, "haemoglob")) {
-            features[1] = 1;
-        }
-        // Reproductive system / adolescence
-        if (contains(lower, "reproduct") || contains(lower, "adolescen") ||
-            contains(lower, "puberty")   || contains(lower, "ovary")    ||
-            contains(lower, "uterus")    || contains(lower, "testis")   ||
-            contains(lower, "sperm")     || contains(lower, "menstruat")||
-            contains(lower, "ovulat")    || contains(lower, "fallopian")) {
-            features[1] = 1;
-        }
-        // Water conservation
-        if (contains(lower, "conserv") || contains(lower, "harvest") ||
-            contains(lower, "recycle") || contains(lower, "mulch")) {
-            features[1] = 1;
-        }
-
-        // Digestive, respiratory, skeletal systems
-        if (contains(lower,"digest") || contains(lower,"stomach") || contains(lower,"intestin") ||
-            contains(lower,"liver")  || contains(lower,"bile")    || contains(lower,"saliva")   ||
-            contains(lower,"oesoph") || contains(lower,"enzyme")) features[1] = 1;
-
-        if (contains(lower,"lung")   || contains(lower,"respirat") || contains(lower,"breath")  ||
-            contains(lower,"trachea")|| contains(lower,"bronch")   || contains(lower,"diaphragm")) features[1] = 1;
-
-        if (contains(lower,"skeleton") || contains(lower,"bone") || contains(lower,"joint")   ||
-            contains(lower,"cartilage") || contains(lower,"muscle") || contains(lower,"skull")) features[1] = 1;
-
-        // Physics and environment
-        if (contains(lower,"lever")  || contains(lower,"pulley") || contains(lower,"machine")  ||
-            contains(lower,"fulcrum") || contains(lower,"effort") || contains(lower,"inclined")) features[1] = 1;
-
-        if (contains(lower,"solid")  || contains(lower,"liquid") || contains(lower,"melting")  ||
-            contains(lower,"boiling")|| contains(lower,"matter")  || contains(lower,"condensat")) features[1] = 1;
-
-        if (contains(lower,"soil")   || contains(lower,"erosion")|| contains(lower,"weather")  ||
-            contains(lower,"loam")   || contains(lower,"sandy")  || contains(lower,"clay")) features[1] = 1;
-
-        if (contains(lower,"bacteria")|| contains(lower,"virus") || contains(lower,"fungus")   ||
-            contains(lower,"microorganism") || contains(lower,"disease") || contains(lower,"germ")) features[1] = 1;
-
+        {"insect", "vertebr", "invertebr", "pollinat", "bee", "worm", "bird",
+         "fish", "mammal", "reptile", "amphibian"},
+        {"chlorophyll", "stomata", "transpir", "leaf", "leaves", "root", "seed",
+         "flower", "stem"},
+        // Human body, reproduction, water conservation, digestive,
+        // respiratory, skeletal, physics, matter, soil, microorganisms
+        {"heart", "blood", "circul", "artery", "arteries", "vein", "capillar",
+         "pulse", "plasma", "haemoglob",
+         "reproduct", "adolescen", "puberty", "ovary", "uterus", "testis",
+         "sperm", "menstruat", "ovulat", "fallopian",
+         "conserv", "harvest", "recycle", "mulch",
+         "digest", "stomach", "intestin", "liver", "bile", "saliva", "oesoph",
+         "enzyme",
+         "lung", "respirat", "breath", "trachea", "bronch", "diaphragm",
+         "skeleton", "bone", "joint", "cartilage", "muscle", "skull",
+         "lever", "pulley", "machine", "fulcrum", "effort", "inclined",
+         "solid", "liquid", "melting", "boiling", "matter", "condensat",
+         "soil", "erosion", "weather", "loam", "sandy", "clay",
+         "bacteria", "virus", "fungus", "microorganism", "disease", "germ"},
         // Vertebrate groups
-        if (contains(lower,"amphibian") || contains(lower,"reptile") || contains(lower,"frog") ||
-            contains(lower,"lizard")    || contains(lower,"mammal")  || contains(lower,"bird")  ||
-            contains(lower,"gill")      || contains(lower,"feather") || contains(lower,"scale")) {
-            features[7] = 1; features[1] = 1;
-        }
-
+        {"amphibian", "reptile", "frog", "lizard", "mammal", "bird", "gill",
+         "feather", "scale"},
         // Plant reproduction
-        if (contains(lower,"germinat") || contains(lower,"dispersal") || contains(lower,"vegetative")) {
-            features[6] = 1; features[1] = 1;
-        }
-
-        // Features 9-13: Living-things specifics
-        if (contains(lower, "photosynthes")) features[9]  = 1;
-        if (contains(lower, "habitat"))      features[10] = 1;
-        if (contains(lower, "food"))         features[11] = 1;
-        if (contains(lower, "water"))        features[12] = 1;
-        if (contains(lower, "grow"))         features[13] = 1;
+        {"germinat", "dispersal", "vegetative"},
+        // Features 9-13: living-things specifics
+        {"photosynthes"}, {"habitat"}, {"food"}, {"water"}, {"grow"},
+        // Features 14-17: question type
+        {"what", "which"}, {"how"}, {"why"}, {"when", "where"},
+        // Features 18-23: educational context
+        {"help"}, {"learn"}, {"teach"}, {"explain"}, {"question"}, {"answer"},
+        // Feature 24: greeting. " hi " also matches "hi ..." at the start of
+        // the query (KeywordMatcher scans from a virtual leading space);
+        // the bare query "hi" is special-cased in extractFeatures.
+        {"hello", "hey", " hi ", "good morning", "good afternoon",
+         "good evening", "good day"},
+        // Feature 25: farewell
+        {"bye", "goodbye", "good bye", "good night", "exit", "quit", "farewell",
+         "see you"}
+    };
 
-        // Features 14-17: Question type
-        if (contains(lower, "what") || contains(lower, "which")) features[14] = 1;
-        if (contains(lower, "how"))                               features[15] = 1;
-        if (contains(lower, "why"))                               features[16] = 1;
-        if (contains(lower, "when") || contains(lower, "where"))  features[17] = 1;
+    private static final int[] FEATURE_MASKS = {
+        1 << 0, 1 << 1, 1 << 2, 1 << 3, 1 << 4, 1 << 5, 1 << 6, 1 << 7, 1 << 8,
+        F_ANIMAL | F_SCIENCE,
+        F_PLANT  | F_SCIENCE,
+        F_SCIENCE,
+        F_ANIMAL | F_SCIENCE,
+        F_PLANT  | F_SCIENCE,
+        1 << 9, 1 << 10, 1 << 11, 1 << 12, 1 << 13,
+        1 << 14, 1 << 15, 1 << 16, 1 << 17,
+        1 << 18, 1 << 19, 1 << 20, 1 << 21, 1 << 22, 1 << 23,
+        F_GREET,
+        F_FAREWELL
+    };
 
-        // Features 18-23: Educational context
-        String[] ctx = {"help", "learn", "teach", "explain", "question", "answer"};
-        for (int i = 0; i < ctx.length; i++) {
-            if (contains(lower, ctx[i])) features[18 + i] = 1;
-        }
+    private static final KeywordMatcher FEATURE_MATCHER =
+            new KeywordMatcher(FEATURE_KEYWORDS, FEATURE_MASKS);
 
-        // Feature 24: greeting-specific (hello/hi/hey/good morning/afternoon/evening)
-        if (contains(lower, "hello") || contains(lower, "hey") ||
-            lower.startsWith("hi ") || lower.equals("hi") || contains(lower, " hi ") ||
-            contains(lower, "good morning") || contains(lower, "good afternoon") ||
-            contains(lower, "good evening") || contains(lower, "good day")) {
-            features[24] = 1;
-        }
-        // Feature 25: farewell-specific (bye/goodbye/exit/good night — distinct from greeting)
-        if (contains(lower, "bye") || contains(lower, "goodbye") ||
-            contains(lower, "good bye") || contains(lower, "good night") ||
-            contains(lower, "exit") || contains(lower, "quit") ||
-            contains(lower, "farewell") || contains(lower, "see you")) {
-            features[25] = 1;
+    /**
+     * The 26 keyword features of `text` as a bit mask, feature j in bit j.
+     * Stateless; AnswerCache builds its query sketches from it too.
+     */
+    static int keywordFeatures(String text) {
+        int mask = FEATURE_MATCHER.match(text);
+        if (text.length() == 2
+                && Character.toLowerCase(text.charAt(0)) == 'h'
+                && Character.toLowerCase(text.charAt(1)) == 'i') {
+            mask |= F_GREET;
         }
-
-        return features;
-    }
-
-    private boolean contains(String str, String sub) {
-        return str.indexOf(sub) != -1;
+        // Any plant/animal/living signal implies science.
+        if ((mask & (F_PLANT | F_ANIMAL | F_LIVING)) != 0) mask |= F_SCIENCE;
+        return mask;
     }
 
-    // ── Uncertainty quantification ────────────────────────────────────────────
-
     /**
-     * Gini impurity as a model-uncertainty measure.
-     * Range: 0 (perfectly certain) → (OUTPUT_SIZE-1)/OUTPUT_SIZE (maximally uncertain).
-     * For 8 classes the theoretical maximum is 0.875.
-     *
-     * PhD rationale: uncertainty drives the cloud-fallback decision.
-     * Gini impurity is preferred over entropy here because it requires no
-     * logarithm computation, which has no efficient closed form in CLDC 1.1.
+     * Writes the binary features of `text` into `features` and the indices
+     * of the set ones, ascending, into `active`. Returns how many features
+     * are set. Both arrays hold at least inputSize entries.
      */
-    public float getUncertainty() {
-        float sumSq = 0.0f;
-        for (int i = 0; i < OUTPUT_SIZE; i++) {
-            sumSq += lastOutput[i] * lastOutput[i];
+    private int extractFeatures(String text, byte[] features, short[] active) {
+        int mask = keywordFeatures(text);
+        int count = 0;
+        for (int j = 0; j < BASE_FEATURES; j++) {
+            int bit = (mask >>> j) & 1;
+            features[j] = (byte) bit;
+            if (bit != 0) active[count++] = (short) j;
         }
-        return 1.0f - sumSq;
+        if (inputSize > BASE_FEATURES) count = hashWords(text, features, active, count);
+        return count;
     }
 
     /**
-     * Returns the indices of the top-n highest-probability intents in
-     * descending order. Used by the MIDlet to surface a secondary suggestion
-     * when the top-1 confidence is borderline.
+     * Hashed bag-of-words for inputs 26..inputSize-1: each run of ASCII
+     * letters and digits (case-folded) sets bucket
+     * 26 + FNV-1a(word) mod (inputSize - 26). Must match hashed_bucket() in
+     * simulators/model_container.py, which the training side uses.
      */
-    public byte[] getTopIntents(int n) {
-        byte[] rank = new byte[OUTPUT_SIZE];
-        for (byte i = 0; i < OUTPUT_SIZE; i++) rank[i] = i;
-        // Insertion sort (8 elements — negligible cost)
-        for (int i = 1; i < OUTPUT_SIZE; i++) {
-            byte key = rank[i];
-            int  j   = i - 1;
-            while (j >= 0 && lastOutput[rank[j]] < lastOutput[key]) {
-                rank[j + 1] = rank[j];
-                j--;
+    private int hashWords(String text, byte[] features, short[] active, int count) {
+        int buckets = inputSize - BASE_FEATURES;
+        for (int j = BASE_FEATURES; j < inputSize; j++) features[j] = 0;
+        int n = text.length();
+        int h = FNV_OFFSET;
+        boolean inWord = false;
+        for (int i = 0; i <= n; i++) {
+            char c = (i < n) ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                h = (h ^ c) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                int bucket = (h & 0x7fffffff) % buckets;
+                if (features[BASE_FEATURES + bucket] == 0) {
+                    features[BASE_FEATURES + bucket] = 1;
+                    active[count++] = (short) (BASE_FEATURES + bucket);
+                }
+                h = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        // Buckets were appended in text order; keep the list ascending.
+        for (int a = 1; a < count; a++) {
+            short key = active[a];
+            int b = a - 1;
+            while (b >= 0 && active[b] > key) {
+                active[b + 1] = active[b];
+                b--;
             }
-            rank[j + 1] = key;
+            active[b + 1] = key;
         }
-        if (n > OUTPUT_SIZE) n = OUTPUT_SIZE;
-        byte[] result = new byte[n];
-        System.arraycopy(rank, 0, result, 0, n);
-        return result;
+        return count;
     }
 
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME  = 0x01000193;
+
     // ── Debug helpers ─────────────────────────────────────────────────────────
     public void debugPrediction(String text) {
-        byte[] features = extractFeatures(text);
+        Prediction p = predict(text, null);
         StringBuffer fb = new StringBuffer("Features: ");
-        for (int i = 0; i < features.length; i++) {
-            if (features[i] == 1) { fb.append(getFeatureName(i)); fb.append(' '); }
+        for (int i = 0; i < p.features.length; i++) {
+            if (p.features[i] == 1) { fb.append(getFeatureName(i)); fb.append(' '); }
         }
         System.out.println(fb.toString());
 
-        byte intent = predict(text);
+        byte intent = p.getIntent();
         StringBuffer db = new StringBuffer("DEBUG '");
         db.append(text); db.append("' -> Intent ");
         db.append(intent); db.append(" ("); db.append(getIntentName(intent));
-        db.append(") conf="); db.append(getLastConfidence());
+        db.append(") conf="); db.append(p.getConfidence());
         System.out.println(db.toString());
     }
 
@@ -677,18 +963,10 @@ public class CompressedTinyML {
         StringBuffer sb = new StringBuffer("f"); sb.append(i); return sb.toString();
     }
 
-    private String getIntentName(byte id) {
-        switch (id) {
-            case 0: return "math_help";
-            case 1: return "science_help";
-            case 2: return "english_help";
-            case 3: return "quiz";
-            case 4: return "general_help";
-            case 5: return "progress";
-            case 6: return "greeting";
-            case 7: return "farewell";
-            default: return "unknown";
-        }
+    /** Intent label from the model's label table, or "unknown". */
+    String getIntentName(byte id) {
+        if (intentLabels == null || id < 0 || id >= intentLabels.length) return "unknown";
+        return intentLabels[id];
     }
 
     /**
@@ -696,51 +974,50 @@ public class CompressedTinyML {
      * header) into the integer intent id used by predict()/learn().
      * Returns -1 on unrecognised input.
      */
-    public static int intentIdFromLabel(String label) {
-        if (label == null) return -1;
-        if ("math_help".equals(label))    return 0;
-        if ("science_help".equals(label)) return 1;
-        if ("english_help".equals(label)) return 2;
-        if ("quiz".equals(label))         return 3;
-        if ("general_help".equals(label)) return 4;
-        if ("progress".equals(label))     return 5;
-        if ("greeting".equals(label))     return 6;
-        if ("farewell".equals(label))     return 7;
+    public int intentIdFromLabel(String label) {
+        if (label == null || intentLabels == null) return -1;
+        for (int i = 0; i < intentLabels.length; i++) {
+            if (intentLabels[i].equals(label)) return i;
+        }
         return -1;
     }
 
+    // Covers all 8 intents + Swahili normalised inputs + SMS shorthands
+    private static final String[] SELF_TEST_CASES = {
+        // Math (intent 0)
+        "how to calculate fractions", "percent calculation math",
+        // Science (intent 1)
+        "what is photosynthesis", "food chain living things", "blood circulatory",
+        // English (intent 2 → routed to science)
+        "english grammar nouns",
+        // Quiz (intent 3)
+        "take a quiz", "quiz question answer",
+        // General (intent 4)
+        "help me please",
+        // Progress (intent 5)
+        "show my progress scores",
+        // Greeting (intent 6)
+        "good morning hello",
+        // Farewell (intent 7)
+        "goodbye bye",
+    };
+    private static final int[] SELF_TEST_EXPECTED = {0, 0, 1, 1, 1, 2, 3, 3, 4, 5, 6, 7};
+
     public void testModel() {
         System.out.println("=== Model Self-Test (startup) ===");
-        // Covers all 8 intents + Swahili normalised inputs + SMS shorthands
-        String[] cases = {
-            // Math (intent 0)
-            "how to calculate fractions", "percent calculation math",
-            // Science (intent 1)
-            "what is photosynthesis", "food chain living things", "blood circulatory",
-            // English (intent 2 → routed to science)
-            "english grammar nouns",
-            // Quiz (intent 3)
-            "take a quiz", "quiz question answer",
-            // General (intent 4)
-            "help me please",
-            // Progress (intent 5)
-            "show my progress scores",
-            // Greeting (intent 6)
-            "good morning hello",
-            // Farewell (intent 7)
-            "goodbye bye",
-        };
+        String[] cases = SELF_TEST_CASES;
+        int[] expected = SELF_TEST_EXPECTED;
         int pass = 0;
-        int[] expected = {0, 0, 1, 1, 1, 2, 3, 3, 4, 5, 6, 7};
+        Prediction p = newPrediction();
         for (int i = 0; i < cases.length; i++) {
-            byte pred = predict(cases[i]);
-            float unc = getUncertainty();
+            byte pred = predict(cases[i], p).getIntent();
+            float unc = p.getUncertainty();
             boolean ok = (pred == expected[i]);
             if (ok) pass++;
             StringBuffer sb = new StringBuffer(ok ? "[OK] " : "[??] ");
             sb.append(cases[i]);
             sb.append(" -> "); sb.append(getIntentName(pred));
-            sb.append(" conf="); sb.append(getLastConfidence());
+            sb.append(" conf="); sb.append(p.getConfidence());
             sb.append(" unc="); sb.append(unc);
             System.out.println(sb.toString());
         }
@@ -749,4 +1026,325 @@ public class CompressedTinyML {
         summary.append(" correct");
         System.out.println(summary.toString());
     }
-}
\ No newline at end of file
+
+    /**
+     * Parity report of the fixed-point forward pass against the float path
+     * on the testModel() queries: top-1 intent, cloud-routing decision and
+     * the largest per-class probability difference. Two private factory
+     * models, one in each mode, so the live model's mode never changes
+     * under a query. A benchmark (Elimu-Benchmark=true).
+     */
+    public static boolean testFixedPointParity() {
+        CompressedTinyML flt, fix;
+        try {
+            flt = factoryModel();
+            fix = factoryModel();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+        fix.setFixedPoint(true);
+        Prediction fp = flt.newPrediction();
+        Prediction qp = fix.newPrediction();
+        int sameIntent = 0;
+        int sameRoute  = 0;
+        float worst = 0.0f;
+        for (int c = 0; c < SELF_TEST_CASES.length; c++) {
+            byte fIntent = flt.predict(SELF_TEST_CASES[c], fp).getIntent();
+            boolean fCloud = fp.shouldFallbackToCloud();
+
+            byte qIntent = fix.predict(SELF_TEST_CASES[c], qp).getIntent();
+            boolean qCloud = qp.shouldFallbackToCloud();
+            qp.syncFloatCache();
+            float diff = 0.0f;
+            for (int i = 0; i < flt.outputSize; i++) {
+                float d = qp.probs[i] - fp.probs[i];
+                if (d < 0) d = -d;
+                if (d > diff) diff = d;
+            }
+            if (diff > worst) worst = diff;
+            if (fIntent == qIntent) sameIntent++;
+            if (fCloud == qCloud) sameRoute++;
+
+            StringBuffer sb = new StringBuffer(
+                    (fIntent == qIntent && fCloud == qCloud) ? "[OK] " : "[??] ");
+            sb.append(SELF_TEST_CASES[c]);
+            sb.append(" float="); sb.append(flt.getIntentName(fIntent));
+            sb.append("@"); sb.append(fp.getConfidence());
+            sb.append(" fixed="); sb.append(fix.getIntentName(qIntent));
+            sb.append("@"); sb.append(qp.getConfidence());
+            sb.append(" max|dp|="); sb.append(diff);
+            System.out.println(sb.toString());
+        }
+        int n = SELF_TEST_CASES.length;
+        StringBuffer summary = new StringBuffer("Fixed-point parity: top-1 ");
+        summary.append(sameIntent); summary.append("/"); summary.append(n);
+        summary.append(", routing "); summary.append(sameRoute);
+        summary.append("/"); summary.append(n);
+        summary.append(", max|dp| "); summary.append(worst);
+        System.out.println(summary.toString());
+        return sameIntent == n && sameRoute == n;
+    }
+
+    /**
+     * Time per learn() step with the hidden layer's lazy anchor pull
+     * against the dense reference that pulls every column on every step,
+     * on two factory models taking the same `steps` corrections over the
+     * self-test queries. That the two agree is checked on the host
+     * (test/com/elimu/LazyDecayCheck.java); this reports the cost on the
+     * handset. A benchmark (Elimu-Benchmark=true).
+     */
+    public static void benchmarkLazyDecay(int steps) {
+        CompressedTinyML lazy, dense;
+        try {
+            lazy  = factoryModel();
+            dense = factoryModel();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        dense.setLazyDecay(false);
+        long lazyMs  = lazy.trainCorrections(steps);
+        long denseMs = dense.trainCorrections(steps);
+        StringBuffer sb = new StringBuffer("Lazy L2 pull: ");
+        sb.append(steps);
+        sb.append(" learn() steps, "); sb.append(lazyMs * 1000 / steps);
+        sb.append("us each vs dense "); sb.append(denseMs * 1000 / steps);
+        sb.append("us");
+        System.out.println(sb.toString());
+    }
+
+    /**
+     * Bytes of anchor payload held now, 0 until the weights are expanded;
+     * for the anchor storage check.
+     */
+    synchronized int anchorBytes() {
+        return trainer.anchorBytes();
+    }
+
+    /** Expand the working weights to floats now rather than on the first correction. */
+    synchronized void expandWeights() {
+        trainer.expand();
+    }
+
+    /**
+     * Benchmark and host-check workload: `steps` learn() steps over the
+     * self-test queries, then one replay round of them. Returns the ms
+     * spent in the learn() steps.
+     */
+    synchronized long trainCorrections(int steps) {
+        int n = SELF_TEST_CASES.length;
+        Prediction[] ps = new Prediction[n];
+        ReplayBuffer rb = new ReplayBuffer(n, null);
+        for (int c = 0; c < n; c++) {
+            ps[c] = predict(SELF_TEST_CASES[c], null);
+            rb.add(ps[c], SELF_TEST_EXPECTED[c], 1.0f - ps[c].confidence);
+        }
+        long t0 = System.currentTimeMillis();
+        for (int k = 0; k < steps; k++) {
+            Prediction p = ps[k % n];
+            learn(p, (SELF_TEST_EXPECTED[k % n] + k / n) % outputSize,
+                  0.05f * (1.0f - p.confidence));
+        }
+        long ms = System.currentTimeMillis() - t0;
+        trainReplay(rb, REPLAY_BATCH, 0.05f);
+        return ms;
+    }
+
+    // ── Layer-size benchmark ──────────────────────────────────────────────────
+    /** Per-query latency a shape must stay under to be considered shippable. */
+    public static final int QUERY_BUDGET_MS = 50;
+
+    private static final int[][] BENCH_SHAPES = {
+        {26, 12, 8}, {64, 24, 8}, {128, 32, 8}, {256, 64, 16}
+    };
+
+    /**
+     * Latency and heap of candidate model shapes on this handset, to decide
+     * how far the header dimensions can grow. Each shape gets a synthetic
+     * model (pseudo-random nibbles, fixed seed); per shape it reports the
+     * mean µs per query for float predict(), fixed-point predict() and
+     * predict()+learn(), plus the heap of the packed model and after
+     * learning (float weights, anchors, published snapshot). Enabled on device by the JAD
+     * attribute Elimu-Benchmark=true.
+     */
+    public static void benchmarkLayerSizes(int queries) {
+        for (int s = 0; s < BENCH_SHAPES.length; s++) {
+            benchmarkShape(BENCH_SHAPES[s][0], BENCH_SHAPES[s][1],
+                           BENCH_SHAPES[s][2], queries);
+        }
+        StringBuffer budget = new StringBuffer("Layer-size benchmark: budget ");
+        budget.append(QUERY_BUDGET_MS); budget.append(" ms per query");
+        System.out.println(budget.toString());
+    }
+
+    /** One benchmark line; the model is unreachable once this returns. */
+    private static void benchmarkShape(int in0, int hid, int out, int queries) {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long base = rt.totalMemory() - rt.freeMemory();
+        CompressedTinyML m;
+        try {
+            m = syntheticModel(in0, hid, out);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        System.gc();
+        long packedHeap = rt.totalMemory() - rt.freeMemory() - base;
+        if (packedHeap < 0) packedHeap = 0; // a collector freed older garbage
+
+        long floatUs = timePredict(m, queries);
+        m.setFixedPoint(true);
+        long fixedUs = timePredict(m, queries);
+        m.setFixedPoint(false);
+
+        Prediction p = m.newPrediction();
+        long t0 = System.currentTimeMillis();
+        for (int q = 0; q < queries; q++) {
+            m.predict(SELF_TEST_CASES[q % SELF_TEST_CASES.length], p);
+            m.learn(p, q % out, 0.0f);
+        }
+        long learnUs = (System.currentTimeMillis() - t0) * 1000 / queries;
+        System.gc();
+        long expandedHeap = rt.totalMemory() - rt.freeMemory() - base;
+
+        long worst = floatUs > learnUs ? floatUs : learnUs;
+        StringBuffer sb = new StringBuffer(
+                worst < QUERY_BUDGET_MS * 1000L ? "[OK] " : "[??] ");
+        sb.append(in0); sb.append('-'); sb.append(hid); sb.append('-'); sb.append(out);
+        sb.append(" ("); sb.append(m.getParamCount()); sb.append(" params)");
+        sb.append(" predict "); sb.append(floatUs);
+        sb.append("us, fixed "); sb.append(fixedUs);
+        sb.append("us, predict+learn "); sb.append(learnUs);
+        sb.append("us; heap packed "); sb.append(packedHeap);
+        sb.append(" B, expanded "); sb.append(expandedHeap); sb.append(" B");
+        System.out.println(sb.toString());
+    }
+
+    private static long timePredict(CompressedTinyML m, int queries) {
+        Prediction p = m.newPrediction();
+        long t0 = System.currentTimeMillis();
+        for (int q = 0; q < queries; q++) {
+            m.predict(SELF_TEST_CASES[q % SELF_TEST_CASES.length], p);
+        }
+        return (System.currentTimeMillis() - t0) * 1000 / queries;
+    }
+
+    /** Model of the given shape with pseudo-random packed weights. */
+    private static CompressedTinyML syntheticModel(int in0, int hid, int out)
+            throws IOException {
+        byte[] w = new byte[(hid * in0 + out * hid + 1) / 2];
+        byte[] b = new byte[(hid + out + 1) / 2];
+        int seed = in0 * 31 + hid;
+        for (int i = 0; i < w.length; i++) {
+            seed = seed * 1664525 + 1013904223;
+            w[i] = (byte) (seed >>> 24);
+        }
+        for (int i = 0; i < b.length; i++) {
+            seed = seed * 1664525 + 1013904223;
+            b[i] = (byte) (seed >>> 24);
+        }
+        String[] labels = new String[out];
+        for (int i = 0; i < out; i++) {
+            StringBuffer lb = new StringBuffer("intent");
+            lb.append(i);
+            labels[i] = lb.toString();
+        }
+        CompressedTinyML m = new CompressedTinyML();
+        m.initShape(in0, hid, out, labels, w, b);
+        m.publish();
+        return m;
+    }
+
+    // ── Replay vs per-query learning benchmark ───────────────────────────────
+    /**
+     * Feed the same stream of cloud corrections (the self-test queries with
+     * their expected labels, `rounds` shuffled passes) to two factory
+     * models: one taking a learn() step per correction as the MIDlet used
+     * to, one buffering them in a ReplayBuffer and calling trainReplay()
+     * every REPLAY_BATCH corrections. Reports self-test accuracy afterwards,
+     * training CPU time and the number of weight saves each would write to
+     * RMS (one per correction vs one per round). Enabled on device by the
+     * JAD attribute Elimu-Benchmark=true.
+     */
+    public static void benchmarkReplay(int rounds) {
+        CompressedTinyML single, replay;
+        try {
+            single = factoryModel();
+            replay = factoryModel();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        int n = SELF_TEST_CASES.length;
+        int[] order = new int[n * rounds];
+        int seed = 20241018;
+        for (int k = 0; k < order.length; k++) order[k] = k % n;
+        for (int k = order.length - 1; k > 0; k--) {
+            seed = seed * 1664525 + 1013904223;
+            int j = ((seed >>> 8) & 0x7fffff) % (k + 1);
+            int t = order[k]; order[k] = order[j]; order[j] = t;
+        }
+        int before = single.selfTestAccuracy();
+
+        Prediction p = single.newPrediction();
+        long t0 = System.currentTimeMillis();
+        for (int k = 0; k < order.length; k++) {
+            single.predict(SELF_TEST_CASES[order[k]], p);
+            single.learn(p, SELF_TEST_EXPECTED[order[k]], 0.05f * (1.0f - p.confidence));
+        }
+        long singleMs = System.currentTimeMillis() - t0;
+
+        ReplayBuffer rb = new ReplayBuffer(64, null);
+        int saves = 0, steps = 0;
+        t0 = System.currentTimeMillis();
+        for (int k = 0; k < order.length; k++) {
+            replay.predict(SELF_TEST_CASES[order[k]], p);
+            rb.add(p, SELF_TEST_EXPECTED[order[k]], 1.0f - p.confidence);
+            if (rb.pendingCount() >= REPLAY_BATCH) {
+                steps += replay.trainReplay(rb, REPLAY_BATCH, 0.05f);
+                saves++;
+            }
+        }
+        if (rb.pendingCount() > 0) {
+            steps += replay.trainReplay(rb, REPLAY_BATCH, 0.05f);
+            saves++;
+        }
+        long replayMs = System.currentTimeMillis() - t0;
+
+        StringBuffer sb = new StringBuffer("Replay: ");
+        sb.append(order.length); sb.append(" corrections, self-test before ");
+        sb.append(before); sb.append('/'); sb.append(n);
+        sb.append("; per-query "); sb.append(single.selfTestAccuracy());
+        sb.append('/'); sb.append(n); sb.append(", ");
+        sb.append(singleMs); sb.append(" ms, "); sb.append(order.length);
+        sb.append(" saves; replay "); sb.append(replay.selfTestAccuracy());
+        sb.append('/'); sb.append(n); sb.append(", ");
+        sb.append(replayMs); sb.append(" ms, "); sb.append(saves);
+        sb.append(" saves, "); sb.append(steps); sb.append(" steps");
+        System.out.println(sb.toString());
+    }
+
+    private int selfTestAccuracy() {
+        Prediction p = newPrediction();
+        int correct = 0;
+        for (int c = 0; c < SELF_TEST_CASES.length; c++) {
+            if (predict(SELF_TEST_CASES[c], p).getIntent() == SELF_TEST_EXPECTED[c]) correct++;
+        }
+        return correct;
+    }
+
+    /** Lazy (default) or dense anchor pull on the hidden layer. */
+    synchronized void setLazyDecay(boolean on) {
+        if (trainer != null) trainer.setLazyDecay(on);
+    }
+
+    /** The JAR's model without the weights persisted in RMS. */
+    static CompressedTinyML factoryModel() throws IOException {
+        CompressedTinyML m = new CompressedTinyML();
+        m.readModelResource();
+        m.publish();
+        return m;
+    }
+}
@@ -0,0 +1,747 @@
+package com.elimu;
+
+import java.io.*;
+
+/**
+ * One fully-connected layer of CompressedTinyML, z = W x + b, sized at run
+ * time from the model header.
+ *
+ * A layer starts out packed: it reads its weights straight from the model's
+ * 4-bit nibble tables (shared with the other layers, located by a nibble
+ * offset) and dequantises through a 16-entry lookup table. expand() gives it
+ * a float working copy plus the CFP and FL anchors, which is what learning,
+ * RMS restore and FL pulls operate on; a snapshot taken for the integer
+ * forward pass also carries Q8.8 / Q16.16 copies.
+ *
+ * Two input shapes are supported:
+ *   sparse (binary features, given as an ascending active-index list):
+ *     W is held column-major, w[j * out + i], so a forward pass is the bias
+ *     plus the sum of the active columns;
+ *   dense (float activations): W is held row-major, w[i * in + j].
+ * Outside this class — packed tables, RMS records, FL vectors — W is always
+ * canonical row-major; slot() converts.
+ *
+ * Each layer object plays one of two roles. ModelTrainer's working layers
+ * are mutated by training and never touched by predict(). snapshot() copies
+ * one into an inference-only layer (no anchors) that is never written after
+ * it is published, so any number of threads may run forward passes on it
+ * without locking.
+ */
+final class DenseLayer {
+
+    // ── Dequantisation tables: nibble n -> (n - 7.5) / 7.5 ────────────────────
+    static final float[] NIBBLE_LUT     = new float[16];
+    static final short[] NIBBLE_LUT_Q8  = new short[16]; // Q8.8
+    static final int[]   NIBBLE_LUT_Q16 = new int[16];   // Q16.16
+    static {
+        for (int n = 0; n < 16; n++) {
+            NIBBLE_LUT[n]     = (n - 7.5f) / 7.5f;
+            NIBBLE_LUT_Q8[n]  = toQ8(NIBBLE_LUT[n]);
+            NIBBLE_LUT_Q16[n] = toFixed(NIBBLE_LUT[n], 16);
+        }
+    }
+
+    final int in;
+    final int out;
+    private final boolean sparseInput;
+
+    // Packed source: this layer's W starts at nibble wBase of packedW, its
+    // bias at nibble bBase of packedB.
+    private final byte[] packedW;
+    private final int    wBase;
+    private final byte[] packedB;
+    private final int    bBase;
+
+    // Float working copy and anchors; null until expand().
+    private float[] w;
+    private float[] b;
+
+    // CFP anchor: the weights as of the last copyToAnchor(), kept copy-on-
+    // write. W is split into groups (a column of the sparse layout, a row of
+    // the dense one); a group still equal to its anchor has no copy, and
+    // touchGroup() saves one just before the group's first change. Between
+    // saves only the groups training touched cost heap — none at rest.
+    private int       groupLen;
+    private float[][] anchorW;
+    private float[]   anchorB;
+
+    // FL anchor: the weights as of the last initFLAnchor() or FL pull, kept
+    // copy-on-write over the same groups as the CFP anchor. A group with no
+    // copy still equals its FL anchor and contributes exactly 0 to the FL
+    // upload delta; touchGroup() saves both copies before a group's first
+    // change. Only the few groups corrected since the last pull cost heap.
+    private float[][] flAnchorW;
+    private float[]   flAnchorB;
+
+    // Lazy anchor pull (sparse working layers). Between two gradient steps
+    // on column j its distance to the anchor only shrinks by (1 - lr*lambda)
+    // per step, so instead of touching every column each step the layer
+    // keeps the running product `decay` and, per column, the value it had
+    // when the column was last brought up to date. settleColumn() applies
+    // the difference; settle() does every column and restarts the product.
+    // The product is a double: 1 - lr*lambda is about 1 - 5e-4, and rounded
+    // to float it misstates the pull by up to 1e-4 of itself, the same way
+    // on every step, which a long run of corrections would add up.
+    private boolean  lazyDecay = true;
+    private double   decay = 1.0;
+    private double[] colDecay;      // null until expand(); sparse only
+    private boolean[] touched;      // columns with a gradient in gW
+    private boolean decayPending = false;
+
+    // Fixed-point copies; only built on snapshots taken with fixed point on.
+    private short[] qW;  // Q8.8, same layout as w
+    private int[]   qB;  // Q16.16
+
+    DenseLayer(int in, int out, boolean sparseInput,
+               byte[] packedW, int wBase, byte[] packedB, int bBase) {
+        this.in = in;
+        this.out = out;
+        this.sparseInput = sparseInput;
+        this.packedW = packedW;
+        this.wBase = wBase;
+        this.packedB = packedB;
+        this.bBase = bBase;
+    }
+
+    int paramCount() { return in * out + out; }
+
+    boolean isExpanded() { return w != null; }
+
+    // ── Packed access ─────────────────────────────────────────────────────────
+    private int weightNibble(int canonical) {
+        int k = wBase + canonical;
+        return (packedW[k >> 1] >> ((k & 1) << 2)) & 0x0F;
+    }
+
+    private int biasNibble(int i) {
+        int k = bBase + i;
+        return (packedB[k >> 1] >> ((k & 1) << 2)) & 0x0F;
+    }
+
+    /** Storage slot of canonical row-major index i * in + j. */
+    private int slot(int canonical) {
+        return sparseInput ? (canonical % in) * out + canonical / in : canonical;
+    }
+
+    // ── Forward pass (float) ──────────────────────────────────────────────────
+    /** Sparse layer: z = b + sum of the W columns listed in active[0..count). */
+    void forwardActive(short[] active, int count, float[] z) {
+        if (w != null) {
+            System.arraycopy(b, 0, z, 0, out);
+            for (int a = 0; a < count; a++) {
+                int col = active[a] * out;
+                for (int i = 0; i < out; i++) z[i] += w[col + i];
+            }
+        } else {
+            for (int i = 0; i < out; i++) z[i] = NIBBLE_LUT[biasNibble(i)];
+            for (int a = 0; a < count; a++) {
+                int j = active[a];
+                for (int i = 0; i < out; i++) {
+                    z[i] += NIBBLE_LUT[weightNibble(i * in + j)];
+                }
+            }
+        }
+    }
+
+    /** Dense layer: z = b + W x. */
+    void forward(float[] x, float[] z) {
+        for (int i = 0; i < out; i++) {
+            int row = i * in;
+            float sum;
+            if (w != null) {
+                sum = b[i];
+                for (int j = 0; j < in; j++) sum += x[j] * w[row + j];
+            } else {
+                sum = NIBBLE_LUT[biasNibble(i)];
+                for (int j = 0; j < in; j++) {
+                    sum += x[j] * NIBBLE_LUT[weightNibble(row + j)];
+                }
+            }
+            z[i] = sum;
+        }
+    }
+
+    // ── Forward pass (float, batched) ─────────────────────────────────────────
+    // Row-blocked twins of forwardActive/forward for predictBatch. They need
+    // float weights (see floatCopy) and keep the per-row summation order of
+    // the single-query pass, so results are bit-identical to predict().
+
+    /**
+     * Sparse layer over `rows` rows: row r's active list is
+     * active[start[r] .. start[r + 1]), its output z[r * out .. + out).
+     * Each active column is one contiguous axpy the JIT can vectorise.
+     */
+    void forwardActiveBatch(short[] active, int[] start, int rows, float[] z) {
+        for (int r = 0; r < rows; r++) {
+            int zb = r * out;
+            System.arraycopy(b, 0, z, zb, out);
+            for (int a = start[r]; a < start[r + 1]; a++) {
+                int col = active[a] * out;
+                for (int i = 0; i < out; i++) z[zb + i] += w[col + i];
+            }
+        }
+    }
+
+    /** Dense layer over `rows` rows of x (rows × in) into z (rows × out). */
+    void forwardBatch(float[] x, int rows, float[] z) {
+        for (int r = 0; r < rows; r++) {
+            int xb = r * in;
+            int zb = r * out;
+            for (int i = 0; i < out; i++) {
+                int row = i * in;
+                float sum = b[i];
+                for (int j = 0; j < in; j++) sum += x[xb + j] * w[row + j];
+                z[zb + i] = sum;
+            }
+        }
+    }
+
+    /**
+     * This layer if it already has float weights, otherwise an
+     * inference-only copy with the packed table decoded once, so a batch
+     * does not pay a nibble lookup per multiply-add.
+     */
+    DenseLayer floatCopy() {
+        if (w != null) return this;
+        DenseLayer f = new DenseLayer(in, out, sparseInput, packedW, wBase, packedB, bBase);
+        f.w = new float[in * out];
+        f.b = new float[out];
+        for (int r = 0; r < f.w.length; r++) f.w[slot(r)] = NIBBLE_LUT[weightNibble(r)];
+        for (int i = 0; i < out; i++) f.b[i] = NIBBLE_LUT[biasNibble(i)];
+        return f;
+    }
+
+    // ── Forward pass (fixed point) ────────────────────────────────────────────
+    // Sums are taken in long (a Q8.8 x Q16.16 product alone can pass 2^31)
+    // and saturated to +-2^30, so softmaxFixed's x - max still fits an int.
+    static final int Q16_LIMIT = 1 << 30;
+
+    /** Q16.16 twin of forwardActive; Q8.8 weights are shifted up by 8. */
+    void forwardActiveFixed(short[] active, int count, int[] z) {
+        for (int i = 0; i < out; i++) {
+            long sum;
+            if (w != null) {
+                sum = qB[i];
+                for (int a = 0; a < count; a++) sum += qW[active[a] * out + i] << 8;
+            } else {
+                sum = NIBBLE_LUT_Q16[biasNibble(i)];
+                for (int a = 0; a < count; a++) {
+                    sum += NIBBLE_LUT_Q8[weightNibble(i * in + active[a])] << 8;
+                }
+            }
+            z[i] = saturate(sum);
+        }
+    }
+
+    /** Q16.16 twin of forward; each Q24.24 product is shifted down by 8. */
+    void forwardFixed(int[] x, int[] z) {
+        for (int i = 0; i < out; i++) {
+            int row = i * in;
+            long sum;
+            if (w != null) {
+                sum = qB[i];
+                for (int j = 0; j < in; j++) sum += ((long) qW[row + j] * x[j]) >> 8;
+            } else {
+                sum = NIBBLE_LUT_Q16[biasNibble(i)];
+                for (int j = 0; j < in; j++) {
+                    sum += ((long) NIBBLE_LUT_Q8[weightNibble(row + j)] * x[j]) >> 8;
+                }
+            }
+            z[i] = saturate(sum);
+        }
+    }
+
+    private static int saturate(long sum) {
+        if (sum > Q16_LIMIT)  return Q16_LIMIT;
+        if (sum < -Q16_LIMIT) return -Q16_LIMIT;
+        return (int) sum;
+    }
+
+    // ── Backward pass (expanded only) ─────────────────────────────────────────
+    /** Dense layer: dx_j = sum_i W_ij * delta_i. */
+    void backward(float[] delta, float[] dx) {
+        for (int j = 0; j < in; j++) {
+            float sum = 0.0f;
+            for (int i = 0; i < out; i++) sum += w[i * in + j] * delta[i];
+            dx[j] = sum;
+        }
+    }
+
+    /** Dense layer SGD step: gradient delta_i * x_j plus L2 pull toward the anchor. */
+    void update(float[] x, float[] delta, float lr, float lambda) {
+        for (int i = 0; i < out; i++) {
+            b[i] -= lr * (delta[i] + lambda * (b[i] - anchorB[i]));
+            float[] a = touchGroup(i);
+            for (int j = 0; j < in; j++) {
+                int idx = i * in + j;
+                w[idx] -= lr * (delta[i] * x[j] + lambda * (w[idx] - a[j]));
+            }
+        }
+    }
+
+    /**
+     * Sparse layer SGD step. x_j is 1 on the active columns and 0 elsewhere,
+     * so the gradient term only touches active columns; every column still
+     * gets the anchor pull, applied lazily (see colDecay) to the others.
+     */
+    void updateActive(short[] active, int count, float[] delta, float lr, float lambda) {
+        if (!lazyDecay) {
+            updateActiveDense(active, count, delta, lr, lambda);
+            return;
+        }
+        for (int i = 0; i < out; i++) {
+            b[i] -= lr * (delta[i] + lambda * (b[i] - anchorB[i]));
+        }
+        for (int a = 0; a < count; a++) settleColumn(active[a]);
+        advanceDecay(lr * lambda);
+        for (int a = 0; a < count; a++) {
+            int j = active[a];
+            int col = j * out;
+            float[] anchor = touchGroup(j);
+            for (int i = 0; i < out; i++) {
+                int idx = col + i;
+                w[idx] -= lr * (delta[i] + lambda * (w[idx] - anchor[i]));
+            }
+            colDecay[j] = decay;
+        }
+    }
+
+    /** Reference for updateActive(): the anchor pull applied to every column. */
+    private void updateActiveDense(short[] active, int count, float[] delta,
+                                   float lr, float lambda) {
+        for (int i = 0; i < out; i++) {
+            b[i] -= lr * (delta[i] + lambda * (b[i] - anchorB[i]));
+        }
+        int next = 0;
+        for (int j = 0; j < in; j++) {
+            int col = j * out;
+            if (next < count && active[next] == j) {
+                next++;
+                float[] a = touchGroup(j);
+                for (int i = 0; i < out; i++) {
+                    int idx = col + i;
+                    w[idx] -= lr * (delta[i] + lambda * (w[idx] - a[i]));
+                }
+            } else if (anchorW[j] != null) { // an unchanged column has no pull
+                float[] a = anchorW[j];
+                for (int i = 0; i < out; i++) {
+                    int idx = col + i;
+                    w[idx] -= lr * (lambda * (w[idx] - a[i]));
+                }
+            }
+        }
+    }
+
+    // ── Mini-batch gradients (expanded only) ──────────────────────────────────
+    // gW / gB have the layout of w / b and start zeroed. accumulate* add one
+    // sample's gradient; applyGradient takes one step with the sum plus the
+    // anchor pull and zeroes what it consumed, ready for the next batch.
+
+    /** Dense layer: gW_ij += delta_i * x_j, gB_i += delta_i. */
+    void accumulate(float[] x, float[] delta, float[] gW, float[] gB) {
+        for (int i = 0; i < out; i++) {
+            gB[i] += delta[i];
+            int row = i * in;
+            for (int j = 0; j < in; j++) gW[row + j] += delta[i] * x[j];
+        }
+    }
+
+    /** Sparse layer: only the active columns get a gradient term. */
+    void accumulateActive(short[] active, int count, float[] delta, float[] gW, float[] gB) {
+        for (int i = 0; i < out; i++) gB[i] += delta[i];
+        for (int a = 0; a < count; a++) {
+            int col = active[a] * out;
+            for (int i = 0; i < out; i++) gW[col + i] += delta[i];
+            touched[active[a]] = true;
+        }
+    }
+
+    void applyGradient(float[] gW, float[] gB, float lr, float lambda) {
+        for (int i = 0; i < out; i++) {
+            b[i] -= lr * (gB[i] + lambda * (b[i] - anchorB[i]));
+            gB[i] = 0.0f;
+        }
+        if (!sparseInput || !lazyDecay) {
+            settle();
+            for (int g = 0; g < anchorW.length; g++) {
+                boolean grad = !sparseInput || touched[g];
+                float[] a = grad ? touchGroup(g) : anchorW[g];
+                if (sparseInput) touched[g] = false;
+                if (a == null) continue; // no gradient, no pull
+                int base = g * groupLen;
+                for (int i = 0; i < groupLen; i++) {
+                    int idx = base + i;
+                    w[idx] -= lr * (gW[idx] + lambda * (w[idx] - a[i]));
+                    gW[idx] = 0.0f;
+                }
+            }
+            return;
+        }
+        for (int j = 0; j < in; j++) if (touched[j]) settleColumn(j);
+        advanceDecay(lr * lambda);
+        for (int j = 0; j < in; j++) {
+            if (!touched[j]) continue;
+            touched[j] = false;
+            int col = j * out;
+            float[] a = touchGroup(j);
+            for (int i = 0; i < out; i++) {
+                int idx = col + i;
+                w[idx] -= lr * (gW[idx] + lambda * (w[idx] - a[i]));
+                gW[idx] = 0.0f;
+            }
+            colDecay[j] = decay;
+        }
+    }
+
+    // ── Lazy anchor pull (sparse, expanded only) ──────────────────────────────
+    /** Use the lazy pull (default) or the dense reference; for the benchmark and check. */
+    void setLazyDecay(boolean on) {
+        settle();
+        lazyDecay = on;
+    }
+
+    /** Bring the given columns up to date before a forward pass reads them. */
+    void settleActive(short[] active, int count) {
+        if (!decayPending) return;
+        for (int a = 0; a < count; a++) settleColumn(active[a]);
+    }
+
+    /** One step's pull factor for every column not updated this step. */
+    private void advanceDecay(float pull) {
+        if (pull == 0.0f) return;
+        decay *= 1.0 - pull;
+        decayPending = true;
+        if (decay < 1e-20) settle(); // keep the quotients well inside float range
+    }
+
+    private void settleColumn(int j) {
+        float f = (float) (decay / colDecay[j]);
+        colDecay[j] = decay;
+        float[] a = anchorW[j];
+        if (f == 1.0f || a == null) return; // nothing pending, or w == anchor
+        int col = j * out;
+        for (int i = 0; i < out; i++) {
+            int idx = col + i;
+            w[idx] = a[i] + (w[idx] - a[i]) * f;
+        }
+    }
+
+    /** Apply every pending pull; whole-layer reads and writes call this first. */
+    private void settle() {
+        if (!decayPending) return;
+        for (int j = 0; j < in; j++) {
+            settleColumn(j);
+            colDecay[j] = 1.0;
+        }
+        decay = 1.0;
+        decayPending = false;
+    }
+
+    // ── Storage lifecycle ─────────────────────────────────────────────────────
+    /** Allocate the float copy and both anchors from the packed table. */
+    void expand() {
+        if (w != null) return;
+        w = new float[in * out];
+        b = new float[out];
+        groupLen = sparseInput ? out : in;
+        anchorW = new float[w.length / groupLen][];
+        anchorB = new float[out];
+        flAnchorW = new float[anchorW.length][];
+        flAnchorB = new float[out];
+        if (sparseInput) {
+            colDecay = new double[in];
+            touched  = new boolean[in];
+            for (int j = 0; j < in; j++) colDecay[j] = 1.0;
+            decay = 1.0;
+            decayPending = false;
+        }
+        unpack();
+        copyToAnchor();
+        initFLAnchor();
+    }
+
+    /**
+     * Reset the float copy and CFP anchor to the packed factory values. The
+     * FL anchor stays where it was, so the reset is part of the next upload.
+     */
+    void decompress() {
+        settle();
+        for (int g = 0; g < anchorW.length; g++) touchGroup(g);
+        unpack();
+        copyToAnchor();
+    }
+
+    private void unpack() {
+        for (int r = 0; r < w.length; r++) w[slot(r)] = NIBBLE_LUT[weightNibble(r)];
+        for (int i = 0; i < out; i++) b[i] = NIBBLE_LUT[biasNibble(i)];
+    }
+
+    void copyToAnchor() {
+        settle();
+        for (int g = 0; g < anchorW.length; g++) anchorW[g] = null; // all equal again
+        System.arraycopy(b, 0, anchorB, 0, out);
+    }
+
+    /** Undo every change since the last copyToAnchor(). */
+    void revertToAnchor() {
+        settle();
+        for (int g = 0; g < anchorW.length; g++) {
+            if (anchorW[g] == null) continue;
+            System.arraycopy(anchorW[g], 0, w, g * groupLen, groupLen);
+            anchorW[g] = null;
+        }
+        System.arraycopy(anchorB, 0, b, 0, out);
+    }
+
+    void initFLAnchor() {
+        settle();
+        for (int g = 0; g < flAnchorW.length; g++) flAnchorW[g] = null; // all equal again
+        System.arraycopy(b, 0, flAnchorB, 0, out);
+    }
+
+    /**
+     * Copy-on-write: give group g its own CFP and FL anchor copies (its
+     * current values) if it has none yet. Call before changing any weight
+     * of the group. Every group that differs from an anchor therefore has
+     * both copies, so the anchor pull, which only moves groups with a CFP
+     * copy, never has to check the FL one.
+     */
+    private float[] touchGroup(int g) {
+        float[] a = anchorW[g];
+        if (a == null) {
+            a = new float[groupLen];
+            System.arraycopy(w, g * groupLen, a, 0, groupLen);
+            anchorW[g] = a;
+        }
+        if (flAnchorW[g] == null) {
+            float[] f = new float[groupLen];
+            System.arraycopy(w, g * groupLen, f, 0, groupLen);
+            flAnchorW[g] = f;
+        }
+        return a;
+    }
+
+    private float anchorAt(int k) {
+        float[] a = anchorW[k / groupLen];
+        return a == null ? w[k] : a[k % groupLen];
+    }
+
+    /** Bytes of anchor payload held now: both bias anchors plus the group copies in use. */
+    int anchorBytes() {
+        int bytes = 2 * out * 4;
+        for (int g = 0; g < anchorW.length; g++) {
+            if (anchorW[g] != null)   bytes += groupLen * 4;
+            if (flAnchorW[g] != null) bytes += groupLen * 4;
+        }
+        return bytes;
+    }
+
+    /** Build the Q8.8 / Q16.16 copies from the float weights. */
+    private void rebuildFixed() {
+        qW = new short[w.length];
+        qB = new int[out];
+        for (int i = 0; i < w.length; i++) qW[i] = toQ8(w[i]);
+        for (int i = 0; i < out; i++) qB[i] = saturate(toFixed(b[i], 16));
+    }
+
+    /**
+     * Inference-only copy of the current weights: shares the immutable packed
+     * tables, copies the floats if expanded and, for the integer pass,
+     * derives the Q8.8 / Q16.16 weights. A pending lazy pull is applied to
+     * the copy only, and only on columns that differ from the CFP anchor;
+     * the working layer keeps deferring it, so a publish costs the copy,
+     * not a settle() of the working layer.
+     */
+    DenseLayer snapshot(boolean fixedPoint) {
+        DenseLayer s = new DenseLayer(in, out, sparseInput, packedW, wBase, packedB, bBase);
+        if (w != null) {
+            s.w = new float[w.length];
+            s.b = new float[out];
+            System.arraycopy(w, 0, s.w, 0, w.length);
+            System.arraycopy(b, 0, s.b, 0, out);
+            if (decayPending) {
+                for (int j = 0; j < in; j++) {
+                    float f = (float) (decay / colDecay[j]);
+                    float[] a = anchorW[j];
+                    if (f == 1.0f || a == null) continue; // as in settleColumn()
+                    int col = j * out;
+                    for (int i = 0; i < out; i++) {
+                        int idx = col + i;
+                        s.w[idx] = a[i] + (w[idx] - a[i]) * f;
+                    }
+                }
+            }
+            if (fixedPoint) s.rebuildFixed();
+        }
+        return s;
+    }
+
+    // ── Canonical (row-major) import / export ────────────────────────────────
+    void writeWeights(DataOutputStream dos) throws IOException {
+        settle();
+        for (int r = 0; r < w.length; r++) dos.writeFloat(w[slot(r)]);
+    }
+
+    void writeBiases(DataOutputStream dos) throws IOException {
+        for (int i = 0; i < out; i++) dos.writeFloat(b[i]);
+    }
+
+    void readWeights(DataInputStream dis) throws IOException {
+        settle();
+        for (int g = 0; g < anchorW.length; g++) touchGroup(g);
+        for (int r = 0; r < w.length; r++) w[slot(r)] = dis.readFloat();
+    }
+
+    void readBiases(DataInputStream dis) throws IOException {
+        for (int i = 0; i < out; i++) b[i] = dis.readFloat();
+    }
+
+    /** Write (W - FL anchor) at dst[pos..], exactly 0 where unchanged; returns the next position. */
+    int putWeightDelta(float[] dst, int pos) {
+        settle();
+        for (int r = 0; r < w.length; r++) {
+            int k = slot(r);
+            float[] f = flAnchorW[k / groupLen];
+            dst[pos++] = f == null ? 0.0f : w[k] - f[k % groupLen];
+        }
+        return pos;
+    }
+
+    int putBiasDelta(float[] dst, int pos) {
+        for (int i = 0; i < out; i++) dst[pos++] = b[i] - flAnchorB[i];
+        return pos;
+    }
+
+    /** Set W and its FL anchor from src[pos..]; returns the next position. */
+    int setWeights(float[] src, int pos) {
+        settle();
+        for (int g = 0; g < anchorW.length; g++) touchGroup(g);
+        for (int r = 0; r < w.length; r++) w[slot(r)] = src[pos++];
+        for (int g = 0; g < flAnchorW.length; g++) flAnchorW[g] = null; // the pull is the new FL anchor
+        return pos;
+    }
+
+    int setBiases(float[] src, int pos) {
+        for (int i = 0; i < out; i++) b[i] = src[pos++];
+        System.arraycopy(b, 0, flAnchorB, 0, out);
+        return pos;
+    }
+
+    // ── Checkpoint journal (expanded only) ───────────────────────────────────
+    // The CFP anchor holds the weights as last written to RMS, so the
+    // parameters that differ from it are exactly what a journal record must
+    // carry. A change is stored as a 16-bit step count of JOURNAL_STEP from
+    // the anchor, or as a raw float when it is too large for that.
+    static final float JOURNAL_STEP = 1.0f / (1 << 16);
+    private static final short JOURNAL_RAW = Short.MIN_VALUE; // float follows
+
+    /**
+     * Round every change since the last save to the journal grid, so what is
+     * written is exactly what stays in memory. Changes under half a step
+     * (< 8e-6) are dropped.
+     */
+    void snapToJournalGrid() {
+        settle();
+        for (int g = 0; g < anchorW.length; g++) {
+            if (anchorW[g] != null) snap(w, g * groupLen, anchorW[g], groupLen);
+        }
+        snap(b, 0, anchorB, out);
+    }
+
+    private static void snap(float[] v, int off, float[] a, int n) {
+        for (int i = 0; i < n; i++) {
+            int k = off + i;
+            if (v[k] == a[i]) continue;
+            int q = journalSteps(v[k] - a[i]);
+            if (q != JOURNAL_RAW) v[k] = a[i] + q * JOURNAL_STEP;
+        }
+    }
+
+    private static int journalSteps(float d) {
+        float steps = d * (1 << 16);
+        if (steps > Short.MAX_VALUE || steps < -Short.MAX_VALUE) return JOURNAL_RAW;
+        return toFixed(d, 16);
+    }
+
+    /** Set bit pos + r of `bits` for each changed canonical weight r; returns the next position. */
+    int markChangedWeights(byte[] bits, int pos) {
+        settle();
+        for (int r = 0; r < w.length; r++) {
+            int k = slot(r);
+            if (w[k] != anchorAt(k)) bits[(pos + r) >> 3] |= (byte) (1 << ((pos + r) & 7));
+        }
+        return pos + w.length;
+    }
+
+    int markChangedBiases(byte[] bits, int pos) {
+        for (int i = 0; i < out; i++) {
+            if (b[i] != anchorB[i]) bits[(pos + i) >> 3] |= (byte) (1 << ((pos + i) & 7));
+        }
+        return pos + out;
+    }
+
+    /** Write the changed weights in canonical order, as marked above. */
+    void writeChangedWeights(DataOutputStream dos) throws IOException {
+        settle();
+        for (int r = 0; r < w.length; r++) {
+            int k = slot(r);
+            float a = anchorAt(k);
+            if (w[k] != a) writeChange(dos, w[k], a);
+        }
+    }
+
+    void writeChangedBiases(DataOutputStream dos) throws IOException {
+        for (int i = 0; i < out; i++) {
+            if (b[i] != anchorB[i]) writeChange(dos, b[i], anchorB[i]);
+        }
+    }
+
+    private static void writeChange(DataOutputStream dos, float v, float a) throws IOException {
+        int q = journalSteps(v - a);
+        if (q != JOURNAL_RAW && a + q * JOURNAL_STEP == v) {
+            dos.writeShort(q);
+        } else {
+            dos.writeShort(JOURNAL_RAW);
+            dos.writeFloat(v);
+        }
+    }
+
+    /** Apply the weights marked in `bits` from pos on; returns the next position. */
+    int readChangedWeights(DataInputStream dis, byte[] bits, int pos) throws IOException {
+        settle();
+        for (int r = 0; r < w.length; r++) {
+            if ((bits[(pos + r) >> 3] & (1 << ((pos + r) & 7))) == 0) continue;
+            int k = slot(r);
+            touchGroup(k / groupLen);
+            w[k] = readChange(dis, anchorAt(k));
+        }
+        return pos + w.length;
+    }
+
+    int readChangedBiases(DataInputStream dis, byte[] bits, int pos) throws IOException {
+        for (int i = 0; i < out; i++) {
+            if ((bits[(pos + i) >> 3] & (1 << ((pos + i) & 7))) == 0) continue;
+            b[i] = readChange(dis, anchorB[i]);
+        }
+        return pos + out;
+    }
+
+    private static float readChange(DataInputStream dis, float a) throws IOException {
+        short q = dis.readShort();
+        return q == JOURNAL_RAW ? dis.readFloat() : a + q * JOURNAL_STEP;
+    }
+
+    /** Q8.8 of v, saturated to the short range instead of wrapping at |v| >= 128. */
+    static short toQ8(float v) {
+        int q = toFixed(v, 8);
+        if (q > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (q < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) q;
+    }
+
+    /** Round v to a fixed-point integer with `frac` fractional bits. */
+    static int toFixed(float v, int frac) {
+        float scaled = v * (1 << frac);
+        return (int) (scaled >= 0 ? scaled + 0.5f : scaled - 0.5f);
+    }
+}
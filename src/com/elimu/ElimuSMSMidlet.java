@@ -1,9 +1,11 @@
 package com.elimu;
 
+import java.util.Timer;
+import java.util.TimerTask;
 import javax.microedition.midlet.*;
 import javax.microedition.lcdui.*;
 
-public class ElimuSMSMidlet extends MIDlet implements CommandListener {
+public class ElimuSMSMidlet extends MIDlet implements CommandListener, ItemStateListener {
 
     // ── Screens ──────────────────────────────────────────────────────────────
     private Display    display;
@@ -14,8 +16,57 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
     private ChoiceGroup quizChoices;   // radio-button options
 
     // ── AI ───────────────────────────────────────────────────────────────────
-    private CompressedTinyML aiModel;
+    private volatile CompressedTinyML aiModel; // set by the startup pipeline
     private MicroResponses   responses;
+    private StartupPipeline  startup;
+    // Reused for every query; askCloud() takes it over so the cloud label
+    // trains on that query's forward state, not a later one.
+    private Prediction       queryResult;
+    // Keyword rules, then the network, then the cloud; see buildCascade().
+    private static final int TIER_CLOUD = 2;
+    private static final String[] TIER_NAMES = {"Rules", "Model", "Cloud"};
+    private QueryCascade cascade;
+    private final QueryCascade.Route route = new QueryCascade.Route();
+    // The Model tier's confidence threshold, lowered where the cloud's
+    // labels show the network is already right (see ThresholdController).
+    private final ThresholdController thresholds = new ThresholdController();
+    // Cloud answers kept across sessions; a cloud-bound question found here
+    // is answered without the network (see AnswerCache).
+    private static final int ANSWER_CACHE_BYTES = 24 * 1024;
+    private final AnswerCache answerCache = new AnswerCache(ANSWER_CACHE_BYTES);
+    // Cloud-bound questions that failed wait here and go out once a
+    // connection works; their answers land in the Inbox (see QuestionQueue).
+    private final QuestionQueue questions = new QuestionQueue();
+    private List inboxList;
+    // Cloud corrections wait here and are trained in mini-batches when the
+    // user is back on the main menu, instead of one step and one RMS weight
+    // save per correction.
+    private static final int REPLAY_CAPACITY = 64;
+    private final ReplayBuffer replay = new ReplayBuffer(REPLAY_CAPACITY);
+    private boolean replayTraining = false; // guarded by replay
+    // Weight saves are coalesced: at most one RMS write per WEIGHT_SAVE_DELAY_MS
+    // or per WEIGHT_SAVE_BATCH changes, plus a flush on pause and exit.
+    private static final long WEIGHT_SAVE_DELAY_MS = 30000;
+    private static final int  WEIGHT_SAVE_BATCH    = 4;
+    private volatile WriteBehindSaver weightSaver; // set with aiModel
+    // aiModel is the registry's pinned router; per-subject topic models load
+    // on the first query routed to their subject. At most MAX_TOPIC_MODELS
+    // stay loaded, fewer while free heap is below MODEL_MIN_FREE_BYTES.
+    private static final int  MAX_TOPIC_MODELS     = 1;
+    private static final long MODEL_MIN_FREE_BYTES = 64 * 1024;
+    private volatile ModelRegistry registry; // set with aiModel
+    // Type-ahead: questionField is classified as it changes; once typing
+    // has paused PREFETCH_IDLE_MS on a question bound for the cloud, its
+    // request starts early and Send reuses the result (see CloudPrefetch).
+    // Prefetch state is only touched on the UI thread.
+    private static final long PREFETCH_IDLE_MS   = 1200;
+    private static final int  PREFETCH_MIN_CHARS = 8;
+    private static final int  MAX_PREFETCHES     = 2; // per question screen, bounds GPRS waste
+    private final QueryCascade.Route typeAheadRoute = new QueryCascade.Route();
+    private Timer         typeAheadTimer; // created on first use
+    private TimerTask     typeAheadTask;  // pending prefetch start, if any
+    private CloudPrefetch prefetch;       // in flight or done, not yet used
+    private int           prefetchCount;  // started for this question screen
 
     // ── Commands ─────────────────────────────────────────────────────────────
     // Commands are initialised in startApp() after Strings.setLocale(),
@@ -32,11 +83,14 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
     // Each on-screen response remembers the question + intent that produced it.
     // Tapping "More" walks outward: tap 1 tries the cloud (deeper answer when
     // online; broader CBC-level overview when offline); tap 2+ cycles through
-    // related-keyword siblings inside the same intent (offline only).
+    // related-keyword siblings inside the same intent (offline only). While
+    // the cloud holds more pages of the answer on screen, "More" shows the
+    // next page first.
     private String lastQuestion = null;
     private int    lastIntent   = -1;
     private int    moreLevel    = 0;
     private int    relatedCursor = 0;
+    private String moreToken    = null; // next page of the answer shown, if any
     private int    lastSuccessfulIntent = -1; // -1 = no context yet
 
     // ── Quiz state ───────────────────────────────────────────────────────────
@@ -605,15 +659,49 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
     }
 
     public void startApp() {
+        if (startup != null) { // resumed after pauseApp(): already started
+            showMainMenu();
+            return;
+        }
+        long t0 = System.currentTimeMillis();
         // Locale must be set before Commands are created so labels render
         // in the selected language.
         Strings.setLocale(getAppProperty("Elimu-Lang"));
         initCommands();
+        SMSManager.setCloudUrl(getAppProperty("Elimu-CloudURL"));
+        responses = new MicroResponses();
+
+        // Everything that reads RMS, loads the model or touches the network
+        // runs after the menu is up; see StartupPipeline for the stages and
+        // which user actions wait for which.
+        startup = new StartupPipeline(new Runnable[] {
+            new Runnable() { public void run() { restoreState(); } },
+            new Runnable() { public void run() { initializeAI(); } },
+            new Runnable() { public void run() { runSelfTest(); } },
+            new Runnable() { public void run() { configureNetwork(); } }
+        });
+        showMainMenu();
+        EvaluationLogger.recordStartupPhase("menu", System.currentTimeMillis() - t0);
+        startup.start();
+    }
 
+    private void restoreState() {
         EvaluationLogger.load();
         EvaluationLogger.newSession();
         UserPreferences.loadSRS();
-        SMSManager.setCloudUrl(getAppProperty("Elimu-CloudURL"));
+        replay.load();
+        thresholds.load();
+        answerCache.load();
+        SMSManager.setAnswerCache(answerCache);
+        questions.load();
+        SMSManager.setQuestionQueue(questions);
+        // The menu went up before the queue was read: show its Inbox count.
+        display.callSerially(new Runnable() {
+            public void run() { refreshInboxItem(); }
+        });
+    }
+
+    private void configureNetwork() {
         FederatedLearning.configure(
                 getAppProperty("Elimu-FLEnabled"),
                 getAppProperty("Elimu-CloudURL"));
@@ -629,12 +717,12 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
             sb.append(t.getClass().getName());
             System.out.println(sb.toString());
         }
-        initializeAI();
         // Opportunistic global pull: silent on offline, applies new global if online.
-        if (FederatedLearning.isEnabled()) {
+        if (FederatedLearning.isEnabled() && aiModel != null) {
             FederatedLearning.pullGlobalOpportunistic(aiModel);
         }
-        showMainMenu();
+        // Questions left waiting by an earlier session: one try at launch.
+        SMSManager.flushQueuedQuestions();
     }
 
     private void initCommands() {
@@ -647,20 +735,105 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         moreCmd   = new Command(Strings.get(Strings.K_MORE),   Command.SCREEN, 2);
     }
 
+    /** Pipeline stage MODEL; aiModel stays null if the model cannot be loaded. */
     private void initializeAI() {
         try {
-            aiModel   = new CompressedTinyML();
-            responses = new MicroResponses();
-            aiModel.loadModel();
+            // Integer-only forward pass for handsets without a hardware FPU.
+            ModelRegistry models = new ModelRegistry(MAX_TOPIC_MODELS, MODEL_MIN_FREE_BYTES,
+                    "true".equals(getAppProperty("Elimu-FixedPoint")));
+            models.configure(getAppProperty("Elimu-Models"));
+            CompressedTinyML model = models.get(ModelRegistry.ROUTER);
+            weightSaver = new WriteBehindSaver(model, WEIGHT_SAVE_DELAY_MS, WEIGHT_SAVE_BATCH);
+            registry = models;
+            aiModel = model;
             System.out.println("=== ElimuSMS STEM AI Ready ===");
-            aiModel.testModel();
-        } catch (Exception e) {
-            StringBuffer sb = new StringBuffer("AI init failed: ");
-            sb.append(e.getMessage());
-            showError(sb.toString());
+        } catch (final Exception e) {
+            display.callSerially(new Runnable() {
+                public void run() {
+                    StringBuffer sb = new StringBuffer("AI init failed: ");
+                    sb.append(e.getMessage());
+                    showError(sb.toString());
+                }
+            });
         }
     }
 
+    /** Pipeline stage SELFTEST. */
+    private void runSelfTest() {
+        if (aiModel == null) return;
+        aiModel.testModel();
+        // Fixed-point vs float agreement, lazy vs dense anchor pull
+        // speed, latency/heap of larger layer sizes, batch vs single-query
+        // throughput, and replay vs per-query learning, on this handset;
+        // and what the answer cache's near-duplicate tier adds on a
+        // replayed log.
+        if ("true".equals(getAppProperty("Elimu-Benchmark"))) {
+            CompressedTinyML.testFixedPointParity();
+            CompressedTinyML.benchmarkLazyDecay(240);
+            CompressedTinyML.benchmarkLayerSizes(200);
+            aiModel.benchmarkBatch(500);
+            CompressedTinyML.benchmarkReplay(20);
+            String[] log = new String[AnswerCache.BENCH_LOG.length];
+            for (int i = 0; i < log.length; i++) {
+                log[i] = injectContext(normalizeQuery(AnswerCache.BENCH_LOG[i]));
+            }
+            AnswerCache.benchmarkNearDuplicates(log);
+        }
+    }
+
+    /**
+     * The query cascade, cheapest tier first:
+     *   Rules  an unambiguous math or science keyword (one domain only)
+     *          settles the intent outright; the deployed weights are less
+     *          reliable than these keywords, so the network is skipped.
+     *   Model  the TinyML network; its answer stands when it is confident
+     *          (adaptive threshold, see ThresholdController), or when a
+     *          keyword of the predicted domain backs it up.
+     *   Cloud  everything else, including every query if the model failed
+     *          to load.
+     */
+    private QueryCascade buildCascade() {
+        return new QueryCascade(new QueryCascade.Stage[] {
+            new QueryCascade.Stage() { // Rules
+                public boolean resolve(String q, QueryCascade.Route r) {
+                    boolean math = isMathQuery(q);
+                    if (math == isScienceQuery(q)) return false; // neither, or both
+                    r.intent     = math ? (byte) 0 : (byte) 1;
+                    r.confidence = 1.0f;
+                    return true;
+                }
+            },
+            new QueryCascade.Stage() { // Model
+                public boolean resolve(String q, QueryCascade.Route r) {
+                    // Rule hits don't wait for the model to finish loading.
+                    startup.await(StartupPipeline.STAGE_MODEL);
+                    if (aiModel == null) return false; // failed to load: cloud
+                    queryResult  = aiModel.predict(q, queryResult);
+                    r.prediction = queryResult;
+                    r.intent     = queryResult.getIntent();
+                    r.confidence = queryResult.getConfidence();
+                    if (thresholds.answerLocally(q, queryResult)) {
+                        r.keptLocal = queryResult.shouldFallbackToCloud();
+                        return true;
+                    }
+                    // Low confidence, but a keyword of the predicted domain
+                    // confirms it (here the query has both kinds of keyword).
+                    if (r.intent == 0 && isMathQuery(q)) return true;
+                    if ((r.intent == 1 || r.intent == 2) && isScienceQuery(q)) {
+                        r.intent = 1;
+                        return true;
+                    }
+                    return false;
+                }
+            },
+            new QueryCascade.Stage() { // Cloud (TIER_CLOUD)
+                public boolean resolve(String q, QueryCascade.Route r) {
+                    return true; // keeps the network's intent, if it ran, for context
+                }
+            }
+        });
+    }
+
     // ── Main Menu ────────────────────────────────────────────────────────────
     private void showMainMenu() {
         mainMenu = new List("ElimuSMS - STEM Grade 6", Choice.IMPLICIT);
@@ -672,14 +845,56 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         mainMenu.append("My Progress",   null);
         mainMenu.append("Quick Feedback", null);  // NASA-TLX (H_4 mediator)
         mainMenu.append("This Week",      null);  // teacher-readable summary
+        mainMenu.append(inboxLabel(), null);      // answers to queued questions
         mainMenu.addCommand(selectCmd);
         mainMenu.addCommand(exitCmd);
         mainMenu.setCommandListener(this);
         display.setCurrent(mainMenu);
+        trainReplayWhenIdle();
+    }
+
+    private String inboxLabel() {
+        StringBuffer inbox = new StringBuffer("Inbox");
+        int answers = questions.inboxCount();
+        if (answers > 0) { inbox.append(" ("); inbox.append(answers); inbox.append(')'); }
+        return inbox.toString();
+    }
+
+    /** Relabel the main menu's Inbox item (index 8) in place, without showing the menu. */
+    private void refreshInboxItem() {
+        if (mainMenu != null) mainMenu.set(8, inboxLabel(), null);
+    }
+
+    /**
+     * Back on the main menu the user is between tasks: if a full batch of
+     * corrections is waiting, train it on the storage worker and let the
+     * write-behind saver persist the weights. At most one round runs at a
+     * time.
+     */
+    private void trainReplayWhenIdle() {
+        synchronized (replay) {
+            if (replayTraining || replay.pendingCount() < CompressedTinyML.REPLAY_BATCH) return;
+            replayTraining = true;
+        }
+        BackgroundExecutor.STORAGE.submit(new Runnable() {
+            public void run() {
+                try {
+                    CompressedTinyML model = aiModel;
+                    if (model != null
+                            && model.trainReplay(replay, CompressedTinyML.REPLAY_BATCH, 0.05f) > 0) {
+                        weightSaver.markDirty();
+                    }
+                } finally {
+                    synchronized (replay) { replayTraining = false; }
+                }
+            }
+        }, BackgroundExecutor.PRIORITY_BACKGROUND);
     }
 
     // ── Command routing ──────────────────────────────────────────────────────
     public void commandAction(Command c, Displayable d) {
+        // Every screen reads or records progress: needs the RMS restore.
+        startup.await(StartupPipeline.STAGE_RESTORE);
         if (c == exitCmd) {
             destroyApp(false);
             notifyDestroyed();
@@ -697,7 +912,13 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
             startQuiz(quizTypeList.getSelectedIndex()); // 0=Math, 1=Science
         } else if (c == selectCmd && d == activeTLXScreen) {
             handleTLXSelection();
+        } else if (c == selectCmd && d == inboxList) {
+            openInboxAnswer(inboxList.getSelectedIndex());
         } else if (c == backCmd) {
+            if (d == questionForm) {
+                cancelTypeAhead();
+                discardPrefetch();
+            }
             showMainMenu();
         }
     }
@@ -712,11 +933,46 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
             case 5: showProgress();       break;
             case 6: startTLXSurvey();     break;
             case 7: showThisWeekReport(); break;
+            case 8: showInbox();          break;
+        }
+    }
+
+    // ── Inbox: answers to questions asked offline ────────────────────────────
+    private void showInbox() {
+        int n = questions.inboxCount();
+        if (n == 0) {
+            StringBuffer sb = new StringBuffer("No answers yet.");
+            int waiting = questions.pendingCount();
+            if (waiting > 0) {
+                sb.append('\n'); sb.append(waiting);
+                sb.append(" questions will be sent when the network is back.");
+            }
+            showResponse(sb.toString(), "Inbox");
+            return;
         }
+        inboxList = new List("Inbox", Choice.IMPLICIT);
+        for (int i = 0; i < n; i++) inboxList.append(questions.inboxQuestion(i), null);
+        inboxList.addCommand(selectCmd);
+        inboxList.addCommand(backCmd);
+        inboxList.setCommandListener(this);
+        display.setCurrent(inboxList);
+    }
+
+    private void openInboxAnswer(int i) {
+        if (i < 0 || i >= questions.inboxCount()) return;
+        String q = questions.inboxQuestion(i);
+        String answer = questions.openInbox(i);
+        StringBuffer sb = new StringBuffer(q);
+        sb.append("\n\n"); sb.append(answer);
+        showResponse(sb.toString(), "Inbox");
     }
 
     private void showThisWeekReport() {
-        showResponse(EvaluationLogger.getThisWeekReport(), "This Week");
+        StringBuffer sb = new StringBuffer(EvaluationLogger.getThisWeekReport());
+        sb.append('\n'); sb.append(thresholds.getReport());
+        sb.append('\n'); sb.append(answerCache.getReport());
+        sb.append('\n'); sb.append(questions.getReport());
+        showResponse(sb.toString(), "This Week");
     }
 
     // ── NASA-TLX cognitive-load survey (H_4) ─────────────────────────────────
@@ -768,13 +1024,79 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         questionForm.addCommand(sendCmd);
         questionForm.addCommand(backCmd);
         questionForm.setCommandListener(this);
+        questionForm.setItemStateListener(this);
+        prefetchCount = 0;
         display.setCurrent(questionForm);
     }
 
     private void handleQuestionSubmission() {
         String question = questionField.getString().trim();
         if (question.length() == 0) return;
-        processQuery(question);
+        cancelTypeAhead();
+        processQuery(question); // askCloud() takes a matching prefetch
+        discardPrefetch();      // answered locally, or made for other text
+    }
+
+    // ── Type-ahead classification and cloud prefetch ─────────────────────────
+    /**
+     * questionField changed: classify the text as processQuery() would, and
+     * if the cascade would hand it to the cloud, start its request once
+     * typing pauses. Runs on the UI thread for every edit, so it never
+     * waits for the model: until it has loaded, nothing is prefetched.
+     */
+    public void itemStateChanged(Item item) {
+        if (item != questionField) return;
+        cancelTypeAhead();
+        String text = questionField.getString().trim();
+        if (text.length() < PREFETCH_MIN_CHARS || prefetchCount >= MAX_PREFETCHES) return;
+        if (aiModel == null) return;
+        final String q = injectContext(normalizeQuery(text));
+        if (cascade == null) cascade = buildCascade();
+        int tier = cascade.peek(q, typeAheadRoute);
+        if (!sendsToCloud(q, tier, typeAheadRoute.intent)) return;
+        if (answerCache.contains(q)) return; // Send will not need the cloud
+        if (prefetch != null && prefetch.matches(q, SMSManager.nextTurnContext())) return;
+        if (typeAheadTimer == null) typeAheadTimer = new Timer();
+        typeAheadTask = new TimerTask() {
+            public void run() {
+                final TimerTask self = this;
+                display.callSerially(new Runnable() {
+                    public void run() {
+                        if (self == typeAheadTask) startPrefetch(q); // else typed on
+                    }
+                });
+            }
+        };
+        typeAheadTimer.schedule(typeAheadTask, PREFETCH_IDLE_MS);
+    }
+
+    private void cancelTypeAhead() {
+        if (typeAheadTask != null) {
+            typeAheadTask.cancel();
+            typeAheadTask = null;
+        }
+    }
+
+    private void startPrefetch(String question) {
+        typeAheadTask = null;
+        discardPrefetch(); // superseded by the newer text
+        prefetch = new CloudPrefetch(question, SMSManager.nextTurnContext());
+        prefetch.start();
+        prefetchCount++;
+        EvaluationLogger.recordPrefetchSent();
+    }
+
+    private void discardPrefetch() {
+        if (prefetch == null) return;
+        prefetch.cancel(); // its result is never delivered
+        prefetch = null;
+        EvaluationLogger.recordPrefetchWasted();
+    }
+
+    /** Whether processQuery() ends in askCloud() for this routing outcome. */
+    private boolean sendsToCloud(String question, int tier, byte intentId) {
+        if (tier != TIER_CLOUD && intentId >= 0 && intentId <= 7 && intentId != 4) return false;
+        return !isArithmetic(question);
     }
 
     // ── AI query dispatch ────────────────────────────────────────────────────
@@ -785,33 +1107,20 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
             dbg.append(question);
             System.out.println(dbg.toString());
 
-            byte  intentId   = aiModel.predict(question);
-            float confidence = aiModel.getLastConfidence();
+            if (cascade == null) cascade = buildCascade();
+            int tier = cascade.route(question, route);
+            if (route.keptLocal) thresholds.countKeptLocal(); // not for peek()
+            byte  intentId   = route.intent;
+            float confidence = route.confidence;
             EvaluationLogger.recordPrediction(intentId, confidence);
 
-            // Pragmatic override: the deployed COMPRESSED_WEIGHTS in this
-            // build were not produced by a successful training run, so the
-            // classifier's output is unreliable. When the question contains
-            // unambiguous math or science keywords, override the model's
-            // intent with the keyword-derived one. Remove this block once a
-            // properly-trained weights table is shipped (re-run elimu-model/
-            // train_model.py + quantize_pack.py and paste the bytes back).
-            boolean kwMath = isMathQuery(question);
-            boolean kwSci  = isScienceQuery(question);
-            if (kwMath && !kwSci) {
-                intentId   = (byte) 0;
-                confidence = 1.0f;
-            } else if (kwSci && !kwMath) {
-                intentId   = (byte) 1;
-                confidence = 1.0f;
-            }
-
             // Track state for the "More" tier walk: a fresh question resets
             // the cursor so subsequent "More" taps start from the top.
             lastQuestion  = question;
             lastIntent    = intentId;
             moreLevel     = 0;
             relatedCursor = 0;
+            moreToken     = null;
 
             // Conversation memory: rolling 3-turn context for cloud queries.
             // Reset on greeting/farewell; otherwise append.
@@ -825,10 +1134,18 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
             dbg.append(intentId);
             dbg.append("  Confidence: ");
             dbg.append(confidence);
+            dbg.append("  Tier: ");
+            dbg.append(TIER_NAMES[tier]);
             System.out.println(dbg.toString());
 
             boolean answeredLocally = true;
-            if (!aiModel.shouldFallbackToCloud()) {
+            // A cloud-bound question answered before, or a near duplicate of
+            // one: no round trip.
+            String saved = sendsToCloud(question, tier, intentId)
+                    ? answerCache.get(question) : null;
+            if (saved != null) {
+                showResponse(saved, "Saved Answer");
+            } else if (tier != TIER_CLOUD) {
                 // Update session context: track math/science topic; clear on greeting/farewell
                 if (intentId == 0 || intentId == 1) {
                     lastSuccessfulIntent = intentId;
@@ -836,9 +1153,9 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
                     lastSuccessfulIntent = -1;
                 }
                 switch (intentId) {
-                    case 0: handleMathQuestion(question);    break;
-                    case 1: handleScienceQuestion(question); break;
-                    case 2: handleScienceQuestion(question); break; // was English - route to science
+                    case 0: handleMathQuestion(withTopic("math", question));       break;
+                    case 1: handleScienceQuestion(withTopic("science", question)); break;
+                    case 2: handleScienceQuestion(withTopic("science", question)); break; // was English - route to science
                     case 3: showQuizTypePicker();            break;
                     case 4: answeredLocally = handleLowConfidence(question); break;
                     case 5: showProgress();                  break;
@@ -846,14 +1163,6 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
                     case 7: showResponse("Goodbye! Keep learning STEM!", "Bye!"); break;
                     default: answeredLocally = handleLowConfidence(question); break;
                 }
-            } else if (intentId == 0 && isMathQuery(question)) {
-                // Classifier agrees it's math; keyword confirms it — route at low confidence
-                lastSuccessfulIntent = 0;
-                handleMathQuestion(question);
-            } else if ((intentId == 1 || intentId == 2) && isScienceQuery(question)) {
-                // Classifier agrees it's science; keyword confirms it — route at low confidence
-                lastSuccessfulIntent = 1;
-                handleScienceQuestion(question);
             } else {
                 answeredLocally = handleLowConfidence(question);
             }
@@ -870,6 +1179,31 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         }
     }
 
+    /**
+     * If the registry has a topic model for `subject`, append its label
+     * (e.g. "plants") so the keyword-driven handlers find the topic even
+     * when the question words don't. The model is loaded here, on the first
+     * query of that subject, never for another subject's queries.
+     */
+    private String withTopic(String subject, String question) {
+        ModelRegistry models = registry;
+        if (models == null || !models.has(subject)) return question;
+        try {
+            CompressedTinyML topics = models.get(subject);
+            Prediction p = topics.predict(question, null);
+            if (p.shouldFallbackToCloud()) return question;
+            StringBuffer sb = new StringBuffer(question);
+            sb.append(' ');
+            sb.append(topics.getIntentName(p.getIntent()));
+            return sb.toString();
+        } catch (java.io.IOException e) {
+            StringBuffer sb = new StringBuffer("[Models] ");
+            sb.append(e.getMessage());
+            System.out.println(sb.toString());
+            return question;
+        }
+    }
+
     // ── Math ─────────────────────────────────────────────────────────────────
     private void handleMathQuestion(String question) {
         String lower = question.toLowerCase();
@@ -1189,8 +1523,7 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
      * Caller uses the return value to keep local/cloud answer counters consistent.
      */
     private boolean handleLowConfidence(String question) {
-        if (question.indexOf('+') >= 0 || question.indexOf('-') >= 0
-                || question.indexOf('*') >= 0 || question.indexOf('/') >= 0) {
+        if (isArithmetic(question)) {
             showResponse(evaluateMathExpression(question), "Math");
             return true;
         }
@@ -1198,30 +1531,41 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         return false;
     }
 
+    private static boolean isArithmetic(String question) {
+        return question.indexOf('+') >= 0 || question.indexOf('-') >= 0
+            || question.indexOf('*') >= 0 || question.indexOf('/') >= 0;
+    }
+
     private void askCloud(final String question) {
         // Capture the on-device confidence at dispatch time. The cloud-arbitrated
         // label will drive an SGD step weighted by (1 - confidence) so that
         // questions the model was already nearly-confident about don't get
         // hammered, while truly uncertain ones move the weights more.
-        final float dispatchConfidence = aiModel.getLastConfidence();
+        final Prediction dispatched = queryResult;
+        final float dispatchConfidence = dispatched != null ? dispatched.getConfidence() : 0.0f;
+        queryResult = null; // the next query gets its own result
+        // Sent with the question, and kept with it if it has to wait.
+        final String context = SMSManager.currentContext();
 
         Alert waiting = new Alert("Cloud");
         waiting.setString("Asking the cloud AI...");
         waiting.setTimeout(Alert.FOREVER);
         display.setCurrent(waiting);
 
-        SMSManager.sendToCloudAI(question, new CloudResponseListener() {
-            public void onResponse(final String answer, final String intentLabel) {
-                display.callSerially(new Runnable() {
-                    public void run() {
-                        showResponse(answer, "Cloud Answer");
-                        applyCloudArbitratedLabel(intentLabel, dispatchConfidence);
-                    }
-                });
+        CloudResponseListener listener = new StreamedAnswer() {
+            void answered(String intentLabel) {
+                applyCloudArbitratedLabel(dispatched, intentLabel, dispatchConfidence);
             }
             public void onError(final String reason) {
                 display.callSerially(new Runnable() {
                     public void run() {
+                        if (questions.enqueue(question, context)) {
+                            showResponse(
+                                "No connection. Your question is saved and will be sent "
+                                + "when the network is back.\nThe answer will appear in Inbox.",
+                                "Saved for Later");
+                            return;
+                        }
                         showResponse(
                             "Cloud unreachable. I can help with Math and Science.\n"
                             + "Try: 'photosynthesis', 'fraction', 'LCM', '5*4'.",
@@ -1229,28 +1573,93 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
                     }
                 });
             }
-        });
+        };
+        // Typed-ahead prefetch for this very question: its round trip is
+        // already (partly) behind the learner.
+        CloudPrefetch early = prefetch;
+        prefetch = null;
+        if (early != null && early.matches(question, context)) {
+            EvaluationLogger.recordPrefetchUsed(early.attach(listener));
+            SMSManager.recordCloudAnswer();
+        } else {
+            if (early != null) {
+                early.cancel();
+                EvaluationLogger.recordPrefetchWasted();
+            }
+            SMSManager.sendToCloudAI(question, listener);
+        }
+    }
+
+    /**
+     * A cloud answer shown while it arrives: the first screenful replaces
+     * the waiting alert, and later text fills in the same alert. Once the
+     * learner has left that alert, the rest of the answer no longer pulls
+     * them back. If the server has more pages, "More" on the finished
+     * answer fetches the next one. Subclasses handle errors.
+     */
+    private abstract class StreamedAnswer implements CloudStreamListener {
+        private String token; // network worker only
+        private Alert  shown; // UI thread only
+
+        public void onContinuation(String token) {
+            this.token = token;
+        }
+
+        public void onPartial(final String textSoFar) {
+            display.callSerially(new Runnable() {
+                public void run() { show(textSoFar); }
+            });
+        }
+
+        public void onResponse(final String answer, final String intentLabel) {
+            final String next = token;
+            display.callSerially(new Runnable() {
+                public void run() {
+                    if (show(answer)) moreToken = next;
+                    answered(intentLabel);
+                }
+            });
+        }
+
+        /** The whole answer is in; runs on the UI thread. */
+        void answered(String intentLabel) {}
+
+        /** Show `text`; false if the learner has moved on from this answer. */
+        private boolean show(String text) {
+            if (shown == null) {
+                shown = showResponse(text, "Cloud Answer");
+                return true;
+            }
+            if (display.getCurrent() != shown) return false;
+            shown.setString(text);
+            return true;
+        }
     }
 
     /**
-     * One SGD step on the on-device classifier using the cloud-arbitrated
-     * intent label as supervision. The learning rate is scaled by
-     * (1 - confidence): if the model was already nearly-confident, the step
-     * is small; if it was deeply uncertain, the step is closer to full.
-     * Saves weights to RMS so the update survives session boundaries.
+     * Queue the cloud-arbitrated intent label as supervision for the
+     * on-device classifier. The sample is weighted by (1 - confidence): if
+     * the model was already nearly-confident it barely moves the weights;
+     * if it was deeply uncertain it counts almost fully. The label goes to
+     * the replay buffer on the storage worker, off the UI thread; training
+     * happens in trainReplayWhenIdle() or on exit. The label also tells the
+     * threshold controller whether the network's own answer would have done.
      */
-    private void applyCloudArbitratedLabel(String intentLabel, float dispatchConfidence) {
-        if (intentLabel == null) return;
-        int intentId = CompressedTinyML.intentIdFromLabel(intentLabel);
-        if (intentId < 0) return;
-        float baseLR = 0.05f;
-        float scale  = 1.0f - dispatchConfidence;
-        if (scale < 0.0f) scale = 0.0f;
-        if (scale > 1.0f) scale = 1.0f;
-        float lr = baseLR * scale;
-        aiModel.learn(intentId, lr);
-        EvaluationLogger.recordLearnEvent();
-        aiModel.saveWeights();
+    private void applyCloudArbitratedLabel(final Prediction dispatched, final String intentLabel,
+                                           final float dispatchConfidence) {
+        final CompressedTinyML model = aiModel;
+        // No model, no network prediction to correct: the query went
+        // straight to the cloud.
+        if (intentLabel == null || model == null || dispatched == null) return;
+        BackgroundExecutor.STORAGE.submit(new Runnable() {
+            public void run() {
+                int intentId = model.intentIdFromLabel(intentLabel);
+                if (intentId < 0) return;
+                thresholds.observe(dispatched, intentId);
+                replay.add(dispatched, intentId, 1.0f - dispatchConfidence);
+                EvaluationLogger.recordLearnEvent();
+            }
+        }, BackgroundExecutor.PRIORITY_BACKGROUND);
     }
 
     // ── LCG random number generator ──────────────────────────────────────────
@@ -1478,6 +1887,11 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         sb.append("\n\n=== AI Analytics ===");
         sb.append("\n"); sb.append(EvaluationLogger.getSummary());
         sb.append("\nIntents: "); sb.append(EvaluationLogger.getIntentDistribution());
+        sb.append("\nAnswered by: "); sb.append(EvaluationLogger.getCascadeReport(TIER_NAMES));
+        sb.append("\n"); sb.append(EvaluationLogger.getPrefetchReport());
+        sb.append("\n"); sb.append(EvaluationLogger.getCloudWaitReport());
+        sb.append("\n"); sb.append(BackgroundExecutor.NETWORK.getReport());
+        sb.append("\n"); sb.append(BackgroundExecutor.STORAGE.getReport());
 
         showResponse(sb.toString(), "My Progress");
     }
@@ -1772,7 +2186,7 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         }
     }
 
-    private void showResponse(String response, String title) {
+    private Alert showResponse(String response, String title) {
         Alert alert = new Alert(title);
         alert.setString(response);
         alert.setTimeout(Alert.FOREVER);
@@ -1781,10 +2195,14 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         alert.addCommand(moreCmd);
         alert.setCommandListener(this);
         display.setCurrent(alert);
+        return alert;
     }
 
     /**
      * Handle a "More" tap. Progressive concentric circles:
+     *   next page:      while the cloud answer on screen has more pages,
+     *                   fetch the next one (no new LLM call); on error,
+     *                   carry on with the walk below.
      *   moreLevel == 1: try the cloud LLM for a deeper answer; on offline
      *                   error, surface the intent-level overview from
      *                   MicroResponses (broader CBC frame for the same topic).
@@ -1799,6 +2217,12 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
             display.setCurrent(mainMenu);
             return;
         }
+        if (moreToken != null) {
+            String token = moreToken;
+            moreToken = null;
+            showNextPage(token);
+            return;
+        }
         moreLevel++;
         if (moreLevel == 1) {
             askCloudWithBroaderFallback(lastQuestion, lastIntent);
@@ -1831,15 +2255,10 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         waiting.setTimeout(Alert.FOREVER);
         display.setCurrent(waiting);
 
-        SMSManager.sendToCloudAI(question, new CloudResponseListener() {
-            // No learning from the More-button path: that's a coverage-gap
-            // signal (the student wanted depth), not a label correction.
-            // The intentLabel is intentionally ignored here.
-            public void onResponse(final String answer, final String intentLabel) {
-                display.callSerially(new Runnable() {
-                    public void run() { showResponse(answer, "Cloud Answer"); }
-                });
-            }
+        // No learning from the More-button path: that's a coverage-gap
+        // signal (the student wanted depth), not a label correction, so
+        // StreamedAnswer.answered() is left as is.
+        SMSManager.sendToCloudAI(question, new StreamedAnswer() {
             public void onError(final String reason) {
                 display.callSerially(new Runnable() {
                     public void run() {
@@ -1850,6 +2269,26 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         });
     }
 
+    /**
+     * "More" on a paged cloud answer: fetch the page after the one shown.
+     * If it cannot be had (offline, or the server has forgotten the
+     * answer), "More" carries on as it would have without pages.
+     */
+    private void showNextPage(String token) {
+        Alert waiting = new Alert("Cloud");
+        waiting.setString("Getting the rest of the answer...");
+        waiting.setTimeout(Alert.FOREVER);
+        display.setCurrent(waiting);
+
+        SMSManager.fetchNextPage(token, new StreamedAnswer() {
+            public void onError(final String reason) {
+                display.callSerially(new Runnable() {
+                    public void run() { handleMore(); }
+                });
+            }
+        });
+    }
+
     private void showError(String message) {
         Alert error = new Alert("Error");
         error.setString(message);
@@ -1857,8 +2296,30 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         display.setCurrent(error, mainMenu);
     }
 
-    public void pauseApp() {}
+    public void pauseApp() {
+        // The AMS may destroy a paused MIDlet without calling destroyApp().
+        WriteBehindSaver saver = weightSaver;
+        if (saver != null) saver.flush();
+        // Topic models reload on demand; free the heap for the foreground app.
+        ModelRegistry models = registry;
+        if (models != null) models.trimMemory();
+        thresholds.save();
+    }
     public void destroyApp(boolean unconditional) {
+        // Saving below needs every stage: state restored, FL configured.
+        if (startup != null) startup.await(StartupPipeline.STAGE_NETWORK);
+        // Train whatever corrections are still waiting so this session's
+        // learning reaches the saved weights and the FL delta.
+        if (aiModel != null) {
+            if (aiModel.trainReplay(replay, CompressedTinyML.REPLAY_BATCH, 0.05f) > 0) {
+                weightSaver.markDirty();
+            }
+            weightSaver.flush();
+            System.out.println(weightSaver.getReport());
+            System.out.println(registry.getReport());
+        }
+        System.out.println(BackgroundExecutor.NETWORK.getReport());
+        System.out.println(BackgroundExecutor.STORAGE.getReport());
         // Generation phase of the FL round runs entirely offline:
         // compute delta, add DP noise, quantise, enqueue. No network call.
         if (FederatedLearning.isEnabled() && aiModel != null) {
@@ -1866,5 +2327,6 @@ public class ElimuSMSMidlet extends MIDlet implements CommandListener {
         }
         EvaluationLogger.save();
         UserPreferences.saveSRS();
+        thresholds.save();
     }
 }
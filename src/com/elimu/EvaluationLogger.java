@@ -41,6 +41,47 @@ public class EvaluationLogger {
     private static int   tlxSessionsRecorded = 0;
     private static int[] tlxSumByDim = new int[6]; // running sum per dimension
 
+    // Query cascade (see QueryCascade), per stage index: calls, queries it
+    // resolved, and total time in ms. Persisted after the intent counts.
+    private static final int MAX_STAGES = 4;
+    private static int[]     stageRuns = new int[MAX_STAGES];
+    private static int[]     stageHits = new int[MAX_STAGES];
+    private static int[]     stageMs   = new int[MAX_STAGES];
+
+    // Type-ahead cloud prefetch (see CloudPrefetch): requests started, ones
+    // a submitted question reused, ones discarded, and the total round-trip
+    // time (ms) the reused ones had already spent before Send. Persisted
+    // after the cascade counters.
+    private static int prefetchSent     = 0;
+    private static int prefetchUsed     = 0;
+    private static int prefetchWasted   = 0;
+    private static int prefetchHiddenMs = 0;
+
+    // Answer cache (see AnswerCache): cloud-bound questions looked up, ones
+    // answered from the cache, and the request and answer bytes those hits
+    // kept off the network. Persisted after the prefetch counters.
+    private static int answerCacheLookups = 0;
+    private static int answerCacheHits    = 0;
+    private static int answerCacheBytes   = 0;
+    // Of the hits, those answered by a near-duplicate question; persisted
+    // after the answer cache counters.
+    private static int answerCacheNearHits = 0;
+
+    // Streamed cloud answers (see SMSManager.readResponse): answers timed,
+    // and the total ms from asking to the first text on screen and to the
+    // last byte. Persisted after the near-duplicate hits.
+    private static int cloudTimed       = 0;
+    private static int cloudFirstTextMs = 0;
+    private static int cloudTotalMs     = 0;
+
+    // Startup phase timings of this launch (ms): time to the main menu plus
+    // each StartupPipeline stage. In-memory only — they describe one launch,
+    // and are written from the pipeline thread, hence synchronized access.
+    private static final int  MAX_PHASES = 8;
+    private static String[]   phaseNames = new String[MAX_PHASES];
+    private static long[]     phaseMs    = new long[MAX_PHASES];
+    private static int        phaseCount = 0;
+
     // ── Session events ────────────────────────────────────────────────────────
 
     /** Call once at the start of each MIDlet session. */
@@ -72,6 +113,49 @@ public class EvaluationLogger {
         cloudQueries++;
     }
 
+    /** Cascade: stage `stage` ran for `ms` and did (or did not) resolve the query. */
+    public static void recordCascadeStage(int stage, boolean resolved, long ms) {
+        if (stage < 0 || stage >= MAX_STAGES) return;
+        stageRuns[stage]++;
+        if (resolved) stageHits[stage]++;
+        stageMs[stage] += (int) ms;
+    }
+
+    /** Prefetch: a speculative cloud request was started while typing. */
+    public static void recordPrefetchSent() { prefetchSent++; }
+
+    /** Prefetch: Send reused one, `hiddenMs` of its round trip already done. */
+    public static void recordPrefetchUsed(long hiddenMs) {
+        prefetchUsed++;
+        prefetchHiddenMs += (int) hiddenMs;
+    }
+
+    /** Prefetch: one was discarded (question changed, answered locally, Back). */
+    public static void recordPrefetchWasted() { prefetchWasted++; }
+
+    /** Answer cache: a cloud-bound question was answered from the cache. */
+    public static void recordAnswerCacheHit(int bytesSaved) {
+        answerCacheLookups++;
+        answerCacheHits++;
+        answerCacheBytes += bytesSaved;
+    }
+
+    /** Answer cache: a cloud-bound question was answered by a near duplicate. */
+    public static void recordAnswerCacheNearHit(int bytesSaved) {
+        recordAnswerCacheHit(bytesSaved);
+        answerCacheNearHits++;
+    }
+
+    /** Cloud: an answer's first text showed after `firstTextMs`, all of it after `totalMs`. */
+    public static void recordCloudTiming(long firstTextMs, long totalMs) {
+        cloudTimed++;
+        cloudFirstTextMs += (int) firstTextMs;
+        cloudTotalMs     += (int) totalMs;
+    }
+
+    /** Answer cache: a cloud-bound question was not in the cache. */
+    public static void recordAnswerCacheMiss() { answerCacheLookups++; }
+
     /** FL: a noisy delta has been queued at destroyApp(). */
     public static void recordFLEnqueue() { flEnqueues++; }
 
@@ -115,6 +199,7 @@ public class EvaluationLogger {
      *   - questions asked, cloud rate, mean confidence
      *   - top-3 intents the learner cared about
      *   - FL participation (rounds enqueued / pulled)
+     *   - answer-cache hit rate and the bytes it saved
      *   - average cognitive load (NASA-TLX) if any responses recorded
      */
     public static String getThisWeekReport() {
@@ -130,6 +215,14 @@ public class EvaluationLogger {
         sb.append("\nFL: enq=");     sb.append(flEnqueues);
         sb.append(" flush=");        sb.append(flFlushes);
         sb.append(" pulls=");        sb.append(flPulls);
+        if (answerCacheLookups > 0) {
+            sb.append("\nSaved answers: "); sb.append(answerCacheHits);
+            sb.append('/');              sb.append(answerCacheLookups);
+            sb.append(" (");             sb.append(answerCacheHits * 100 / answerCacheLookups);
+            sb.append("%, ");            sb.append(answerCacheNearHits);
+            sb.append(" near), ");       sb.append(answerCacheBytes);
+            sb.append(" B saved");
+        }
         if (tlxSessionsRecorded > 0) {
             float[] tlx = getTLXMeans();
             float total = 0;
@@ -171,6 +264,24 @@ public class EvaluationLogger {
         return sb.toString();
     }
 
+    /** Startup: `phase` took `ms` milliseconds in this launch. */
+    public static synchronized void recordStartupPhase(String phase, long ms) {
+        if (phaseCount >= MAX_PHASES) return;
+        phaseNames[phaseCount] = phase;
+        phaseMs[phaseCount]    = ms;
+        phaseCount++;
+    }
+
+    /** One line of this launch's startup timings, in recording order. */
+    public static synchronized String getStartupReport() {
+        StringBuffer sb = new StringBuffer("Startup:");
+        for (int i = 0; i < phaseCount; i++) {
+            sb.append(' '); sb.append(phaseNames[i]);
+            sb.append('='); sb.append(phaseMs[i]); sb.append("ms");
+        }
+        return sb.toString();
+    }
+
     // ── Reporting ────────────────────────────────────────────────────────────
 
     /**
@@ -197,6 +308,63 @@ public class EvaluationLogger {
         return sb.toString();
     }
 
+    /**
+     * Share of queries each cascade stage resolved, its mean cost, and the
+     * time early exits saved: every query a stage resolved skipped the mean
+     * cost of each later stage. `names` label stage 0, 1, ...
+     * Example: "Rules:58% Model:35% Cloud:7%\nModel 4ms/query\nEarly exits saved 920ms"
+     */
+    public static String getCascadeReport(String[] names) {
+        int n = names.length < MAX_STAGES ? names.length : MAX_STAGES;
+        int routed = 0;
+        for (int s = 0; s < n; s++) routed += stageHits[s];
+        if (routed == 0) return "No routed queries yet";
+        StringBuffer sb = new StringBuffer();
+        long saved = 0;
+        for (int s = 0; s < n; s++) {
+            if (s > 0) sb.append(' ');
+            sb.append(names[s]); sb.append(':');
+            sb.append(stageHits[s] * 100 / routed); sb.append('%');
+            for (int t = s + 1; t < n; t++) {
+                if (stageRuns[t] > 0) saved += (long) stageHits[s] * stageMs[t] / stageRuns[t];
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            if (stageRuns[s] == 0 || stageMs[s] == 0) continue;
+            sb.append('\n'); sb.append(names[s]); sb.append(' ');
+            sb.append(stageMs[s] / stageRuns[s]); sb.append("ms/query");
+        }
+        sb.append("\nEarly exits saved "); sb.append(saved); sb.append("ms");
+        return sb.toString();
+    }
+
+    /**
+     * Type-ahead prefetch outcome and the cloud wait it took off the
+     * learner. Example: "Prefetch: 9 sent, 6 used, 3 wasted\nHid 21400ms of cloud wait"
+     */
+    public static String getPrefetchReport() {
+        if (prefetchSent == 0) return "Prefetch: none yet";
+        StringBuffer sb = new StringBuffer("Prefetch: ");
+        sb.append(prefetchSent);   sb.append(" sent, ");
+        sb.append(prefetchUsed);   sb.append(" used, ");
+        sb.append(prefetchWasted); sb.append(" wasted");
+        sb.append("\nHid "); sb.append(prefetchHiddenMs); sb.append("ms of cloud wait");
+        return sb.toString();
+    }
+
+    /**
+     * How long the learner waits for a cloud answer, first text versus the
+     * whole of it. Example: "Cloud wait: first text 2100ms, all 5400ms (n=12)"
+     */
+    public static String getCloudWaitReport() {
+        if (cloudTimed == 0) return "Cloud wait: none yet";
+        StringBuffer sb = new StringBuffer("Cloud wait: first text ");
+        sb.append(cloudFirstTextMs / cloudTimed); sb.append("ms, all ");
+        sb.append(cloudTotalMs / cloudTimed);     sb.append("ms (n=");
+        sb.append(cloudTimed);                    sb.append(")");
+        return sb.toString();
+    }
+
     /**
      * Returns per-intent query counts as a compact string.
      * Example: "Math:23 Science:31 Quiz:12 ..."
@@ -226,6 +394,22 @@ public class EvaluationLogger {
             dos.writeInt(cloudQueries);
             dos.writeInt(confidenceSum100);
             for (int i = 0; i < NUM_INTENTS; i++) dos.writeInt(intentPredCount[i]);
+            for (int i = 0; i < MAX_STAGES; i++) {
+                dos.writeInt(stageRuns[i]);
+                dos.writeInt(stageHits[i]);
+                dos.writeInt(stageMs[i]);
+            }
+            dos.writeInt(prefetchSent);
+            dos.writeInt(prefetchUsed);
+            dos.writeInt(prefetchWasted);
+            dos.writeInt(prefetchHiddenMs);
+            dos.writeInt(answerCacheLookups);
+            dos.writeInt(answerCacheHits);
+            dos.writeInt(answerCacheBytes);
+            dos.writeInt(answerCacheNearHits);
+            dos.writeInt(cloudTimed);
+            dos.writeInt(cloudFirstTextMs);
+            dos.writeInt(cloudTotalMs);
             dos.flush();
             byte[] data = baos.toByteArray();
             rs = RecordStore.openRecordStore(RMS_STORE, true);
@@ -254,6 +438,32 @@ public class EvaluationLogger {
                 cloudQueries     = dis.readInt();
                 confidenceSum100 = dis.readInt();
                 for (int i = 0; i < NUM_INTENTS; i++) intentPredCount[i] = dis.readInt();
+                if (dis.available() > 0) { // records written before the cascade lack these
+                    for (int i = 0; i < MAX_STAGES; i++) {
+                        stageRuns[i] = dis.readInt();
+                        stageHits[i] = dis.readInt();
+                        stageMs[i]   = dis.readInt();
+                    }
+                }
+                if (dis.available() > 0) { // ... and before type-ahead prefetch
+                    prefetchSent     = dis.readInt();
+                    prefetchUsed     = dis.readInt();
+                    prefetchWasted   = dis.readInt();
+                    prefetchHiddenMs = dis.readInt();
+                }
+                if (dis.available() > 0) { // ... and before the answer cache
+                    answerCacheLookups = dis.readInt();
+                    answerCacheHits    = dis.readInt();
+                    answerCacheBytes   = dis.readInt();
+                }
+                if (dis.available() > 0) { // ... and before near-duplicate hits
+                    answerCacheNearHits = dis.readInt();
+                }
+                if (dis.available() > 0) { // ... and before streamed answers were timed
+                    cloudTimed       = dis.readInt();
+                    cloudFirstTextMs = dis.readInt();
+                    cloudTotalMs     = dis.readInt();
+                }
             }
         } catch (RecordStoreNotFoundException e) {
             // First install — keep zero defaults
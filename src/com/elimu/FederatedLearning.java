@@ -14,9 +14,12 @@ import javax.microedition.rms.*;
  *      into the same nibble format used by the static weights, and ENQUEUE
  *      the resulting 235-byte payload in the RMS queue. No network call.
  *   2. Transport (opportunistic): SMSManager flushes the queue when it next
- *      opens an HTTP connection for the cloud-fallback tier. Independently,
- *      a teacher's collector device may read the same payloads off the SD
- *      card via JSR-75 FileConnection (sneakernet).
+ *      opens an HTTP connection for the cloud-fallback tier or sends the
+ *      learner's queued questions, up to MAX_BATCH_RECORDS blobs per POST
+ *      to /v1/fl/upload-batch; the server acknowledges each record, and
+ *      only acknowledged ones leave the queue. Independently, a teacher's
+ *      collector device may read the same payloads off the SD card via
+ *      JSR-75 FileConnection (sneakernet).
  *   3. Pull (lazy, runs at startApp): GET the current global from the server
  *      and overlay onto in-memory weights via CompressedTinyML.applyGlobalUpdate.
  *
@@ -33,10 +36,18 @@ public class FederatedLearning {
     private static final byte PROTOCOL_VERSION = 0x01;
     private static final int  DEVICE_ID_BYTES  = 16;
     private static final int  HEADER_BYTES     = 1 + DEVICE_ID_BYTES + 4; // 21
-    private static final int  TOTAL_PARAMS     = CompressedTinyML.TOTAL_PARAMS; // 428
-    private static final int  NIBBLE_BYTES     = (TOTAL_PARAMS + 1) / 2; // 214
-    private static final int  UPLOAD_SIZE      = HEADER_BYTES + NIBBLE_BYTES; // 235
-    private static final int  GLOBAL_SIZE      = 4 + TOTAL_PARAMS * 4; // 1716
+    // v2 batch upload: one POST for up to MAX_BATCH_RECORDS queued blobs.
+    private static final byte BATCH_PROTOCOL_VERSION = 0x02;
+    private static final int  RECORD_OFFSET      = 1 + DEVICE_ID_BYTES;     // 17
+    private static final int  BATCH_HEADER_BYTES = RECORD_OFFSET + 1;       // 18
+    private static final int  MAX_BATCH_RECORDS  = 16;
+    // Payload sizes follow model.getParamCount(): an upload is the header
+    // plus one nibble per parameter, a global is a u32 round plus one float
+    // per parameter — 235 and 1716 bytes for the shipped 26-12-8 model.
+    // The server averages one global of that shape and checks these exact
+    // sizes (TOTAL_PARAMS in cloud-server/fl.py), so a build that ships a
+    // model with other layer sizes must change both sides together: the
+    // server answers any other size with 400 and the blobs stay queued.
 
     // Differential-privacy parameters. Per-coordinate clip + Gaussian noise
     // calibrate to (epsilon=0.3, delta=1e-5) under L2 sensitivity = CLIP*sqrt(p).
@@ -47,8 +58,13 @@ public class FederatedLearning {
     private static boolean enabled       = false;
     private static String  uploadUrl     = null;
     private static String  globalUrl     = null;
+    private static String  batchUrl      = null;
     private static byte[]  deviceId      = null;
     private static int     anchorRound   = 0;
+    private static boolean batchUnsupported = false; // server predates /v1/fl/upload-batch
+
+    // At most one flush waits in the network queue; every cloud answer asks.
+    private static BackgroundExecutor.Task pendingFlush = null;
 
     private static final String META_STORE  = "ElimuFLMeta";
     private static final String QUEUE_STORE = "ElimuFLQueue";
@@ -73,6 +89,7 @@ public class FederatedLearning {
         }
         uploadUrl = deriveSibling(cloudUrlBase, "/v1/fl/upload");
         globalUrl = deriveSibling(cloudUrlBase, "/v1/fl/global");
+        batchUrl  = deriveSibling(cloudUrlBase, "/v1/fl/upload-batch");
         loadOrGenerateDeviceId();
         StringBuffer sb = new StringBuffer("[FL] enabled: device=");
         sb.append(deviceIdHex()); sb.append(" round="); sb.append(anchorRound);
@@ -82,7 +99,7 @@ public class FederatedLearning {
     public static boolean isEnabled() { return enabled; }
 
     /** Replace the path of `base` with `newPath`. Naive but adequate. */
-    private static String deriveSibling(String base, String newPath) {
+    static String deriveSibling(String base, String newPath) {
         int proto = base.indexOf("://");
         if (proto < 0) return newPath;
         int pathStart = base.indexOf('/', proto + 3);
@@ -127,26 +144,33 @@ public class FederatedLearning {
     // ── Transport: opportunistic flush ───────────────────────────────────────
 
     /**
-     * POST every queued blob to /v1/fl/upload. Called by SMSManager after a
-     * successful cloud-fallback request, so the network is already warm.
-     * Drops blobs from the queue only on 200 responses.
+     * Upload every queued blob. Called by SMSManager after a successful
+     * cloud-fallback request, so the network is already warm. Runs on the
+     * network worker after any queued learner requests, and is not queued
+     * twice. Drops blobs from the queue only once the server acknowledged
+     * them.
      */
-    public static void flushPendingOpportunistic() {
+    public static synchronized void flushPendingOpportunistic() {
         if (!enabled || uploadUrl == null) return;
-        new Thread() {
+        if (pendingFlush != null && pendingFlush.isPending()) return;
+        pendingFlush = BackgroundExecutor.NETWORK.submit(new Runnable() {
             public void run() { flushNow(); }
-        }.start();
+        }, BackgroundExecutor.PRIORITY_BACKGROUND);
     }
 
-    private static void flushNow() {
+    /** One flush on the calling thread; package-private for the upload benchmark. */
+    static void flushNow() {
         RecordStore rs = null;
         try {
             rs = RecordStore.openRecordStore(QUEUE_STORE, true);
+            int[]    ids   = new int[MAX_BATCH_RECORDS];
+            byte[][] batch = new byte[MAX_BATCH_RECORDS][];
+            int n = 0;
             RecordEnumeration en = rs.enumerateRecords(null, null, false);
             while (en.hasNextElement()) {
                 int id = en.nextRecordId();
                 byte[] blob = rs.getRecord(id);
-                if (blob == null || blob.length != UPLOAD_SIZE) {
+                if (blob == null || blob.length <= HEADER_BYTES) {
                     rs.deleteRecord(id);
                     continue;
                 }
@@ -163,16 +187,23 @@ public class FederatedLearning {
                 } catch (Throwable t) {
                     // WMA missing at runtime — silently degrade to HTTPS.
                 }
-                if (!delivered && postBlob(uploadUrl, blob)) {
-                    EvaluationLogger.recordFLFlush();
-                    delivered = true;
-                }
                 if (delivered) {
                     rs.deleteRecord(id);
+                    continue;
                 }
-                // If neither transport succeeded the blob stays queued
-                // for the next flush attempt.
+                // HTTPS blobs go out MAX_BATCH_RECORDS to a POST. A blob
+                // that cannot share the batch header sends the batch first.
+                if (n == MAX_BATCH_RECORDS || (n > 0 && !sameBatch(batch[0], blob))) {
+                    boolean up = uploadBatch(rs, ids, batch, n);
+                    n = 0; // taken either way: what was not delivered stays queued
+                    if (!up) break;
+                }
+                ids[n]   = id;
+                batch[n] = blob;
+                n++;
             }
+            if (n > 0) uploadBatch(rs, ids, batch, n);
+            // Blobs no transport took stay queued for the next flush.
             en.destroy();
         } catch (Throwable t) {
             StringBuffer es = new StringBuffer("[FL] flushNow failed: ");
@@ -185,6 +216,48 @@ public class FederatedLearning {
         }
     }
 
+    /** True if `blob` can follow `first` in one batch: same device and size. */
+    private static boolean sameBatch(byte[] first, byte[] blob) {
+        if (blob.length != first.length) return false;
+        for (int i = 1; i < RECORD_OFFSET; i++) {
+            if (blob[i] != first[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Upload blobs[0..n) and delete the records the server acknowledged;
+     * their slots are cleared (id 0, blob null) so they cannot be sent or
+     * deleted twice. Against a server without the batch endpoint, falls
+     * back to one /v1/fl/upload POST per blob. False if the upload failed
+     * outright, in which case the rest of the queue is not worth trying now.
+     */
+    private static boolean uploadBatch(RecordStore rs, int[] ids, byte[][] blobs, int n)
+            throws RecordStoreException {
+        boolean[] acked = batchUnsupported ? null : postBatch(batchUrl, blobs, n);
+        if (acked == null && !batchUnsupported) return false;
+        int delivered = 0;
+        for (int i = 0; i < n; i++) {
+            if (ids[i] == 0) continue; // delivered already
+            boolean ok = (acked != null) ? acked[i] : postBlob(uploadUrl, blobs[i]);
+            if (ok) {
+                EvaluationLogger.recordFLFlush();
+                rs.deleteRecord(ids[i]);
+                ids[i]   = 0;
+                blobs[i] = null;
+                delivered++;
+            } else if (acked == null) {
+                return false;
+            }
+        }
+        StringBuffer sb = new StringBuffer("[FL] uploaded ");
+        sb.append(delivered); sb.append('/'); sb.append(n);
+        sb.append(acked != null ? " in one batch" : " one by one");
+        System.out.println(sb.toString());
+        SMSManager.flushQueuedQuestions(); // the link is up: queued questions too
+        return true;
+    }
+
     /** True iff the server returned 200. */
     private static boolean postBlob(String url, byte[] blob) {
         HttpConnection conn = null;
@@ -207,17 +280,53 @@ public class FederatedLearning {
         }
     }
 
+    /**
+     * POST blobs[0..n) as one batch. Returns the server's per-record
+     * acknowledgements, or null if the request failed or the reply does
+     * not match; a 404 marks the batch endpoint unsupported this session.
+     */
+    private static boolean[] postBatch(String url, byte[][] blobs, int n) {
+        HttpConnection conn = null;
+        OutputStream os = null;
+        InputStream is = null;
+        try {
+            byte[] body = encodeBatch(blobs, n);
+            conn = (HttpConnection) Connector.open(url);
+            conn.setRequestMethod(HttpConnection.POST);
+            conn.setRequestProperty("Content-Type", "application/octet-stream");
+            conn.setRequestProperty("Content-Length", Integer.toString(body.length));
+            os = conn.openOutputStream();
+            os.write(body);
+            os.flush();
+            int status = conn.getResponseCode();
+            if (status == HttpConnection.HTTP_NOT_FOUND) {
+                batchUnsupported = true;
+                System.out.println("[FL] no batch endpoint; uploading one by one");
+                return null;
+            }
+            if (status != HttpConnection.HTTP_OK) return null;
+            is = conn.openInputStream();
+            return decodeAcks(new DataInputStream(is), n);
+        } catch (Throwable t) {
+            return null;
+        } finally {
+            if (is   != null) { try { is.close();   } catch (Throwable ig) {} }
+            if (os   != null) { try { os.close();   } catch (Throwable ig) {} }
+            if (conn != null) { try { conn.close(); } catch (Throwable ig) {} }
+        }
+    }
+
     // ── Pull: opportunistic global download ──────────────────────────────────
 
     /**
      * GET the current global model and overlay onto the live weights.
-     * Best-effort; silent on offline.
+     * Best-effort; silent on offline. Runs on the network worker.
      */
     public static void pullGlobalOpportunistic(final CompressedTinyML model) {
         if (!enabled || globalUrl == null || model == null) return;
-        new Thread() {
+        BackgroundExecutor.NETWORK.submit(new Runnable() {
             public void run() { pullNow(model); }
-        }.start();
+        }, BackgroundExecutor.PRIORITY_BACKGROUND);
     }
 
     private static void pullNow(CompressedTinyML model) {
@@ -227,12 +336,13 @@ public class FederatedLearning {
             conn = (HttpConnection) Connector.open(globalUrl);
             conn.setRequestMethod(HttpConnection.GET);
             int status = conn.getResponseCode();
+            SMSManager.flushQueuedQuestions(); // the link is up: queued questions too
             if (status != HttpConnection.HTTP_OK) return;
             is = conn.openInputStream();
             DataInputStream dis = new DataInputStream(is);
             int round = dis.readInt();
-            float[] global = new float[TOTAL_PARAMS];
-            for (int i = 0; i < TOTAL_PARAMS; i++) global[i] = dis.readFloat();
+            float[] global = new float[model.getParamCount()];
+            for (int i = 0; i < global.length; i++) global[i] = dis.readFloat();
             model.applyGlobalUpdate(global);
             anchorRound = round;
             saveMeta();
@@ -251,7 +361,7 @@ public class FederatedLearning {
     // ── Wire format ──────────────────────────────────────────────────────────
 
     private static byte[] encodeUpload(byte[] devId, int round, float[] delta) {
-        byte[] out = new byte[UPLOAD_SIZE];
+        byte[] out = new byte[HEADER_BYTES + (delta.length + 1) / 2];
         out[0] = PROTOCOL_VERSION;
         System.arraycopy(devId, 0, out, 1, DEVICE_ID_BYTES);
         out[17] = (byte)((round >>> 24) & 0xFF);
@@ -271,6 +381,31 @@ public class FederatedLearning {
         return out;
     }
 
+    /**
+     * v2 batch: the version, the device id shared by all records, a record
+     * count, then each upload's anchor round and nibbles (the upload minus
+     * its first RECORD_OFFSET bytes). All blobs must pass sameBatch().
+     */
+    private static byte[] encodeBatch(byte[][] blobs, int n) {
+        int rec = blobs[0].length - RECORD_OFFSET;
+        byte[] out = new byte[BATCH_HEADER_BYTES + n * rec];
+        out[0] = BATCH_PROTOCOL_VERSION;
+        System.arraycopy(blobs[0], 1, out, 1, DEVICE_ID_BYTES);
+        out[RECORD_OFFSET] = (byte) n;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(blobs[i], RECORD_OFFSET, out, BATCH_HEADER_BYTES + i * rec, rec);
+        }
+        return out;
+    }
+
+    /** Batch reply: u8 count, then one byte per record, 1 = accepted. */
+    private static boolean[] decodeAcks(DataInputStream dis, int n) throws IOException {
+        if (dis.readUnsignedByte() != n) return null;
+        boolean[] acked = new boolean[n];
+        for (int i = 0; i < n; i++) acked[i] = dis.readUnsignedByte() == 1;
+        return acked;
+    }
+
     // ── RMS plumbing ─────────────────────────────────────────────────────────
 
     private static void appendToQueue(byte[] blob) throws RecordStoreException {
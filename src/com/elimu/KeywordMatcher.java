@@ -0,0 +1,163 @@
+package com.elimu;
+
+/**
+ * Single-pass multi-keyword matcher (Aho--Corasick) for CLDC 1.1.
+ *
+ * CompressedTinyML.extractFeatures used to run well over a hundred
+ * String.indexOf scans per query, rescanning the same lowercased text for
+ * every keyword. This automaton is compiled once from the keyword table and
+ * then walks the query left-to-right exactly once, OR-ing together the
+ * feature bit masks of every keyword that ends at each position.
+ *
+ * Layout (all primitive arrays, no per-node objects — CLDC heaps are small
+ * and object headers cost ~8 bytes each on most KVMs):
+ *   childStart[s]..childStart[s+1]-1   index range of state s's goto edges
+ *   childChar[e], childNode[e]         edge label and target, sorted by label
+ *   fail[s]                            Aho--Corasick failure link
+ *   outMask[s]                         OR of masks of every keyword that is a
+ *                                      suffix of the path to s (failure chain
+ *                                      pre-folded, so a match is one OR)
+ *   rootGoto[c]                        direct ASCII table for the root state,
+ *                                      the hottest lookup in the scan
+ *
+ * Semantics:
+ *   - Case is folded per character with Character.toLowerCase, which is how
+ *     CLDC implements String.toLowerCase, so no lowercased copy of the query
+ *     is allocated.
+ *   - The scan starts as if one space preceded the text. A keyword with a
+ *     leading space (" hi ") therefore also matches at the start of the
+ *     query, mirroring the old startsWith("hi ") check. Keywords without a
+ *     leading space are unaffected.
+ *   - Keywords are expected to be lowercase ASCII; any non-ASCII character
+ *     in the query simply returns the automaton to the root.
+ */
+public class KeywordMatcher {
+
+    private static final int ASCII = 128;
+
+    private final int[]   childStart;
+    private final char[]  childChar;
+    private final short[] childNode;
+    private final short[] fail;
+    private final int[]   outMask;
+    private final short[] rootGoto = new short[ASCII];
+
+    /**
+     * Compile an automaton from keyword groups. Every keyword in
+     * groups[g] contributes groupMasks[g] when it occurs in the text;
+     * a keyword listed in several groups contributes the OR of their masks.
+     */
+    public KeywordMatcher(String[][] groups, int[] groupMasks) {
+        // ── Pass 1: build the trie with linked edge lists ────────────────────
+        int maxNodes = 1;
+        for (int g = 0; g < groups.length; g++) {
+            for (int k = 0; k < groups[g].length; k++) maxNodes += groups[g][k].length();
+        }
+        int[]  edgeHead = new int[maxNodes];
+        int[]  edgeNext = new int[maxNodes];
+        char[] edgeChr  = new char[maxNodes];
+        int[]  edgeTo   = new int[maxNodes];
+        int[]  mask     = new int[maxNodes];
+        for (int i = 0; i < maxNodes; i++) edgeHead[i] = -1;
+        int nodes = 1;
+        int edges = 0;
+
+        for (int g = 0; g < groups.length; g++) {
+            for (int k = 0; k < groups[g].length; k++) {
+                String kw = groups[g][k];
+                int s = 0;
+                for (int p = 0; p < kw.length(); p++) {
+                    char c = kw.charAt(p);
+                    int t = -1;
+                    for (int e = edgeHead[s]; e != -1; e = edgeNext[e]) {
+                        if (edgeChr[e] == c) { t = edgeTo[e]; break; }
+                    }
+                    if (t < 0) {
+                        t = nodes++;
+                        edgeChr[edges]  = c;
+                        edgeTo[edges]   = t;
+                        edgeNext[edges] = edgeHead[s];
+                        edgeHead[s]     = edges++;
+                    }
+                    s = t;
+                }
+                mask[s] |= groupMasks[g];
+            }
+        }
+
+        // ── Pass 2: pack edges contiguously, sorted by label ─────────────────
+        childStart = new int[nodes + 1];
+        childChar  = new char[edges];
+        childNode  = new short[edges];
+        int pos = 0;
+        for (int s = 0; s < nodes; s++) {
+            childStart[s] = pos;
+            int from = pos;
+            for (int e = edgeHead[s]; e != -1; e = edgeNext[e]) {
+                // Insertion sort by label; fan-out is at most ~27.
+                int j = pos++;
+                while (j > from && childChar[j - 1] > edgeChr[e]) {
+                    childChar[j] = childChar[j - 1];
+                    childNode[j] = childNode[j - 1];
+                    j--;
+                }
+                childChar[j] = edgeChr[e];
+                childNode[j] = (short) edgeTo[e];
+            }
+        }
+        childStart[nodes] = pos;
+
+        // ── Pass 3: BFS for failure links, folding outputs down the chain ────
+        fail    = new short[nodes];
+        outMask = new int[nodes];
+        int[] queue = new int[nodes];
+        int head = 0, tail = 0;
+        for (int e = childStart[0]; e < childStart[1]; e++) {
+            int t = childNode[e];
+            fail[t] = 0;
+            queue[tail++] = t;
+            if (childChar[e] < ASCII) rootGoto[childChar[e]] = (short) t;
+        }
+        outMask[0] = mask[0];
+        while (head < tail) {
+            int s = queue[head++];
+            outMask[s] = mask[s] | outMask[fail[s]];
+            for (int e = childStart[s]; e < childStart[s + 1]; e++) {
+                int t = childNode[e];
+                fail[t] = (short) next(fail[s], childChar[e]);
+                queue[tail++] = t;
+            }
+        }
+    }
+
+    /**
+     * Scan `text` once and return the OR of the masks of every keyword it
+     * contains (case-insensitively, see class comment).
+     */
+    public int match(String text) {
+        int s = next(0, ' '); // virtual leading word boundary
+        int found = outMask[s];
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            s = next(s, Character.toLowerCase(text.charAt(i)));
+            found |= outMask[s];
+        }
+        return found;
+    }
+
+    /** Aho--Corasick transition: follow failure links until an edge matches. */
+    private int next(int s, char c) {
+        if (c >= ASCII) return 0;
+        while (s != 0) {
+            int lo = childStart[s];
+            int hi = childStart[s + 1];
+            for (int e = lo; e < hi; e++) {
+                char ec = childChar[e];
+                if (ec == c) return childNode[e];
+                if (ec > c) break;
+            }
+            s = fail[s];
+        }
+        return rootGoto[c];
+    }
+}
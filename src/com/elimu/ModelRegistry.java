@@ -0,0 +1,221 @@
+package com.elimu;
+
+import java.io.*;
+import java.util.Vector;
+
+/**
+ * Named TinyML models, loaded on first use and evicted under memory pressure.
+ *
+ * The MIDlet classifies every query with one model, the "router" (the
+ * shipped model_data.bin: which subject, quiz, greeting...). A subject can
+ * also have its own topic model, e.g. "science" distinguishing plants,
+ * animals and habitats. Topic models are loaded only when a query is routed
+ * to their subject, so a science question never brings the math model onto
+ * the heap, and the router is the only model a session is sure to pay for.
+ *
+ * Catalogue:
+ *   router       /model_data.bin, pinned (never evicted), weights in
+ *                ElimuWeights as before;
+ *   JAD          Elimu-Models: "name=/resource.bin,name2=/other.bin" adds
+ *                models shipped in the JAR.
+ * Every model other than the router persists learned weights to its own
+ * ElimuWeights-<name> store.
+ *
+ * Eviction: at most `maxResident` unpinned models stay loaded, and before a
+ * load the least recently used ones are dropped while free heap is below
+ * `minFreeBytes`. An evicted model saves its weights first (a no-op unless
+ * it learned) and reloads from its container and store on next use. Callers
+ * still holding an evicted model can finish with it; it is collected after.
+ *
+ * Thread-safe: get() may load on the UI thread while the startup pipeline
+ * or a background save is running.
+ */
+final class ModelRegistry {
+
+    static final String ROUTER = "router";
+
+    private static final String ROUTER_RESOURCE = "/model_data.bin";
+    private static final String WEIGHTS_PREFIX  = "ElimuWeights-";
+    private static final int    MAX_NAME        = 16; // RMS names are <= 32 chars
+
+    private static final class Entry {
+        final String name;
+        String  resource;  // JAR path
+        final boolean pinned;
+        CompressedTinyML model; // null while not loaded
+        boolean failed;    // load failed this session; not retried
+        int     lastUse;
+
+        Entry(String name, boolean pinned) {
+            this.name   = name;
+            this.pinned = pinned;
+        }
+    }
+
+    private final Vector  entries = new Vector();
+    private final int     maxResident;
+    private final long    minFreeBytes;
+    private final boolean fixedPoint;
+    private int clock     = 0;
+    private int loads     = 0;
+    private int evictions = 0;
+
+    ModelRegistry(int maxResident, long minFreeBytes, boolean fixedPoint) {
+        this.maxResident  = maxResident;
+        this.minFreeBytes = minFreeBytes;
+        this.fixedPoint   = fixedPoint;
+        entry(ROUTER, true).resource = ROUTER_RESOURCE;
+    }
+
+    // ── Catalogue ─────────────────────────────────────────────────────────────
+    /**
+     * Add the JAD's Elimu-Models list (may be null). Malformed items are
+     * logged and skipped.
+     */
+    synchronized void configure(String models) {
+        if (models == null) return;
+        int start = 0;
+        while (start < models.length()) {
+            int end = models.indexOf(',', start);
+            if (end < 0) end = models.length();
+            String item = models.substring(start, end).trim();
+            start = end + 1;
+            if (item.length() == 0) continue;
+            int eq = item.indexOf('=');
+            String name = eq > 0 ? item.substring(0, eq).trim() : "";
+            if (!validName(name) || ROUTER.equals(name)) {
+                StringBuffer sb = new StringBuffer("[Models] ignored: ");
+                sb.append(item);
+                System.out.println(sb.toString());
+                continue;
+            }
+            entry(name, false).resource = item.substring(eq + 1).trim();
+        }
+    }
+
+    /** True if a model of this name is catalogued, loaded or not. */
+    synchronized boolean has(String name) {
+        return find(name) != null;
+    }
+
+    private Entry entry(String name, boolean pinned) {
+        Entry e = find(name);
+        if (e == null) {
+            e = new Entry(name, pinned);
+            entries.addElement(e);
+        }
+        return e;
+    }
+
+    private Entry find(String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = (Entry) entries.elementAt(i);
+            if (e.name.equals(name)) return e;
+        }
+        return null;
+    }
+
+    private static boolean validName(String name) {
+        if (name.length() == 0 || name.length() > MAX_NAME) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_')) return false;
+        }
+        return true;
+    }
+
+    // ── Lazy loading ──────────────────────────────────────────────────────────
+    /**
+     * The named model, loading it (and evicting others) if needed. Throws
+     * if the name is unknown or the model cannot be loaded; a failed load
+     * is not retried this session.
+     */
+    synchronized CompressedTinyML get(String name) throws IOException {
+        Entry e = find(name);
+        if (e == null) throw error("unknown model: ", name);
+        e.lastUse = ++clock;
+        if (e.model != null) return e.model;
+        if (e.failed) throw error("model unavailable: ", name);
+        try {
+            byte[] container = CompressedTinyML.readResource(e.resource);
+            if (!e.pinned) makeRoom(); // only once there is something to load
+            CompressedTinyML m = new CompressedTinyML(weightsStore(name));
+            m.setFixedPoint(fixedPoint);
+            m.loadModel(container);
+            e.model = m;
+            loads++;
+            return m;
+        } catch (IOException ex) {
+            e.failed = true;
+            throw ex;
+        }
+    }
+
+    /** Drop unpinned models until one more fits under both limits. */
+    private void makeRoom() {
+        Runtime rt = Runtime.getRuntime();
+        while (true) {
+            Entry lru = null;
+            int resident = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = (Entry) entries.elementAt(i);
+                if (e.pinned || e.model == null) continue;
+                resident++;
+                if (lru == null || e.lastUse < lru.lastUse) lru = e;
+            }
+            if (lru == null) return;
+            boolean full = resident >= maxResident;
+            if (!full && rt.freeMemory() >= minFreeBytes) return;
+            evict(lru);
+            if (!full) rt.gc(); // so the next check sees what the eviction freed
+        }
+    }
+
+    private void evict(Entry e) {
+        e.model.saveWeights(); // a no-op unless it learned since the last save
+        e.model = null;
+        evictions++;
+        StringBuffer sb = new StringBuffer("[Models] evicted ");
+        sb.append(e.name);
+        System.out.println(sb.toString());
+    }
+
+    /** Evict every unpinned model, e.g. when the MIDlet is paused. */
+    synchronized void trimMemory() {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = (Entry) entries.elementAt(i);
+            if (!e.pinned && e.model != null) evict(e);
+        }
+    }
+
+    private static String weightsStore(String name) {
+        if (ROUTER.equals(name)) return ModelTrainer.DEFAULT_STORE;
+        return storeName(WEIGHTS_PREFIX, name);
+    }
+
+    private static String storeName(String prefix, String name) {
+        StringBuffer sb = new StringBuffer(prefix);
+        sb.append(name);
+        return sb.toString();
+    }
+
+    private static IOException error(String what, String name) {
+        StringBuffer sb = new StringBuffer(what);
+        sb.append(name);
+        return new IOException(sb.toString());
+    }
+
+    /** e.g. "Models: 2/3 loaded, 4 loads, 2 evictions". */
+    synchronized String getReport() {
+        int resident = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (((Entry) entries.elementAt(i)).model != null) resident++;
+        }
+        StringBuffer sb = new StringBuffer("Models: ");
+        sb.append(resident); sb.append('/'); sb.append(entries.size());
+        sb.append(" loaded, ");
+        sb.append(loads);     sb.append(" loads, ");
+        sb.append(evictions); sb.append(" evictions");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,392 @@
+package com.elimu;
+
+import java.io.*;
+import javax.microedition.rms.*;
+
+/**
+ * Training side of CompressedTinyML: owns the working weights that learn(),
+ * RMS restore/save and FL pulls mutate, plus the CFP and FL anchors.
+ *
+ * Inference never reads these layers. After every change CompressedTinyML
+ * asks for snapshot(), an independent copy that is published to predict()
+ * and never written again. All calls come from CompressedTinyML's
+ * synchronized training methods, so this class needs no locking itself.
+ *
+ * The working layers start packed and are expanded to floats on the first
+ * change (see DenseLayer), so a session that never learns keeps the model
+ * at its packed size.
+ */
+final class ModelTrainer {
+
+    private static final float  LAMBDA    = 0.01f; // regularisation strength
+    static final String DEFAULT_STORE = "ElimuWeights"; // the shipped model's
+
+    private final String rmsStore;
+
+    private final DenseLayer hidden;
+    private final DenseLayer output;
+    private boolean expanded = false; // float weights allocated and authoritative
+
+    // Backward-pass scratch; training is serialised, so one set suffices.
+    private final float[] scratchDelta2; // dL/dz2
+    private final float[] scratchDelta1; // dL/dz1
+
+    // Mini-batch gradient sums and forward scratch, allocated on the first
+    // learnBatch() so sessions that never train replay don't pay for them.
+    // applyGradient() leaves the sums zeroed for the next batch.
+    private float[] gW1, gB1, gW2, gB2;
+    private float[] z1, a1, z2, probs;
+
+    ModelTrainer(DenseLayer hidden, DenseLayer output, String rmsStore) {
+        this.hidden = hidden;
+        this.output = output;
+        this.rmsStore = rmsStore;
+        scratchDelta2 = new float[output.out];
+        scratchDelta1 = new float[hidden.out];
+    }
+
+    int paramCount() {
+        return hidden.paramCount() + output.paramCount();
+    }
+
+    boolean isExpanded() {
+        return expanded;
+    }
+
+    /** Immutable copy of the current weights for the predict path. */
+    CompressedTinyML.Snapshot snapshot(boolean fixedPoint) {
+        return new CompressedTinyML.Snapshot(
+                hidden.snapshot(fixedPoint), output.snapshot(fixedPoint), fixedPoint);
+    }
+
+    // ── On-device online learning ─────────────────────────────────────────────
+    /**
+     * One SGD step from the forward state recorded in `p`. Gradients are
+     * taken against the current working weights, which may have moved on
+     * since `p` was predicted (a later correction or an FL pull); the
+     * step is still a descent direction for that query.
+     */
+    void learn(Prediction p, int correctIntent, float lr) {
+        expand();
+        p.syncFloatCache();
+        // ── Output-layer delta ────────────────────────────────────────────────
+        float[] delta2 = scratchDelta2;
+        for (int i = 0; i < delta2.length; i++) {
+            delta2[i] = p.probs[i] - (i == correctIntent ? 1.0f : 0.0f);
+        }
+        output.update(p.a1, delta2, lr, LAMBDA);
+
+        // ── Hidden-layer delta (backprop through W2 then ReLU) ────────────────
+        float[] delta1 = scratchDelta1;
+        output.backward(delta2, delta1);
+        for (int j = 0; j < delta1.length; j++) {
+            // ReLU derivative: pass gradient only where pre-activation was positive
+            if (!(p.z1[j] > 0)) delta1[j] = 0.0f;
+        }
+        hidden.updateActive(p.active, p.activeCount, delta1, lr, LAMBDA);
+    }
+
+    /**
+     * One mini-batch step over samples [from, from + n) of a replay
+     * selection. Each sample is re-run through the current working weights
+     * (the weights have moved since it was first predicted), its
+     * cross-entropy gradient is scaled by its weight and summed, and both
+     * layers take a single step with the sum plus the CFP anchor pull.
+     * Summing rather than averaging keeps lr on the scale of learn().
+     */
+    void learnBatch(short[][] active, byte[] labels, float[] weights,
+                    int from, int n, float lr) {
+        expand();
+        if (gW1 == null) {
+            gW1 = new float[hidden.in * hidden.out]; gB1 = new float[hidden.out];
+            gW2 = new float[output.in * output.out]; gB2 = new float[output.out];
+            z1 = new float[hidden.out]; a1 = new float[hidden.out];
+            z2 = new float[output.out]; probs = new float[output.out];
+        }
+        float[] delta2 = scratchDelta2;
+        float[] delta1 = scratchDelta1;
+        for (int s = from; s < from + n; s++) {
+            short[] act = active[s];
+            hidden.settleActive(act, act.length);
+            hidden.forwardActive(act, act.length, z1);
+            for (int j = 0; j < z1.length; j++) a1[j] = z1[j] > 0 ? z1[j] : 0.0f;
+            output.forward(a1, z2);
+            CompressedTinyML.softmax(z2, 0, probs, 0, probs.length);
+
+            float w = weights[s];
+            for (int i = 0; i < delta2.length; i++) {
+                delta2[i] = w * (probs[i] - (i == labels[s] ? 1.0f : 0.0f));
+            }
+            output.accumulate(a1, delta2, gW2, gB2);
+            output.backward(delta2, delta1);
+            for (int j = 0; j < delta1.length; j++) {
+                if (!(z1[j] > 0)) delta1[j] = 0.0f;
+            }
+            hidden.accumulateActive(act, act.length, delta1, gW1, gB1);
+        }
+        output.applyGradient(gW2, gB2, lr, LAMBDA);
+        hidden.applyGradient(gW1, gB1, lr, LAMBDA);
+    }
+
+    /** Heap held by the CFP and FL anchors of both layers right now; 0 while packed. */
+    int anchorBytes() {
+        return expanded ? hidden.anchorBytes() + output.anchorBytes() : 0;
+    }
+
+    /** Lazy (default) or dense anchor pull on the hidden layer; for the lazy-pull benchmark and check. */
+    void setLazyDecay(boolean on) {
+        hidden.setLazyDecay(on);
+    }
+
+    // ── Weight persistence (RecordStore) ──────────────────────────────────────
+    // The weights store (ElimuWeights for the shipped model, one per model
+    // otherwise; see ModelRegistry) holds a base checkpoint followed by
+    // journal records:
+    //   base:    every parameter as a float, canonical order W1, W2, b1, b2
+    //            (4 bytes per parameter: 1712 bytes for the shipped 26-12-8
+    //            model, < 8 KB minimum);
+    //   journal: u8 JOURNAL_FORMAT, a bitmap of the canonical parameters
+    //            that changed since the previous record, then per set bit an
+    //            i16 step count from the previous value (see DenseLayer) or
+    //            JOURNAL_RAW plus the float.
+    // A correction moves a few W1 columns, W2 and the biases, so a journal
+    // record is a few hundred bytes instead of the full image. The base is
+    // the newest record of exactly base size (a journal is always written
+    // smaller); journal records are the ones after it, in record-ID order.
+    // Compaction adds a fresh base and then deletes every other record, so
+    // an interrupted compaction still loads the newest base.
+
+    private static final int JOURNAL_FORMAT = 1;
+    private static final int MAX_JOURNAL    = 8; // records before compaction
+
+    // Journal records after the base on RMS; -1 = unknown, next save is a base.
+    private int journalCount = -1;
+    private int journalBytes = 0;
+
+    /**
+     * Persist current weights so they survive app restarts: a journal
+     * record with the parameters changed since the last save, or a full
+     * base checkpoint when `full` is set, no base exists yet, or the journal
+     * is due for compaction.
+     */
+    void saveWeights(boolean full) {
+        if (!expanded) return; // still the factory defaults shipped in the JAR
+        hidden.snapToJournalGrid();
+        output.snapToJournalGrid();
+        RecordStore rs = null;
+        try {
+            int baseSize = paramCount() * 4;
+            byte[] data = null;
+            if (!full && journalCount >= 0 && journalCount < MAX_JOURNAL) {
+                data = encodeJournal();
+                if (data == null) return; // nothing changed since the last save
+                if (journalBytes + data.length >= baseSize) data = null; // compact
+            }
+            if (data == null) data = encodeBase();
+
+            rs = RecordStore.openRecordStore(rmsStore, true);
+            int id = rs.addRecord(data, 0, data.length);
+            StringBuffer sb = new StringBuffer("Weights saved to RMS (");
+            if (data.length == baseSize) {
+                for (int r = rs.getNextRecordID() - 1; r >= 1; r--) {
+                    if (r == id) continue;
+                    try { rs.deleteRecord(r); } catch (InvalidRecordIDException gone) {}
+                }
+                journalCount = 0;
+                journalBytes = 0;
+                sb.append("checkpoint, ");
+            } else {
+                journalCount++;
+                journalBytes += data.length;
+                sb.append("journal, ");
+            }
+            sb.append(data.length); sb.append(" bytes).");
+            copyToAnchor(); // advance anchor so the next correction protects this one
+            System.out.println(sb.toString());
+        } catch (Exception e) {
+            journalCount = -1; // RMS may no longer match the anchor: next save is a base
+            StringBuffer se = new StringBuffer("saveWeights failed: ");
+            se.append(e.getMessage());
+            System.out.println(se.toString());
+        } finally {
+            if (rs != null) {
+                try { rs.closeRecordStore(); } catch (Exception ignore) {}
+            }
+        }
+    }
+
+    private byte[] encodeBase() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(paramCount() * 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        hidden.writeWeights(dos);
+        output.writeWeights(dos);
+        hidden.writeBiases(dos);
+        output.writeBiases(dos);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /** Journal record against the anchor, or null if nothing changed. */
+    private byte[] encodeJournal() throws IOException {
+        byte[] bits = new byte[(paramCount() + 7) / 8];
+        int pos = hidden.markChangedWeights(bits, 0);
+        pos = output.markChangedWeights(bits, pos);
+        pos = hidden.markChangedBiases(bits, pos);
+        output.markChangedBiases(bits, pos);
+        boolean any = false;
+        for (int i = 0; i < bits.length && !any; i++) any = bits[i] != 0;
+        if (!any) return null;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(JOURNAL_FORMAT);
+        dos.write(bits);
+        hidden.writeChangedWeights(dos);
+        output.writeChangedWeights(dos);
+        hidden.writeChangedBiases(dos);
+        output.writeChangedBiases(dos);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /** Replay one journal record onto the anchored weights. */
+    private void applyJournal(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (dis.readUnsignedByte() != JOURNAL_FORMAT) throw new IOException("journal format");
+        byte[] bits = new byte[(paramCount() + 7) / 8];
+        dis.readFully(bits);
+        int pos = hidden.readChangedWeights(dis, bits, 0);
+        pos = output.readChangedWeights(dis, bits, pos);
+        pos = hidden.readChangedBiases(dis, bits, pos);
+        output.readChangedBiases(dis, bits, pos);
+    }
+
+    /**
+     * Load persisted weights from RMS (base, then journal); silently keeps
+     * current weights if not found. A store written for a different model
+     * shape (the JAR's model was swapped since) is ignored.
+     */
+    void loadSavedWeights() {
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(rmsStore, false);
+            int next = rs.getNextRecordID();
+            int baseId = -1;
+            for (int r = next - 1; r >= 1 && baseId < 0; r--) {
+                try {
+                    if (rs.getRecordSize(r) == paramCount() * 4) baseId = r;
+                } catch (InvalidRecordIDException gone) {}
+            }
+            if (baseId < 0) {
+                if (rs.getNumRecords() > 0) {
+                    System.out.println("Saved weights are for another model shape — ignored.");
+                }
+                return;
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(rs.getRecord(baseId)));
+            expand();
+            hidden.readWeights(dis);
+            output.readWeights(dis);
+            hidden.readBiases(dis);
+            output.readBiases(dis);
+            copyToAnchor(); // anchor = what was persisted, so future corrections don't forget it
+            journalCount = 0;
+            journalBytes = 0;
+            for (int r = baseId + 1; r < next; r++) {
+                byte[] data;
+                try {
+                    data = rs.getRecord(r);
+                } catch (InvalidRecordIDException gone) {
+                    continue;
+                }
+                try {
+                    applyJournal(data);
+                } catch (IOException bad) {
+                    // Keep what replayed so far; the next save compacts past it.
+                    hidden.revertToAnchor();
+                    output.revertToAnchor();
+                    journalCount = MAX_JOURNAL;
+                    System.out.println("Weight journal damaged — replay stopped.");
+                    break;
+                }
+                copyToAnchor();
+                journalCount++;
+                journalBytes += data.length;
+            }
+            StringBuffer sb = new StringBuffer("Loaded saved weights from RMS (");
+            sb.append(journalCount); sb.append(" journal records).");
+            System.out.println(sb.toString());
+        } catch (RecordStoreNotFoundException e) {
+            System.out.println("No saved weights — using factory defaults.");
+        } catch (Exception e) {
+            StringBuffer le = new StringBuffer("loadSavedWeights error: ");
+            le.append(e.getMessage());
+            System.out.println(le.toString());
+        } finally {
+            if (rs != null) {
+                try { rs.closeRecordStore(); } catch (Exception ignore) {}
+            }
+        }
+    }
+
+    /** Overwrite current weights with the original factory defaults and clear RMS. */
+    void resetWeights() {
+        if (expanded) {
+            hidden.decompress();
+            output.decompress();
+        }
+        try {
+            RecordStore.deleteRecordStore(rmsStore); // base and journal
+        } catch (Exception ignore) {
+        }
+        journalCount = -1;
+        journalBytes = 0;
+        System.out.println("Weights reset to factory defaults.");
+    }
+
+    // ── Packed → float working copy ───────────────────────────────────────────
+    /**
+     * Allocate the float weights, CFP anchor and FL anchor of both layers,
+     * all initialised from the packed factory table. No-op once expanded.
+     */
+    void expand() {
+        if (expanded) return;
+        hidden.expand();
+        output.expand(); // the packed model was the FL anchor until now
+        expanded = true;
+    }
+
+    /** Snapshot current weights as the new stable baseline for L2 regularisation. */
+    private void copyToAnchor() {
+        hidden.copyToAnchor();
+        output.copyToAnchor();
+    }
+
+    // ── Federated learning hooks ──────────────────────────────────────────────
+    /** Current weights minus FL anchor, canonical order w1, w2, b1, b2. */
+    float[] computeDeltaFromFLAnchor() {
+        float[] delta = new float[paramCount()];
+        if (!expanded) return delta; // still exactly the anchored packed model
+        int idx = hidden.putWeightDelta(delta, 0);
+        idx = output.putWeightDelta(delta, idx);
+        idx = hidden.putBiasDelta(delta, idx);
+        output.putBiasDelta(delta, idx);
+        return delta;
+    }
+
+    /** Replace current weights and both anchors with a pulled global. */
+    void applyGlobalUpdate(float[] newGlobal) {
+        expand();
+        int idx = hidden.setWeights(newGlobal, 0);
+        idx = output.setWeights(newGlobal, idx);
+        idx = hidden.setBiases(newGlobal, idx);
+        output.setBiases(newGlobal, idx);
+        copyToAnchor();
+    }
+
+    void initFLAnchorFromCurrent() {
+        if (!expanded) return; // packed: the factory table is the anchor
+        hidden.initFLAnchor();
+        output.initFLAnchor();
+    }
+}
@@ -0,0 +1,130 @@
+package com.elimu;
+
+/**
+ * Result of one CompressedTinyML.predict() call: the intent, its confidence
+ * and the forward-pass state learn() needs to backpropagate that query.
+ *
+ * The model keeps no per-query state of its own, so a Prediction is owned by
+ * whoever asked: hand the same object back to predict() to classify again
+ * without allocating, or keep it (e.g. across a cloud round trip) and pass it
+ * to learn() later. Not thread-safe; one thread uses it at a time.
+ *
+ * Obtain one from CompressedTinyML.newPrediction(), or pass null to
+ * predict(). A Prediction sized for another model shape is replaced.
+ */
+public final class Prediction {
+
+    // ── Forward-pass state (read by CompressedTinyML / ModelTrainer) ──────────
+    final byte[]  features;   // binary features
+    final short[] active;     // indices of the 1s, ascending
+    int           activeCount;
+    final float[] z1;         // pre-ReLU hidden
+    final float[] a1;         // post-ReLU hidden
+    final float[] z2;         // output logits
+    final float[] probs;      // softmax probs
+
+    // Fixed-point twins; probs/z1/a1 are refreshed from these on demand.
+    final int[] qZ1;
+    final int[] qA1;
+    final int[] qZ2;
+    boolean floatStale = false;
+
+    byte  intent = 0;
+    float confidence = 0.0f;
+    int   confidenceQ16 = 0;
+    boolean fixedPoint = false;
+
+    Prediction(int inputs, int hidden, int outputs) {
+        features = new byte[inputs];
+        active   = new short[inputs];
+        z1       = new float[hidden];
+        a1       = new float[hidden];
+        z2       = new float[outputs];
+        probs    = new float[outputs];
+        qZ1      = new int[hidden];
+        qA1      = new int[hidden];
+        qZ2      = new int[outputs];
+    }
+
+    boolean fits(int inputs, int hidden, int outputs) {
+        return features.length == inputs && z1.length == hidden && probs.length == outputs;
+    }
+
+    public byte getIntent() {
+        return intent;
+    }
+
+    /** Softmax probability of the predicted intent. */
+    public float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Routing decision: should this query be deferred to the cloud generative
+     * tier instead of answered from on-device templates?
+     */
+    public boolean shouldFallbackToCloud() {
+        if (fixedPoint) return confidenceQ16 < CompressedTinyML.CONFIDENCE_THRESHOLD_Q16;
+        return confidence < CompressedTinyML.CONFIDENCE_THRESHOLD;
+    }
+
+    /**
+     * Gini impurity as a model-uncertainty measure.
+     * Range: 0 (perfectly certain) → (outputs-1)/outputs (maximally uncertain).
+     * For 8 classes the theoretical maximum is 0.875.
+     *
+     * PhD rationale: uncertainty drives the cloud-fallback decision.
+     * Gini impurity is preferred over entropy here because it requires no
+     * logarithm computation, which has no efficient closed form in CLDC 1.1.
+     */
+    public float getUncertainty() {
+        syncFloatCache();
+        float sumSq = 0.0f;
+        for (int i = 0; i < probs.length; i++) {
+            sumSq += probs[i] * probs[i];
+        }
+        return 1.0f - sumSq;
+    }
+
+    /**
+     * Returns the indices of the top-n highest-probability intents in
+     * descending order. Used by the MIDlet to surface a secondary suggestion
+     * when the top-1 confidence is borderline.
+     */
+    public byte[] getTopIntents(int n) {
+        syncFloatCache();
+        int outputs = probs.length;
+        byte[] rank = new byte[outputs];
+        for (byte i = 0; i < outputs; i++) rank[i] = i;
+        // Insertion sort (8 elements in the shipped model — negligible cost)
+        for (int i = 1; i < outputs; i++) {
+            byte key = rank[i];
+            int  j   = i - 1;
+            while (j >= 0 && probs[rank[j]] < probs[key]) {
+                rank[j + 1] = rank[j];
+                j--;
+            }
+            rank[j + 1] = key;
+        }
+        if (n > outputs) n = outputs;
+        byte[] result = new byte[n];
+        System.arraycopy(rank, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * After a fixed-point predict(), learn() and the uncertainty helpers
+     * still need the float forward state. Converting it on demand is
+     * cheaper than keeping it current on every query.
+     */
+    void syncFloatCache() {
+        if (!floatStale) return;
+        float inv = 1.0f / (1 << 16);
+        for (int i = 0; i < z1.length; i++) {
+            z1[i] = qZ1[i] * inv;
+            a1[i] = qA1[i] * inv;
+        }
+        for (int i = 0; i < probs.length; i++) probs[i] = qZ2[i] * inv;
+        floatStale = false;
+    }
+}
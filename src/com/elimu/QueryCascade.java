@@ -0,0 +1,81 @@
+package com.elimu;
+
+/**
+ * Tiered query router: cheap deterministic stages first, costlier ones only
+ * for what the earlier stages could not settle.
+ *
+ * The MIDlet's cascade is keyword rules, then the TinyML network, then the
+ * cloud: a question with an unambiguous math or science keyword never pays
+ * for a forward pass, and only what the network is unsure about leaves the
+ * handset. Stages are pluggable — anything implementing Stage — and the
+ * last one should always resolve.
+ *
+ * Every stage call is timed, and EvaluationLogger counts per stage how
+ * often it ran, how often it resolved and its total time, so the share of
+ * queries each tier answers and the CPU its early exits save can be read
+ * off the progress report. Stage index i is logged under index i, so keep
+ * the order stable across releases.
+ */
+final class QueryCascade {
+
+    /** One tier of the cascade. */
+    interface Stage {
+        /**
+         * Try to settle `query`. May fill `r` either way (a later stage
+         * sees what an earlier one found); returns true to stop the cascade.
+         */
+        boolean resolve(String query, Route r);
+    }
+
+    /** Outcome of route(); reused across queries by its owner. */
+    static final class Route {
+        int        stage;       // index of the stage that resolved
+        byte       intent;
+        float      confidence;
+        Prediction prediction;  // network output if the network ran, else null
+        boolean    keptLocal;   // local only thanks to the adaptive threshold
+
+        void clear() {
+            stage = -1;
+            intent = 0;
+            confidence = 0.0f;
+            prediction = null;
+            keptLocal = false;
+        }
+    }
+
+    private final Stage[] stages;
+
+    QueryCascade(Stage[] stages) {
+        this.stages = stages;
+    }
+
+    /** Run the stages in order until one resolves; returns its index. */
+    int route(String query, Route r) {
+        return run(query, r, true);
+    }
+
+    /**
+     * route() without the per-stage accounting, for speculative callers
+     * (type-ahead) whose text may never be submitted.
+     */
+    int peek(String query, Route r) {
+        return run(query, r, false);
+    }
+
+    private int run(String query, Route r, boolean record) {
+        r.clear();
+        for (int s = 0; s < stages.length; s++) {
+            long t0 = System.currentTimeMillis();
+            boolean done = stages[s].resolve(query, r);
+            if (record) {
+                EvaluationLogger.recordCascadeStage(s, done, System.currentTimeMillis() - t0);
+            }
+            if (done) {
+                r.stage = s;
+                return s;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,245 @@
+package com.elimu;
+
+import java.io.*;
+import java.util.Vector;
+import javax.microedition.rms.*;
+
+/**
+ * Questions that could not reach the cloud, and the answers that came back
+ * for them later.
+ *
+ * A cloud-bound question used to be lost when all of SMSManager's attempts
+ * failed. Now the MIDlet puts it in the outbox, and the next time any
+ * connection works (a cloud answer, an FL upload or pull, or the launch
+ * try) SMSManager.flushQueuedQuestions() sends the waiting questions
+ * MAX_BATCH to a POST on the same network worker as FL traffic. Answers go
+ * to the inbox, which the learner opens from the main menu; an answer
+ * leaves the inbox once opened.
+ *
+ * Bounds: a question already waiting, or already answered in the inbox,
+ * is not queued twice. At most MAX_PENDING questions wait; past that
+ * enqueue() refuses, and the learner is told the question was not kept.
+ * At most MAX_INBOX answers wait, the oldest dropped to make room.
+ *
+ * RMS: one record per question in OUTBOX_STORE:
+ *   u8 format, i64 queued at (ms since the epoch), UTF question, UTF context,
+ * and one per answer in INBOX_STORE:
+ *   u8 format, i64 answered at, UTF question, UTF answer.
+ * Ascending record id is oldest first in both.
+ *
+ * Thread-safe: the UI thread enqueues and reads the inbox, the network
+ * worker takes questions and files answers.
+ */
+final class QuestionQueue {
+
+    private static final String OUTBOX_STORE = "ElimuOutbox";
+    private static final String INBOX_STORE  = "ElimuInbox";
+    private static final int    FORMAT       = 1;
+
+    static final int MAX_BATCH   = 4;  // questions per POST; the server asks the LLM once each
+    static final int MAX_PENDING = 16;
+    static final int MAX_INBOX   = 16;
+
+    /** A waiting question, or an answered one. */
+    static final class Item {
+        final String question;
+        final String text;      // outbox: context sent with it; inbox: the answer
+        final long   at;        // queued at / answered at
+        int          recordId;  // 0 if RMS refused it (kept this session only)
+
+        Item(String question, String text, long at) {
+            this.question = question;
+            this.text     = text;
+            this.at       = at;
+        }
+    }
+
+    private final Vector outbox = new Vector(); // of Item, oldest first
+    private final Vector inbox  = new Vector(); // of Item, oldest first
+
+    // ── Outbox ────────────────────────────────────────────────────────────────
+    /**
+     * Keep `question`, asked with conversation `context`, until it can be
+     * sent. True if it is waiting (now or already) or already answered;
+     * false if the outbox is full.
+     */
+    synchronized boolean enqueue(String question, String context) {
+        if (indexOf(outbox, question) >= 0 || indexOf(inbox, question) >= 0) return true;
+        if (outbox.size() >= MAX_PENDING) return false;
+        Item it = new Item(question, context, System.currentTimeMillis());
+        it.recordId = add(OUTBOX_STORE, it);
+        outbox.addElement(it);
+        return true;
+    }
+
+    synchronized boolean hasPending() {
+        return !outbox.isEmpty();
+    }
+
+    synchronized int pendingCount() {
+        return outbox.size();
+    }
+
+    /**
+     * Up to `max` waiting questions, oldest first after skipping the
+     * `skip` oldest; they stay queued.
+     */
+    synchronized Item[] oldestPending(int skip, int max) {
+        int n = Math.max(0, Math.min(max, outbox.size() - skip));
+        Item[] out = new Item[n];
+        for (int i = 0; i < n; i++) out[i] = (Item) outbox.elementAt(skip + i);
+        return out;
+    }
+
+    /** The cloud answered waiting question `q`: move it to the inbox. */
+    synchronized void answered(Item q, String answer) {
+        if (!outbox.removeElement(q)) return; // already filed
+        delete(OUTBOX_STORE, q.recordId);
+        while (inbox.size() >= MAX_INBOX) {
+            Item old = (Item) inbox.elementAt(0);
+            inbox.removeElementAt(0);
+            delete(INBOX_STORE, old.recordId);
+        }
+        Item a = new Item(q.question, answer, System.currentTimeMillis());
+        a.recordId = add(INBOX_STORE, a);
+        inbox.addElement(a);
+    }
+
+    /** The server refused waiting question `q` for good: forget it. */
+    synchronized void drop(Item q) {
+        if (outbox.removeElement(q)) delete(OUTBOX_STORE, q.recordId);
+    }
+
+    // ── Inbox ─────────────────────────────────────────────────────────────────
+    synchronized int inboxCount() {
+        return inbox.size();
+    }
+
+    /** The question of inbox entry `i`, oldest first. */
+    synchronized String inboxQuestion(int i) {
+        return ((Item) inbox.elementAt(i)).question;
+    }
+
+    /** The answer of inbox entry `i`, which leaves the inbox. */
+    synchronized String openInbox(int i) {
+        Item a = (Item) inbox.elementAt(i);
+        inbox.removeElementAt(i);
+        delete(INBOX_STORE, a.recordId);
+        return a.text;
+    }
+
+    private static int indexOf(Vector items, String question) {
+        for (int i = 0; i < items.size(); i++) {
+            if (((Item) items.elementAt(i)).question.equals(question)) return i;
+        }
+        return -1;
+    }
+
+    // ── RMS persistence ───────────────────────────────────────────────────────
+    /** Store `it` in `store`; its record id, or 0 if RMS refused. */
+    private static int add(String store, Item it) {
+        RecordStore rs = null;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeByte(FORMAT);
+            dos.writeLong(it.at);
+            dos.writeUTF(it.question);
+            dos.writeUTF(it.text);
+            dos.flush();
+            byte[] record = baos.toByteArray();
+            rs = RecordStore.openRecordStore(store, true);
+            return rs.addRecord(record, 0, record.length);
+        } catch (Exception e) {
+            log("add: ", e.getMessage()); // kept for this session only
+            return 0;
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    private static void delete(String store, int recordId) {
+        if (recordId == 0) return;
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(store, false);
+            rs.deleteRecord(recordId);
+        } catch (RecordStoreException e) {
+            log("delete: ", e.getMessage());
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    /** Restore both queues saved by earlier sessions. Call once at startup. */
+    synchronized void load() {
+        load(OUTBOX_STORE, outbox, MAX_PENDING);
+        load(INBOX_STORE, inbox, MAX_INBOX);
+    }
+
+    /**
+     * Read `store` into `items`, oldest first, dropping unreadable records
+     * and, oldest first, any past `max`.
+     */
+    private static void load(String store, Vector items, int max) {
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(store, false);
+            int n = rs.getNumRecords();
+            int[] ids = new int[n];
+            RecordEnumeration en = rs.enumerateRecords(null, null, false);
+            n = 0;
+            while (en.hasNextElement() && n < ids.length) ids[n++] = en.nextRecordId();
+            en.destroy();
+            // Record ids grow with each add: ascending id is oldest first.
+            for (int i = 1; i < n; i++) {
+                int id = ids[i], j = i - 1;
+                while (j >= 0 && ids[j] > id) { ids[j + 1] = ids[j]; j--; }
+                ids[j + 1] = id;
+            }
+            for (int i = 0; i < n; i++) {
+                Item it = null;
+                if (i >= n - max) {
+                    try {
+                        DataInputStream dis = new DataInputStream(
+                                new ByteArrayInputStream(rs.getRecord(ids[i])));
+                        if (dis.readUnsignedByte() == FORMAT) {
+                            long at = dis.readLong();
+                            String q = dis.readUTF();
+                            it = new Item(q, dis.readUTF(), at);
+                        }
+                    } catch (IOException e) {
+                        // unreadable: dropped below
+                    }
+                }
+                if (it == null) {
+                    rs.deleteRecord(ids[i]);
+                    continue;
+                }
+                it.recordId = ids[i];
+                items.addElement(it);
+            }
+        } catch (RecordStoreNotFoundException e) {
+            // First install — nothing queued yet
+        } catch (Exception e) {
+            log("load: ", e.getMessage());
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    private static void log(String what, String detail) {
+        StringBuffer sb = new StringBuffer("[Outbox] ");
+        sb.append(what);
+        sb.append(detail);
+        System.out.println(sb.toString());
+    }
+
+    /** e.g. "Outbox: 2 questions waiting, 3 answers in the inbox". */
+    synchronized String getReport() {
+        StringBuffer sb = new StringBuffer("Outbox: ");
+        sb.append(outbox.size()); sb.append(" questions waiting, ");
+        sb.append(inbox.size());  sb.append(" answers in the inbox");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,297 @@
+package com.elimu;
+
+import java.io.*;
+import javax.microedition.rms.*;
+
+/**
+ * Replay buffer of cloud-arbitrated corrections for mini-batch learning.
+ *
+ * Each correction is the query's active-feature indices, the label the
+ * cloud assigned and a sample weight (1 - on-device confidence, so queries
+ * the model was already sure about count for little). Instead of one SGD
+ * step and one 1.7 KB saveWeights() per correction, corrections are
+ * appended here (a few bytes each, persisted so they survive a kill) and
+ * CompressedTinyML.trainReplay() later turns them into a few mini-batch
+ * steps, one snapshot publish and one weight save.
+ *
+ * The buffer is a ring of the most recent `capacity` corrections. Entries
+ * added since the last training round are pending; a round trains every
+ * pending entry plus as many older ones drawn at random (rehearsal, which
+ * together with the CFP anchor counters forgetting of earlier corrections).
+ *
+ * RMS (RMS_STORE): record 1 is the header, u8 format version and i32 the
+ * record id of the newest trained entry; every other record is one entry,
+ * u8 label, u8 weight * 255, u16 n, n × u16 index. Record ids grow with
+ * each add, so ascending id is oldest first and the entries after the
+ * newest trained one are pending. add() appends one record (and deletes
+ * the one it pushed out of the ring); a training round rewrites only the
+ * header. Format 1 kept the whole ring in one record, rewritten on every
+ * add; load() converts it.
+ *
+ * Thread-safe: corrections are added on the storage worker while a
+ * training round may be selecting on another thread. Entry index arrays
+ * are never modified once added.
+ */
+public class ReplayBuffer {
+
+    private static final String RMS_STORE = "ElimuReplay";
+    private static final int    FORMAT    = 2;
+    private static final int    FORMAT_V1 = 1; // whole ring in one record
+    private static final int    HEADER_ID = 1; // first record of a new store
+
+    private final String    store;   // null: in-memory only (benchmarks)
+    private final short[][] active;  // ring of entries
+    private final byte[]    label;
+    private final float[]   weight;
+    private final int[]     recordId; // of each entry; 0 if RMS refused it
+    private int trainedThrough = 0;  // record id of the newest trained entry
+    private int head    = 0;         // next slot to write
+    private int size    = 0;
+    private int pending = 0;         // newest `pending` entries not yet trained
+    private int lastSelectedPending = 0;
+    private int seed    = 0x2545F491;
+
+    /** Persistent buffer backed by RMS; call load() before use. */
+    public ReplayBuffer(int capacity) {
+        this(capacity, RMS_STORE);
+    }
+
+    ReplayBuffer(int capacity, String store) {
+        if (capacity > 255) capacity = 255; // counts are stored as u8
+        this.store = store;
+        active = new short[capacity][];
+        label  = new byte[capacity];
+        weight = new float[capacity];
+        recordId = new int[capacity];
+    }
+
+    public int capacity() { return active.length; }
+
+    public synchronized int size() { return size; }
+
+    public synchronized int pendingCount() { return pending; }
+
+    /**
+     * Record a correction for the query `p` was predicted from. `w` is
+     * clamped to [0, 1] and stored at 1/255 resolution.
+     */
+    public void add(Prediction p, int correctLabel, float w) {
+        short[] idx = new short[p.activeCount];
+        System.arraycopy(p.active, 0, idx, 0, p.activeCount);
+        add(idx, correctLabel, w);
+    }
+
+    synchronized void add(short[] idx, int correctLabel, float w) {
+        if (w < 0.0f) w = 0.0f;
+        if (w > 1.0f) w = 1.0f;
+        int evicted = size == active.length ? recordId[head] : 0;
+        active[head] = idx;
+        label[head]  = (byte) correctLabel;
+        weight[head] = ((int) (w * 255.0f + 0.5f)) / 255.0f;
+        recordId[head] = append(head, evicted);
+        head = (head + 1) % active.length;
+        if (size < active.length) size++;
+        if (pending < active.length) pending++;
+    }
+
+    /**
+     * Fill the arrays with this round's training set: every pending entry,
+     * then up to as many older entries drawn at random. Arrays must hold
+     * 2 × capacity entries. Returns the number selected; call
+     * markTrained() once they have been trained.
+     */
+    synchronized int select(short[][] outActive, byte[] outLabel, float[] outWeight) {
+        int n = 0;
+        int cap = active.length;
+        for (int k = 0; k < pending; k++) {
+            int slot = (head - 1 - k + 2 * cap) % cap;
+            outActive[n] = active[slot]; outLabel[n] = label[slot]; outWeight[n] = weight[slot];
+            n++;
+        }
+        int older = size - pending;
+        for (int k = 0; k < pending && older > 0; k++) {
+            seed = seed * 1664525 + 1013904223;
+            int back = pending + ((seed >>> 8) & 0x7fffff) % older;
+            int slot = (head - 1 - back + 2 * cap) % cap;
+            outActive[n] = active[slot]; outLabel[n] = label[slot]; outWeight[n] = weight[slot];
+            n++;
+        }
+        lastSelectedPending = pending;
+        return n;
+    }
+
+    /** Mark the pending entries of the last select() as trained and persist. */
+    synchronized void markTrained() {
+        pending -= lastSelectedPending; // corrections added meanwhile stay pending
+        if (pending < 0) pending = 0;
+        lastSelectedPending = 0;
+        if (size > pending) {
+            int newest = recordId[(head - 1 - pending + 2 * active.length) % active.length];
+            if (newest != 0) trainedThrough = newest; // 0: never stored, nothing to mark
+        }
+        writeHeader();
+    }
+
+    // ── RMS persistence ───────────────────────────────────────────────────────
+    /** Store the entry in `slot`, deleting record `evicted` if not 0; its record id, or 0. */
+    private int append(int slot, int evicted) {
+        if (store == null) return 0;
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(store, true);
+            if (rs.getNumRecords() == 0) writeHeader(rs);
+            if (evicted != 0) rs.deleteRecord(evicted);
+            byte[] data = encode(slot);
+            return rs.addRecord(data, 0, data.length);
+        } catch (Exception e) {
+            log("append: ", e);
+            return 0; // kept for this session only
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    private byte[] encode(int slot) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(label[slot]);
+        dos.writeByte((int) (weight[slot] * 255.0f + 0.5f));
+        dos.writeShort(active[slot].length);
+        for (int j = 0; j < active[slot].length; j++) dos.writeShort(active[slot][j]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private void writeHeader() {
+        if (store == null) return;
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(store, true);
+            writeHeader(rs);
+        } catch (Exception e) {
+            log("header: ", e);
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    /** Write the header as record HEADER_ID; an empty store gets it first. */
+    private void writeHeader(RecordStore rs) throws IOException, RecordStoreException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(FORMAT);
+        dos.writeInt(trainedThrough);
+        dos.flush();
+        byte[] data = baos.toByteArray();
+        if (rs.getNumRecords() == 0) rs.addRecord(data, 0, data.length);
+        else                         rs.setRecord(HEADER_ID, data, 0, data.length);
+    }
+
+    /** Restore the buffer from RMS. Call once at startup. */
+    public synchronized void load() {
+        if (store == null) return;
+        RecordStore rs = null;
+        boolean convert = false;
+        try {
+            rs = RecordStore.openRecordStore(store, false);
+            if (rs.getNumRecords() == 0) return;
+            DataInputStream hdr = new DataInputStream(
+                    new ByteArrayInputStream(rs.getRecord(HEADER_ID)));
+            int format = hdr.readUnsignedByte();
+            if (format == FORMAT_V1) {
+                loadV1(hdr);
+                convert = true;
+            } else if (format == FORMAT) {
+                loadEntries(rs, hdr.readInt());
+            }
+        } catch (RecordStoreNotFoundException e) {
+            // First install — empty buffer
+        } catch (Exception e) {
+            log("load: ", e);
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+        if (convert) convertV1();
+    }
+
+    /** The entry records of a format-2 store whose header names `trained`. */
+    private void loadEntries(RecordStore rs, int trained) throws IOException, RecordStoreException {
+        trainedThrough = trained;
+        int n = rs.getNumRecords();
+        int[] ids = new int[n];
+        RecordEnumeration en = rs.enumerateRecords(null, null, false);
+        n = 0;
+        while (en.hasNextElement() && n < ids.length) {
+            int id = en.nextRecordId();
+            if (id != HEADER_ID) ids[n++] = id;
+        }
+        en.destroy();
+        // Record ids grow with each add: ascending id is oldest first.
+        for (int i = 1; i < n; i++) {
+            int id = ids[i], j = i - 1;
+            while (j >= 0 && ids[j] > id) { ids[j + 1] = ids[j]; j--; }
+            ids[j + 1] = id;
+        }
+        head = 0; size = 0; pending = 0;
+        for (int i = 0; i < n; i++) {
+            if (i < n - active.length) { // capacity shrank
+                rs.deleteRecord(ids[i]);
+                continue;
+            }
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(rs.getRecord(ids[i])));
+            label[head]  = dis.readByte();
+            weight[head] = dis.readUnsignedByte() / 255.0f;
+            short[] idx = new short[dis.readUnsignedShort()];
+            for (int j = 0; j < idx.length; j++) idx[j] = dis.readShort();
+            active[head]   = idx;
+            recordId[head] = ids[i];
+            head = (head + 1) % active.length;
+            size++;
+            if (ids[i] > trainedThrough) pending++;
+        }
+    }
+
+    /** The rest of a format-1 record, after its format byte. */
+    private void loadV1(DataInputStream dis) throws IOException {
+        int count = dis.readUnsignedByte();
+        int pend  = dis.readUnsignedByte();
+        head = 0; size = 0; pending = 0;
+        for (int e = 0; e < count; e++) {
+            byte  l = dis.readByte();
+            float w = dis.readUnsignedByte() / 255.0f;
+            short[] idx = new short[dis.readUnsignedShort()];
+            for (int j = 0; j < idx.length; j++) idx[j] = dis.readShort();
+            if (e < count - active.length) continue; // capacity shrank
+            active[head] = idx; label[head] = l; weight[head] = w;
+            head = (head + 1) % active.length;
+            size++;
+        }
+        pending = pend < size ? pend : size;
+    }
+
+    /** Rewrite a format-1 store as header plus one record per entry. */
+    private void convertV1() {
+        try {
+            RecordStore.deleteRecordStore(store);
+        } catch (Exception e) {
+            log("convert: ", e);
+            return;
+        }
+        int cap = active.length;
+        trainedThrough = 0;
+        for (int k = size - 1; k >= 0; k--) { // oldest first
+            int slot = (head - 1 - k + 2 * cap) % cap;
+            recordId[slot] = append(slot, 0);
+            if (k == pending) trainedThrough = recordId[slot]; // newest trained
+        }
+        writeHeader();
+    }
+
+    private static void log(String what, Exception e) {
+        StringBuffer eb = new StringBuffer("[Replay] ");
+        eb.append(what);
+        eb.append(e.getMessage());
+        System.out.println(eb.toString());
+    }
+}
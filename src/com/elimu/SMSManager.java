@@ -9,14 +9,22 @@ import java.io.*;
  * When the on-device TinyML model has insufficient confidence, questions are
  * forwarded to a cloud AI backend via HTTP POST (MIDP 2.0 HttpConnection).
  * The response body is read and delivered to a CloudResponseListener so the
- * MIDlet can surface the cloud-generated answer back to the learner.
+ * MIDlet can surface the cloud-generated answer back to the learner; a
+ * CloudStreamListener also gets the text as it arrives.
  *
  * Design rationale:
  *  - HTTP POST over TCP is used instead of raw SMS (JSR-120) because it
  *    avoids per-SMS carrier costs, supports richer payloads, and works on
  *    both feature phones with GPRS and smart-feature phones with Wi-Fi.
- *  - Background Thread prevents UI blocking; CLDC 1.1 supports java.lang.Thread.
+ *  - Requests run on BackgroundExecutor.NETWORK, off the UI thread and one
+ *    connection at a time, ahead of queued FL traffic.
  *  - Retry with exponential backoff handles spotty rural GPRS connectivity.
+ *    A question that still fails waits in the MIDlet's QuestionQueue, and
+ *    whenever a connection has just worked the waiting questions go out in
+ *    one POST to /v1/query-batch (flushQueuedQuestions()).
+ *  - The server pages long answers. The first page comes back with an
+ *    X-Elimu-Next continuation token, and fetchNextPage() gets the next
+ *    page without asking the LLM again. Paged answers are never cached.
  *  - URL encoding is implemented without java.net.URLEncoder (not in CLDC 1.1).
  *  - Listener callbacks fire on the worker thread; UI code must marshal back
  *    via Display.callSerially.
@@ -32,12 +40,36 @@ public class SMSManager {
     private static final int    READ_BUF    = 256;
     // Cap response payload to avoid OOM on constrained heaps.
     private static final int    MAX_RESPONSE_BYTES = 4096;
+    // A CloudStreamListener sees the answer once this much has arrived
+    // (about a screenful), then again every PARTIAL_STEP_BYTES more.
+    private static final int    FIRST_SCREEN_BYTES = 320;
+    private static final int    PARTIAL_STEP_BYTES = 256;
 
     // Mutable so deployments can point at a different backend (Gemini / Groq /
     // Ollama / OpenRouter) by setting the JAD attribute Elimu-CloudURL — see
     // ElimuSMSMidlet.startApp(). Falls back to DEFAULT_CLOUD_API if unset.
     private static String cloudApi = DEFAULT_CLOUD_API;
 
+    // Every cloud answer received is offered to it; see AnswerCache.
+    private static AnswerCache answerCache = null;
+
+    /** Keep cloud answers in `cache` from now on. */
+    static void setAnswerCache(AnswerCache cache) {
+        answerCache = cache;
+    }
+
+    // Questions that failed, sent once a connection works; see QuestionQueue.
+    private static QuestionQueue questionQueue = null;
+    // At most one queue flush waits or runs; every working connection asks.
+    private static BackgroundExecutor.Task pendingQuestionFlush = null;
+    private static boolean flushingQuestions = false;
+    private static boolean batchUnsupported  = false; // server predates /v1/query-batch
+
+    /** Send the questions waiting in `queue` whenever a connection works. */
+    static void setQuestionQueue(QuestionQueue queue) {
+        questionQueue = queue;
+    }
+
     /** Override the cloud endpoint at startup from a JAD attribute. */
     public static void setCloudUrl(String url) {
         if (url != null && url.length() > 0) {
@@ -75,13 +107,31 @@ public class SMSManager {
         convCount = 0;
     }
 
+    /** Context sent with the question just pushed; "" if no prior turns. */
+    static String currentContext() {
+        return getContextString(false);
+    }
+
+    /**
+     * Context the next question will be sent with once it is pushed — for a
+     * speculative request made before it is (see CloudPrefetch).
+     */
+    static String nextTurnContext() {
+        return getContextString(true);
+    }
+
     /** Build the context preamble; "" if no prior turns. */
-    private static String getContextString() {
-        if (convCount <= 1) return "";
+    private static String getContextString(boolean pending) {
+        if (convCount <= (pending ? 0 : 1)) return "";
         StringBuffer sb = new StringBuffer();
         // Include all prior turns except the last (which is the current question).
         int start = CONTEXT_TURNS - convCount;
         int stop  = CONTEXT_TURNS - 1; // exclude the most recent (== current)
+        if (pending) {
+            // Not pushed yet: every turn is prior, bar the one the push drops.
+            if (start < 1) start = 1;
+            stop = CONTEXT_TURNS;
+        }
         for (int i = start; i < stop; i++) {
             if (convBuffer[i] == null) continue;
             if (sb.length() > 0) sb.append(" | ");
@@ -103,34 +153,95 @@ public class SMSManager {
      */
     public static void sendToCloudAI(final String question,
                                      final CloudResponseListener listener) {
-        Thread worker = new Thread() {
+        dispatchAsync(question, currentContext(), listener,
+                      BackgroundExecutor.PRIORITY_INTERACTIVE);
+        recordCloudAnswer();
+    }
+
+    /**
+     * As sendToCloudAI(), with the context given, and not counted as a
+     * cloud answer: the caller may yet discard the result. Call
+     * recordCloudAnswer() if it is shown to the learner. Queued behind
+     * interactive requests; cancelling the task stops it between retries.
+     */
+    static BackgroundExecutor.Task prefetchFromCloud(String question, String context,
+                                                     CloudResponseListener listener) {
+        return dispatchAsync(question, context, listener,
+                             BackgroundExecutor.PRIORITY_SPECULATIVE);
+    }
+
+    /**
+     * Fetch the next page of a paged answer; `token` is what the previous
+     * page passed to CloudStreamListener.onContinuation(). The server keeps
+     * the rest of the answer, so no LLM call is made. The page is not
+     * cached, and not counted as another cloud answer.
+     */
+    static void fetchNextPage(final String token, final CloudResponseListener listener) {
+        final long asked = System.currentTimeMillis();
+        BackgroundExecutor.NETWORK.submit(new Runnable() {
             public void run() {
-                dispatchToCloud(question, listener);
+                StringBuffer payload = new StringBuffer("token=");
+                payload.append(urlEncode(token));
+                dispatch(FederatedLearning.deriveSibling(cloudApi, "/v1/query/next"),
+                         payload.toString(), null, null, listener, asked);
             }
-        };
-        worker.start();
+        }, BackgroundExecutor.PRIORITY_INTERACTIVE);
+    }
+
+    /** Count a cloud answer shown to the learner. */
+    static void recordCloudAnswer() {
         UserPreferences.incrementCloudAnswers();
         EvaluationLogger.recordCloudQuery();
     }
 
+    private static BackgroundExecutor.Task dispatchAsync(final String question,
+            final String context, final CloudResponseListener listener, int priority) {
+        // Only a learner waiting on the answer makes its timing worth keeping.
+        final long asked = priority == BackgroundExecutor.PRIORITY_INTERACTIVE
+                ? System.currentTimeMillis() : 0;
+        return BackgroundExecutor.NETWORK.submit(new Runnable() {
+            public void run() {
+                dispatch(cloudApi, buildPayload(question, context),
+                         question, context, listener, asked);
+            }
+        }, priority);
+    }
+
     // ── Network dispatch ──────────────────────────────────────────────────────
 
-    private static void dispatchToCloud(String question,
+    private static void dispatchToCloud(String question, String context,
                                         CloudResponseListener listener) {
+        dispatch(cloudApi, buildPayload(question, context), question, context, listener, 0);
+    }
+
+    /**
+     * POST `payload` to `url` with retries and deliver the answer. An answer
+     * to `question` asked with `context` is offered to the AnswerCache,
+     * except for a next page (question null) or a paged answer's first
+     * page. A prefetched answer is cached only once the learner sends its
+     * question (see CloudPrefetch). If `asked` is not 0 the time from then
+     * to the first text and to the whole answer is recorded.
+     */
+    private static void dispatch(String url, String payload, String question,
+                                 String context, CloudResponseListener listener,
+                                 long asked) {
+        CloudStreamListener stream = listener instanceof CloudStreamListener
+                ? (CloudStreamListener) listener : null;
         String lastError = "no attempts made";
         for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            if (BackgroundExecutor.currentTaskCancelled()) return; // nobody wants the answer
             HttpConnection conn = null;
             OutputStream   os   = null;
             InputStream    is   = null;
             try {
-                conn = (HttpConnection) Connector.open(cloudApi);
+                conn = (HttpConnection) Connector.open(url);
                 conn.setRequestMethod(HttpConnection.POST);
                 conn.setRequestProperty("Content-Type",
                         "application/x-www-form-urlencoded");
                 conn.setRequestProperty("User-Agent",
                         "ElimuSMS/1.0 CLDC-1.1 MIDP-2.0");
 
-                byte[] body = buildPayload(question).getBytes("UTF-8");
+                byte[] body = payload.getBytes("UTF-8");
                 conn.setRequestProperty("Content-Length",
                         Integer.toString(body.length));
 
@@ -145,18 +256,39 @@ public class SMSManager {
                 System.out.println(log.toString());
 
                 if (status == HttpConnection.HTTP_OK) {
+                    String next = conn.getHeaderField("X-Elimu-Next");
+                    boolean paged = next != null && next.length() > 0;
+                    if (stream != null && paged) {
+                        stream.onContinuation(next);
+                    }
                     is = conn.openInputStream();
-                    String answer = readResponse(is);
+                    long[] firstText = new long[1];
+                    String answer = readResponse(is, stream, firstText);
                     String intent = conn.getHeaderField("X-Elimu-Intent");
+                    String cacheControl = conn.getHeaderField("Cache-Control");
+                    if (listener instanceof CloudPrefetch) {
+                        ((CloudPrefetch) listener).setCacheControl(cacheControl);
+                    } else if (!paged) { // a first page is not the whole answer
+                        cacheAnswer(question, context, answer, cacheControl);
+                    }
+                    if (asked != 0) {
+                        long now = System.currentTimeMillis();
+                        if (firstText[0] == 0) firstText[0] = now; // all arrived at once
+                        EvaluationLogger.recordCloudTiming(firstText[0] - asked, now - asked);
+                    }
                     if (listener != null) listener.onResponse(answer, intent);
                     // Opportunistic FL flush — the network is already warm,
-                    // so any pending DP-noisy deltas piggy-back on this burst.
+                    // so any pending DP-noisy deltas piggy-back on this burst,
+                    // as do questions queued while offline.
                     FederatedLearning.flushPendingOpportunistic();
+                    flushQueuedQuestions();
                     return;
                 }
                 StringBuffer es = new StringBuffer("HTTP ");
                 es.append(status);
                 lastError = es.toString();
+                // A page the server has forgotten will not come back.
+                if (question == null && status == HttpConnection.HTTP_NOT_FOUND) break;
 
             } catch (Exception e) {
                 lastError = e.getMessage();
@@ -180,30 +312,219 @@ public class SMSManager {
         if (listener != null) listener.onError(lastError);
     }
 
-    /** Read response body up to MAX_RESPONSE_BYTES, decoded as UTF-8. */
-    private static String readResponse(InputStream is) throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        byte[] chunk = new byte[READ_BUF];
+    // ── Offline question queue ────────────────────────────────────────────────
+    // Reply status per question from /v1/query-batch (see query_batch.py).
+    private static final int BATCH_RETRY    = 0;
+    private static final int BATCH_ANSWERED = 1;
+
+    /**
+     * Send the questions waiting in the QuestionQueue, if any. Called
+     * whenever a connection has just worked (a cloud answer, an FL upload
+     * or pull) and once at launch. Runs on the network worker behind any
+     * learner requests, and is not queued twice.
+     */
+    static synchronized void flushQueuedQuestions() {
+        final QuestionQueue queue = questionQueue;
+        if (queue == null || !queue.hasPending() || flushingQuestions) return;
+        if (pendingQuestionFlush != null && pendingQuestionFlush.isPending()) return;
+        pendingQuestionFlush = BackgroundExecutor.NETWORK.submit(new Runnable() {
+            public void run() { sendQueued(queue); }
+        }, BackgroundExecutor.PRIORITY_BACKGROUND);
+    }
+
+    private static void sendQueued(QuestionQueue queue) {
+        synchronized (SMSManager.class) { flushingQuestions = true; }
+        int sent = 0;
+        int skip = 0; // oldest questions the server asked to retry later
+        try {
+            while (true) {
+                QuestionQueue.Item[] batch = queue.oldestPending(skip, QuestionQueue.MAX_BATCH);
+                if (batch.length == 0) break;
+                int done = batchUnsupported ? -1 : postQueued(queue, batch);
+                if (done < 0 && batchUnsupported) {
+                    done = sendQueuedOneByOne(queue, batch);
+                    if (done < batch.length) { // the link dropped
+                        sent += done;
+                        break;
+                    }
+                }
+                if (done <= 0) break; // offline again, or the LLM is down
+                sent += done;
+                skip += batch.length - done;
+            }
+        } finally {
+            synchronized (SMSManager.class) { flushingQuestions = false; }
+        }
+        if (sent > 0) {
+            StringBuffer sb = new StringBuffer("[Cloud] ");
+            sb.append(sent); sb.append(" queued questions sent, ");
+            sb.append(queue.pendingCount()); sb.append(" waiting");
+            System.out.println(sb.toString());
+            FederatedLearning.flushPendingOpportunistic(); // the link is up
+        }
+    }
+
+    /**
+     * POST `batch` to /v1/query-batch and file the replies. Returns how
+     * many questions left the outbox (answered or refused), or -1 if the
+     * request failed; a 404 marks the endpoint unsupported this session.
+     */
+    private static int postQueued(QuestionQueue queue, QuestionQueue.Item[] batch) {
+        HttpConnection conn = null;
+        OutputStream   os   = null;
+        InputStream    is   = null;
+        try {
+            StringBuffer sb = new StringBuffer("grade=6&lang=sw-ke&n=");
+            sb.append(batch.length);
+            for (int i = 0; i < batch.length; i++) {
+                sb.append("&q"); sb.append(i); sb.append('=');
+                sb.append(urlEncode(batch[i].question));
+                if (batch[i].text.length() > 0) {
+                    sb.append("&c"); sb.append(i); sb.append('=');
+                    sb.append(urlEncode(batch[i].text));
+                }
+            }
+            byte[] body = sb.toString().getBytes("UTF-8");
+            conn = (HttpConnection) Connector.open(
+                    FederatedLearning.deriveSibling(cloudApi, "/v1/query-batch"));
+            conn.setRequestMethod(HttpConnection.POST);
+            conn.setRequestProperty("Content-Type",
+                    "application/x-www-form-urlencoded");
+            conn.setRequestProperty("User-Agent",
+                    "ElimuSMS/1.0 CLDC-1.1 MIDP-2.0");
+            conn.setRequestProperty("Content-Length",
+                    Integer.toString(body.length));
+            os = conn.openOutputStream();
+            os.write(body);
+            os.flush();
+            int status = conn.getResponseCode();
+            if (status == HttpConnection.HTTP_NOT_FOUND) {
+                batchUnsupported = true;
+                System.out.println("[Cloud] no batch endpoint; sending queued questions one by one");
+                return -1;
+            }
+            if (status != HttpConnection.HTTP_OK) return -1;
+            is = conn.openInputStream();
+            DataInputStream dis = new DataInputStream(is);
+            if (dis.readUnsignedByte() != batch.length) return -1;
+            int done = 0;
+            for (int i = 0; i < batch.length; i++) {
+                int reply = dis.readUnsignedByte();
+                if (reply == BATCH_RETRY) continue;
+                if (reply != BATCH_ANSWERED) { // refused: would fail every time
+                    queue.drop(batch[i]);
+                    done++;
+                    continue;
+                }
+                long maxAge = dis.readInt() & 0xFFFFFFFFL;
+                int  length = dis.readUnsignedShort();
+                if (length > MAX_RESPONSE_BYTES) return done;
+                byte[] text = new byte[length];
+                dis.readFully(text);
+                fileQueuedAnswer(queue, batch[i], new String(text, "UTF-8"), maxAge);
+                done++;
+            }
+            return done;
+        } catch (Exception e) {
+            return -1;
+        } finally {
+            if (os   != null) { try { os.close();   } catch (Exception ig) {} }
+            if (is   != null) { try { is.close();   } catch (Exception ig) {} }
+            if (conn != null) { try { conn.close(); } catch (Exception ig) {} }
+        }
+    }
+
+    /**
+     * Against a server without the batch endpoint: one /v1/query request
+     * per question, with the usual retries. Returns how many were answered.
+     */
+    private static int sendQueuedOneByOne(final QuestionQueue queue,
+                                          QuestionQueue.Item[] batch) {
+        final int[] done = new int[1];
+        for (int i = 0; i < batch.length && done[0] == i; i++) {
+            final QuestionQueue.Item q = batch[i];
+            dispatchToCloud(q.question, q.text, new CloudResponseListener() {
+                public void onResponse(String answer, String intentLabel) {
+                    queue.answered(q, answer); // dispatchToCloud cached it
+                    done[0]++;
+                }
+                public void onError(String reason) {}
+            });
+        }
+        return done[0];
+    }
+
+    /** Offer an answer to the AnswerCache, if there is one; `question` may be null. */
+    static void cacheAnswer(String question, String context, String answer,
+                            String cacheControl) {
+        AnswerCache cache = answerCache;
+        if (cache != null && question != null) {
+            cache.put(question, context, answer, cacheControl);
+        }
+    }
+
+    /** Put a batch answer in the inbox and, if the server allows, the cache. */
+    private static void fileQueuedAnswer(QuestionQueue queue, QuestionQueue.Item q,
+                                         String answer, long maxAgeSeconds) {
+        queue.answered(q, answer);
+        AnswerCache cache = answerCache;
+        if (cache == null || maxAgeSeconds == 0) return;
+        StringBuffer cc = new StringBuffer("max-age=");
+        cc.append(maxAgeSeconds);
+        cache.put(q.question, q.text, answer, cc.toString());
+    }
+
+    /**
+     * Read the response body, decoded as UTF-8. If `stream` is set it gets
+     * the text so far once FIRST_SCREEN_BYTES have arrived and every
+     * PARTIAL_STEP_BYTES after, and firstText[0] is set to when it first
+     * did. A body past MAX_RESPONSE_BYTES is cut there and ends in "...".
+     */
+    private static String readResponse(InputStream is, CloudStreamListener stream,
+                                       long[] firstText) throws IOException {
+        byte[] body = new byte[MAX_RESPONSE_BYTES];
         int total = 0;
+        int nextPartial = FIRST_SCREEN_BYTES;
         int n;
-        while ((n = is.read(chunk)) != -1) {
-            int allowed = MAX_RESPONSE_BYTES - total;
-            if (allowed <= 0) break;
-            int toWrite = (n < allowed) ? n : allowed;
-            buf.write(chunk, 0, toWrite);
-            total += toWrite;
-            if (total >= MAX_RESPONSE_BYTES) break;
+        while (total < body.length
+                && (n = is.read(body, total, Math.min(READ_BUF, body.length - total))) != -1) {
+            total += n;
+            if (stream != null && total >= nextPartial) {
+                stream.onPartial(new String(body, 0, utf8Boundary(body, total), "UTF-8"));
+                if (firstText[0] == 0) firstText[0] = System.currentTimeMillis();
+                nextPartial = total + PARTIAL_STEP_BYTES;
+            }
+        }
+        if (total < body.length || is.read() == -1) {
+            return new String(body, 0, total, "UTF-8");
         }
-        return new String(buf.toByteArray(), "UTF-8");
+        StringBuffer log = new StringBuffer("[Cloud] answer cut at ");
+        log.append(MAX_RESPONSE_BYTES); log.append(" bytes");
+        System.out.println(log.toString());
+        StringBuffer cut = new StringBuffer(new String(body, 0, utf8Boundary(body, total), "UTF-8"));
+        cut.append("...");
+        return cut.toString();
+    }
+
+    /**
+     * The length of the longest prefix of b[0..len) that does not end
+     * inside a UTF-8 sequence: a chunk boundary may split a character.
+     */
+    private static int utf8Boundary(byte[] b, int len) {
+        int i = len;
+        while (i > 0 && len - i < 3 && (b[i - 1] & 0xC0) == 0x80) i--; // continuation bytes
+        if (i == 0) return len;
+        int lead = b[i - 1] & 0xFF;
+        int need = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+        return len - (i - 1) >= need ? len : i - 1;
     }
 
     // ── Payload builder ───────────────────────────────────────────────────────
 
-    private static String buildPayload(String question) {
+    private static String buildPayload(String question, String ctx) {
         StringBuffer sb = new StringBuffer("q=");
         sb.append(urlEncode(question));
         sb.append("&grade=6&lang=sw-ke");
-        String ctx = getContextString();
         if (ctx.length() > 0) {
             sb.append("&ctx=");
             sb.append(urlEncode(ctx));
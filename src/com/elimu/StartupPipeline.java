@@ -0,0 +1,78 @@
+package com.elimu;
+
+/**
+ * Deferred, staged startup for ElimuSMSMidlet.
+ *
+ * startApp() used to restore RMS state, configure FL, load the model and
+ * run the self-test before the first screen appeared. Now it shows the main
+ * menu straight away and hands that work to this pipeline, which runs the
+ * stages in order on one background thread (a single extra thread is cheap
+ * on a KVM; a thread per stage is not).
+ *
+ * Stages are ordered by what user actions depend on, and UI code calls
+ * await(stage) only before the first thing that needs that stage:
+ *   RESTORE   EvaluationLogger and SRS state from RMS — any command that
+ *             records or shows progress
+ *   MODEL     model resource plus saved weights — processQuery()
+ *   SELFTEST  testModel() (and benchmarks) — nothing waits on it: it only
+ *             reads the live model, and the benchmarks build their own
+ *   NETWORK   FL / SMS-FL configuration and the opportunistic global pull —
+ *             destroyApp()
+ * Because stages run in order, awaiting a stage also awaits every earlier
+ * one. Each stage is timed into EvaluationLogger; a stage that throws is
+ * logged and counted as finished so later stages and waiters still proceed.
+ */
+class StartupPipeline implements Runnable {
+
+    static final int STAGE_RESTORE  = 0;
+    static final int STAGE_MODEL    = 1;
+    static final int STAGE_SELFTEST = 2;
+    static final int STAGE_NETWORK  = 3;
+
+    private static final String[] STAGE_NAMES = {"restore", "model", "selftest", "network"};
+
+    private final Runnable[] stages;
+    private int finished = 0; // stages [0, finished) are done; guarded by this
+
+    /** `stages[i]` is the work of stage i, one per STAGE_* constant. */
+    StartupPipeline(Runnable[] stages) {
+        this.stages = stages;
+    }
+
+    void start() {
+        new Thread(this).start();
+    }
+
+    public void run() {
+        for (int s = 0; s < stages.length; s++) {
+            long t0 = System.currentTimeMillis();
+            try {
+                stages[s].run();
+            } catch (Throwable t) {
+                StringBuffer sb = new StringBuffer("[Startup] ");
+                sb.append(STAGE_NAMES[s]); sb.append(" failed: ");
+                sb.append(t.getClass().getName()); sb.append(' ');
+                sb.append(t.getMessage());
+                System.out.println(sb.toString());
+            }
+            EvaluationLogger.recordStartupPhase(STAGE_NAMES[s],
+                    System.currentTimeMillis() - t0);
+            synchronized (this) {
+                finished = s + 1;
+                notifyAll();
+            }
+        }
+        System.out.println(EvaluationLogger.getStartupReport());
+    }
+
+    /** Block until `stage` (and so every earlier stage) has finished. */
+    synchronized void await(int stage) {
+        while (finished <= stage) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
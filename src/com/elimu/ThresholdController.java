@@ -0,0 +1,216 @@
+package com.elimu;
+
+import java.io.*;
+import javax.microedition.rms.*;
+
+/**
+ * Adaptive cloud-routing threshold, driven by how often the cloud agreed.
+ *
+ * CompressedTinyML.CONFIDENCE_THRESHOLD (0.30) sends every query the network
+ * is less sure of to the cloud. Each cloud answer comes back with the
+ * server's intent label (X-Elimu-Intent), so for those queries we learn
+ * whether the local top-1 intent was right after all. This controller
+ * counts, per confidence bucket of BUCKET_PCT, how many cloud-labelled
+ * queries there were and how many the network had right, and lowers the
+ * threshold over every bucket just below it whose agreement meets
+ * TARGET_AGREEMENT_PCT on at least MIN_SAMPLES queries. Those queries are
+ * then answered on-device, saving a GPRS round trip and an LLM call each;
+ * if a bucket's agreement later drops, the threshold moves back up.
+ *
+ * The threshold stays within [FLOOR, CEILING], CEILING being the static
+ * policy, so the controller never sends more traffic to the cloud than
+ * before. Buckets it has lowered past would stop producing labels, so one
+ * in AUDIT_EVERY of their queries still goes to the cloud to keep their
+ * counts current. Counts are halved once a bucket reaches WINDOW queries,
+ * so old evidence fades as the model learns.
+ *
+ * RMS record (single record in RMS_STORE):
+ *   u8 format, u8 bucket count, per bucket u16 seen + u16 agreed,
+ *   u32 queries kept local, u32 audits.
+ * Written every SAVE_EVERY labels and when the MIDlet pauses or exits, so
+ * a kill loses at most a few labels' worth of evidence.
+ *
+ * Thread-safe: routing runs on the UI thread, labels arrive on the
+ * storage worker.
+ */
+final class ThresholdController {
+
+    private static final String RMS_STORE = "ElimuThreshold";
+    private static final int    FORMAT    = 1;
+
+    private static final int   BUCKET_PCT           = 5;    // bucket width, confidence %
+    private static final int   BUCKETS              = 20;   // [0, 1)
+    private static final int   FLOOR_BUCKET         = 3;    // threshold >= 0.15
+    private static final int   CEILING_BUCKET       = 6;    // threshold <= 0.30
+    private static final int   TARGET_AGREEMENT_PCT = 90;
+    private static final int   MIN_SAMPLES          = 12;
+    private static final int   WINDOW               = 64;
+    private static final int   AUDIT_EVERY          = 8;
+    private static final int   SAVE_EVERY           = 8;    // labels per RMS write
+
+    private final int[] seen   = new int[BUCKETS];
+    private final int[] agreed = new int[BUCKETS];
+    private int thresholdBucket = CEILING_BUCKET; // threshold = bucket * BUCKET_PCT %
+    private int keptLocal = 0; // queries the static threshold would have sent to the cloud
+    private int audits    = 0;
+    private int unsaved   = 0; // changes since the last save()
+
+    /** The current routing threshold on softmax confidence. */
+    synchronized float threshold() {
+        return thresholdBucket * BUCKET_PCT / 100.0f;
+    }
+
+    /**
+     * Routing decision for a network prediction of `query`: true to answer
+     * on-device. Replaces Prediction.shouldFallbackToCloud() for the router.
+     * Side-effect free, so type-ahead may ask on every keystroke: the audit
+     * pick hashes the query alone, and the same text always routes the
+     * same way until the threshold moves.
+     */
+    synchronized boolean answerLocally(String query, Prediction p) {
+        if (!p.shouldFallbackToCloud()) return true; // local under the static policy too
+        int b = bucketOf(p.getConfidence());
+        if (b < thresholdBucket) return false;
+        return ((query.hashCode() & 0x7fffffff) % AUDIT_EVERY) != 0; // else audit
+    }
+
+    /**
+     * A submitted query was answered on-device only because the threshold
+     * is below the static one. Counted for the report; persisted with the
+     * next save().
+     */
+    synchronized void countKeptLocal() {
+        keptLocal++;
+        unsaved++;
+    }
+
+    /**
+     * A cloud label arrived for a query the network classified as `p`:
+     * count whether it agreed and move the threshold. Persists every
+     * SAVE_EVERY labels.
+     */
+    synchronized void observe(Prediction p, int cloudIntent) {
+        int b = bucketOf(p.getConfidence());
+        if (b >= CEILING_BUCKET) return; // never routed to the cloud for confidence
+        if (b >= thresholdBucket) audits++;
+        seen[b]++;
+        if (p.getIntent() == cloudIntent) agreed[b]++;
+        if (seen[b] >= WINDOW) {
+            seen[b]   >>= 1;
+            agreed[b] >>= 1;
+        }
+        adapt();
+        if (++unsaved >= SAVE_EVERY) save();
+    }
+
+    /** Lowest threshold whose buckets up to CEILING all meet the target. */
+    private void adapt() {
+        int t = CEILING_BUCKET;
+        while (t > FLOOR_BUCKET && meetsTarget(t - 1)) t--;
+        if (t != thresholdBucket) {
+            StringBuffer sb = new StringBuffer("[Threshold] ");
+            appendBucket(sb, thresholdBucket); sb.append(" -> ");
+            appendBucket(sb, t);
+            System.out.println(sb.toString());
+            thresholdBucket = t;
+        }
+    }
+
+    private boolean meetsTarget(int b) {
+        return seen[b] >= MIN_SAMPLES && agreed[b] * 100 >= TARGET_AGREEMENT_PCT * seen[b];
+    }
+
+    private static int bucketOf(float confidence) {
+        int b = (int) (confidence * 100.0f) / BUCKET_PCT;
+        if (b < 0) return 0;
+        return b < BUCKETS ? b : BUCKETS - 1;
+    }
+
+    /** A bucket's lower edge as a confidence, e.g. "0.25". */
+    private static void appendBucket(StringBuffer sb, int bucket) {
+        int pct = bucket * BUCKET_PCT;
+        sb.append(pct / 100); sb.append('.');
+        sb.append((pct % 100) / 10); sb.append(pct % 10);
+    }
+
+    /**
+     * e.g. "Cloud threshold 0.20 (static 0.30)\nAgreement 0.15-0.30: 41/44\n
+     * Kept local: 37, audits: 6".
+     */
+    synchronized String getReport() {
+        StringBuffer sb = new StringBuffer("Cloud threshold ");
+        appendBucket(sb, thresholdBucket);
+        sb.append(" (static "); appendBucket(sb, CEILING_BUCKET); sb.append(')');
+        int s = 0, a = 0;
+        for (int b = FLOOR_BUCKET; b < CEILING_BUCKET; b++) {
+            s += seen[b];
+            a += agreed[b];
+        }
+        sb.append("\nAgreement "); appendBucket(sb, FLOOR_BUCKET);
+        sb.append('-'); appendBucket(sb, CEILING_BUCKET); sb.append(": ");
+        sb.append(a); sb.append('/'); sb.append(s);
+        sb.append("\nKept local: "); sb.append(keptLocal);
+        sb.append(", audits: ");     sb.append(audits);
+        return sb.toString();
+    }
+
+    // ── RMS persistence ───────────────────────────────────────────────────────
+    /** Persist the counts if anything changed since the last save. */
+    synchronized void save() {
+        if (unsaved == 0) return;
+        RecordStore rs = null;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeByte(FORMAT);
+            dos.writeByte(BUCKETS);
+            for (int b = 0; b < BUCKETS; b++) {
+                dos.writeShort(seen[b]);
+                dos.writeShort(agreed[b]);
+            }
+            dos.writeInt(keptLocal);
+            dos.writeInt(audits);
+            dos.flush();
+            byte[] data = baos.toByteArray();
+            rs = RecordStore.openRecordStore(RMS_STORE, true);
+            if (rs.getNumRecords() == 0) rs.addRecord(data, 0, data.length);
+            else                         rs.setRecord(1,   data, 0, data.length);
+            unsaved = 0;
+        } catch (Exception e) {
+            StringBuffer eb = new StringBuffer("[Threshold] save: ");
+            eb.append(e.getMessage());
+            System.out.println(eb.toString());
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+
+    /** Restore the counts and re-derive the threshold. Call once at startup. */
+    synchronized void load() {
+        RecordStore rs = null;
+        try {
+            rs = RecordStore.openRecordStore(RMS_STORE, false);
+            if (rs.getNumRecords() > 0) {
+                DataInputStream dis = new DataInputStream(
+                        new ByteArrayInputStream(rs.getRecord(1)));
+                if (dis.readUnsignedByte() != FORMAT) return;
+                if (dis.readUnsignedByte() != BUCKETS) return; // other bucketing: start over
+                for (int b = 0; b < BUCKETS; b++) {
+                    seen[b]   = dis.readUnsignedShort();
+                    agreed[b] = dis.readUnsignedShort();
+                }
+                keptLocal = dis.readInt();
+                audits    = dis.readInt();
+                adapt();
+            }
+        } catch (RecordStoreNotFoundException e) {
+            // First install — static threshold until labels arrive
+        } catch (Exception e) {
+            StringBuffer eb = new StringBuffer("[Threshold] load: ");
+            eb.append(e.getMessage());
+            System.out.println(eb.toString());
+        } finally {
+            if (rs != null) { try { rs.closeRecordStore(); } catch (Exception ig) {} }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.elimu;
+
+/**
+ * Write-behind persistence for CompressedTinyML's weights.
+ *
+ * saveWeights() serialises the weights and writes an ElimuWeights record,
+ * which takes tens to hundreds of milliseconds on flash-based handsets.
+ * Callers that change the weights call markDirty() instead; a background
+ * thread writes once the oldest unsaved change is `maxDelayMs` old or
+ * `maxDirty` changes have piled up, whichever comes first, so a burst of
+ * training rounds costs one RMS write. flush() writes synchronously and is
+ * called from pauseApp() and destroyApp(), where the MIDlet may not get
+ * another chance.
+ *
+ * The background writes themselves run on BackgroundExecutor.STORAGE, so
+ * they never overlap other background RMS work; this class's own thread
+ * only keeps time.
+ *
+ * A write also advances the CFP anchor (see ModelTrainer.saveWeights), so
+ * coalesced changes are anchored together rather than one by one.
+ */
+class WriteBehindSaver implements Runnable {
+
+    private final CompressedTinyML model;
+    private final long maxDelayMs;
+    private final int  maxDirty;
+
+    // All guarded by this.
+    private int     dirty      = 0;  // changes since the last write started
+    private long    dirtySince = 0;  // time of the oldest of them
+    private boolean writing    = false;
+    private boolean started    = false;
+    private int     requested  = 0;  // markDirty() calls
+    private int     written    = 0;  // saveWeights() calls made
+
+    private final Runnable writer = new Runnable() {
+        public void run() { write(); }
+    };
+
+    WriteBehindSaver(CompressedTinyML model, long maxDelayMs, int maxDirty) {
+        this.model      = model;
+        this.maxDelayMs = maxDelayMs;
+        this.maxDirty   = maxDirty;
+    }
+
+    /** The weights changed; they will be written within maxDelayMs. */
+    synchronized void markDirty() {
+        requested++;
+        if (dirty == 0) dirtySince = System.currentTimeMillis();
+        dirty++;
+        if (!started) { // one thread for the MIDlet's lifetime, only if ever needed
+            started = true;
+            new Thread(this).start();
+        }
+        notifyAll();
+    }
+
+    /** Write now if anything is unsaved; returns once it is on RMS. */
+    void flush() {
+        synchronized (this) {
+            try {
+                while (writing) wait(); // a background write may hold older changes only
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (dirty == 0) return;
+            beginWrite();
+        }
+        write();
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (true) {
+                        if (dirty == 0 || writing) {
+                            wait();
+                            continue;
+                        }
+                        if (dirty >= maxDirty) break;
+                        long left = dirtySince + maxDelayMs - System.currentTimeMillis();
+                        if (left <= 0) break;
+                        wait(left);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                beginWrite();
+            }
+            BackgroundExecutor.STORAGE.submit(writer, BackgroundExecutor.PRIORITY_BACKGROUND);
+        }
+    }
+
+    /** Caller holds the lock: later markDirty() calls start a new batch. */
+    private void beginWrite() {
+        dirty   = 0;
+        writing = true;
+    }
+
+    private void write() {
+        try {
+            model.saveWeights();
+        } finally {
+            synchronized (this) {
+                writing = false;
+                written++;
+                notifyAll();
+            }
+        }
+    }
+
+    /** e.g. "Weights: 12 changes, 3 RMS writes, 9 avoided". */
+    synchronized String getReport() {
+        StringBuffer sb = new StringBuffer("Weights: ");
+        sb.append(requested); sb.append(" changes, ");
+        sb.append(written);   sb.append(" RMS writes, ");
+        sb.append(requested - written); sb.append(" avoided");
+        return sb.toString();
+    }
+}
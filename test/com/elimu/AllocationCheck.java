@@ -0,0 +1,75 @@
+package com.elimu;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Host-side check that CompressedTinyML's per-query paths allocate nothing
+ * once warmed up: predict() into a reused Prediction, and learn() on it.
+ * Run on a desktop JVM by `make test` under -Xint, so escape analysis cannot
+ * hide an allocation the handset would make; exits non-zero if either path
+ * allocates. Bytes are counted per thread by the JVM, so other threads do
+ * not blur the figure the way a Runtime.freeMemory() delta would.
+ *
+ * Not covered, by design: the first predict() after a burst of learn()
+ * steps publishes one fresh weight snapshot (readers may still hold the
+ * old one), and a weight group's first change after a save copies its FL
+ * and CFP anchors. Both are printed for reference.
+ */
+public class AllocationCheck {
+
+    private static final int ROUNDS = 200;
+
+    private static final String[] QUERIES = {
+        "what is photosynthesis", "how to calculate fractions",
+        "good morning hello", "goodbye bye", "show my progress scores"
+    };
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CompressedTinyML m = CompressedTinyML.factoryModel();
+        Prediction p = m.newPrediction();
+        int classes = m.getOutputSize();
+
+        long before = mx.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 2 * QUERIES.length; i++) { // warm-up, real steps
+            m.predict(QUERIES[i % QUERIES.length], p);
+            m.learn(p, i % classes, 0.01f);
+        }
+        m.predict(QUERIES[0], p);
+        long warmUp = mx.getCurrentThreadAllocatedBytes() - before;
+
+        long overhead = measure(mx, null, null, 0, 0);
+        long predict  = measure(mx, m, p, 1, 0) - overhead;
+        long learn    = measure(mx, m, p, 0, 1) - overhead;
+
+        before = mx.getCurrentThreadAllocatedBytes();
+        m.learn(p, 0, 0.01f);
+        m.predict(QUERIES[0], p);
+        long publish = mx.getCurrentThreadAllocatedBytes() - before;
+
+        boolean ok = report("predict()", predict) & report("learn()", learn);
+        System.out.println("     first predict() after learn(): " + publish
+                + " bytes (snapshot publish); warm-up incl. anchor copies: "
+                + warmUp + " bytes");
+        if (!ok) System.exit(1);
+    }
+
+    // Bytes allocated over ROUNDS calls of predict() and/or learn().
+    private static long measure(com.sun.management.ThreadMXBean mx, CompressedTinyML m,
+                                Prediction p, int predicts, int learns) {
+        long before = mx.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (int k = 0; k < predicts; k++) m.predict(QUERIES[i % QUERIES.length], p);
+            for (int k = 0; k < learns; k++) m.learn(p, i % 2, 0.01f);
+        }
+        return mx.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private static boolean report(String what, long bytes) {
+        boolean pass = bytes <= 0;
+        System.out.println((pass ? "[OK] " : "[FAIL] ") + "Allocation check: " + bytes
+                + " bytes over " + ROUNDS + " " + what + " calls");
+        return pass;
+    }
+}
@@ -0,0 +1,52 @@
+package com.elimu;
+
+/**
+ * Host-side check of the copy-on-write anchors' heap against the two full
+ * float copies (CFP and FL) the model used to keep. Run on a desktop JVM by
+ * `make test`: exits non-zero on failure.
+ *
+ * Measured on a factory model at rest (right after expanding, as after a
+ * load or save) and after the trainCorrections() workload, with how many
+ * parameters the FL upload delta moves at each point. At rest the anchors
+ * must be at least 4x smaller and the delta exactly zero. After corrections
+ * every touched group holds both its copies; the CFP copies go at the next
+ * save, the FL ones only at the next FL pull. There the check asserts only
+ * that the anchors stay under the two full copies and reports the ratio,
+ * which depends on how many groups the corrections reach.
+ */
+public class AnchorStorageCheck {
+
+    public static void main(String[] args) throws Exception {
+        CompressedTinyML m = CompressedTinyML.factoryModel();
+        m.expandWeights();
+        int params = m.getParamCount();
+        int dense = 2 * 4 * params;
+        int rest = m.anchorBytes();
+        int restMoved = nonZero(m.computeDeltaFromFLAnchor());
+
+        m.trainCorrections(12);
+        int busy = m.anchorBytes();
+        int busyMoved = nonZero(m.computeDeltaFromFLAnchor());
+
+        boolean atRest = rest * 4 <= dense && restMoved == 0;
+        boolean afterCorrections = busy < dense && busyMoved > 0;
+        System.out.println((atRest ? "[OK] " : "[FAIL] ") + "Anchors at rest: " + rest
+                + " B vs " + dense + " B as floats (" + ratio(dense, rest)
+                + "x); FL delta moves " + restMoved + " of " + params + " params");
+        System.out.println((afterCorrections ? "[OK] " : "[FAIL] ")
+                + "Anchors after corrections: " + busy + " B vs " + dense
+                + " B as floats (" + ratio(dense, busy) + "x); FL delta moves "
+                + busyMoved + " of " + params + " params");
+        if (!(atRest && afterCorrections)) System.exit(1);
+    }
+
+    private static String ratio(int dense, int bytes) {
+        return String.valueOf(Math.round(10.0 * dense / bytes) / 10.0);
+    }
+
+    private static int nonZero(float[] v) {
+        int n = 0;
+        for (int k = 0; k < v.length; k++) if (v[k] != 0.0f) n++;
+        return n;
+    }
+}
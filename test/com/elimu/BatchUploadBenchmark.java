@@ -0,0 +1,157 @@
+package com.elimu;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import javax.microedition.rms.RecordStore;
+
+/**
+ * Host-side benchmark of the FL queue drain: batched against per-blob
+ * upload, through the real FederatedLearning.flushNow() (RMS queue,
+ * HttpConnection, acknowledgement handling) against a local server that
+ * holds every reply for an emulated 2G link. Run on a desktop JVM by
+ * `make bench-fl-upload`; takes about a minute.
+ *
+ * Each POST waits LINK_RTTS_PER_POST round trips (its own TCP handshake and
+ * the exchange) plus its bytes, body and HTTP headers both ways, at GPRS
+ * rate. The per-blob runs get a 404 from /v1/fl/upload-batch, so the
+ * device falls back to one /v1/fl/upload POST per blob as it would against
+ * an older server. Times are wall clock around flushNow(); POSTs and bytes
+ * are what the server received. Exits non-zero if a flush leaves anything
+ * queued.
+ */
+public class BatchUploadBenchmark {
+
+    private static final int   LINK_RTT_MS        = 700;
+    private static final int   LINK_RTTS_PER_POST = 2;
+    private static final int   LINK_BYTES_PER_S   = 2000; // ~16 kbit/s
+    private static final int   LINK_HTTP_HEADERS  = 250;  // request + response headers
+    private static final int[] DEPTHS             = { 1, 5, 20 };
+
+    private static boolean batchEndpoint = true;
+    private static int posts;
+    private static long bodyBytes;
+    private static long lastMs;
+
+    public static void main(String[] args) throws Exception {
+        installMemoryRms();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new LinkHandler());
+        server.start();
+        FederatedLearning.configure("true",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/query");
+        CompressedTinyML model = new CompressedTinyML();
+        model.loadModel();
+
+        long[] batchMs = new long[DEPTHS.length];
+        int[] batchPosts = new int[DEPTHS.length];
+        long[] batchBytes = new long[DEPTHS.length];
+        boolean ok = drain(model, 1); // warm-up: class loading, first connection
+        for (int d = 0; d < DEPTHS.length; d++) {
+            ok &= drain(model, DEPTHS[d]);
+            batchMs[d] = lastMs;
+            batchPosts[d] = posts;
+            batchBytes[d] = bodyBytes;
+        }
+
+        batchEndpoint = false; // the first flush learns this; keep it out of the figures
+        ok &= drain(model, 1);
+        for (int d = 0; d < DEPTHS.length; d++) {
+            ok &= drain(model, DEPTHS[d]);
+            System.out.println("FL upload x" + DEPTHS[d] + ": per-blob " + posts + " POSTs "
+                    + bodyBytes + " B " + lastMs + " ms; batch " + batchPosts[d] + " POSTs "
+                    + batchBytes[d] + " B " + batchMs[d] + " ms ("
+                    + Math.round(10.0 * lastMs / batchMs[d]) / 10.0 + "x)");
+        }
+        System.out.println("FL upload benchmark: RTT " + LINK_RTT_MS + " ms, "
+                + LINK_BYTES_PER_S + " B/s, " + LINK_RTTS_PER_POST + " RTTs per POST");
+        server.stop(0);
+        System.exit(ok ? 0 : 1);
+    }
+
+    // Queue `depth` deltas, then time one flush; true if it emptied the queue.
+    private static boolean drain(CompressedTinyML model, int depth) throws Exception {
+        for (int i = 0; i < depth; i++) FederatedLearning.enqueueDelta(model);
+        posts = 0;
+        bodyBytes = 0;
+        long t0 = System.currentTimeMillis();
+        FederatedLearning.flushNow();
+        lastMs = System.currentTimeMillis() - t0;
+        RecordStore rs = RecordStore.openRecordStore("ElimuFLQueue", true);
+        int left = rs.getNumRecords();
+        rs.closeRecordStore();
+        if (left != 0) System.out.println("[FAIL] " + left + " of " + depth + " blobs still queued");
+        return left == 0;
+    }
+
+    /** Acknowledges everything, after holding the reply for the link's time. */
+    private static final class LinkHandler implements HttpHandler {
+        public void handle(HttpExchange ex) throws java.io.IOException {
+            byte[] body = readAll(ex.getRequestBody());
+            boolean batch = ex.getRequestURI().getPath().endsWith("/upload-batch");
+            byte[] reply;
+            int status = 200;
+            if (batch && !batchEndpoint) {
+                status = 404;
+                reply = new byte[0];
+            } else if (batch) {
+                int n = body[17] & 0xFF; // record count after version and device id
+                reply = new byte[1 + n];
+                reply[0] = (byte) n;
+                for (int i = 1; i <= n; i++) reply[i] = 1;
+            } else {
+                reply = new byte[0];
+            }
+            synchronized (BatchUploadBenchmark.class) {
+                posts++;
+                bodyBytes += body.length;
+            }
+            long bytes = body.length + reply.length + LINK_HTTP_HEADERS;
+            sleep(LINK_RTTS_PER_POST * LINK_RTT_MS + bytes * 1000 / LINK_BYTES_PER_S);
+            ex.sendResponseHeaders(status, reply.length == 0 ? -1 : reply.length);
+            OutputStream os = ex.getResponseBody();
+            os.write(reply);
+            os.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws java.io.IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        for (int r; (r = in.read(buf)) > 0; ) out.write(buf, 0, r);
+        return out.toByteArray();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // RecordStore outside the emulator: an in-memory store manager.
+    private static void installMemoryRms() {
+        final org.microemu.util.MemoryRecordStoreManager rms =
+                new org.microemu.util.MemoryRecordStoreManager();
+        org.microemu.MicroEmulator emulator = (org.microemu.MicroEmulator) Proxy.newProxyInstance(
+                BatchUploadBenchmark.class.getClassLoader(),
+                new Class[] { org.microemu.MicroEmulator.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] a) {
+                        if (m.getName().equals("getRecordStoreManager")) return rms;
+                        if (m.getName().equals("checkPermission")) return Integer.valueOf(1);
+                        return null;
+                    }
+                });
+        org.microemu.MIDletBridge.setMicroEmulator(emulator);
+    }
+}
@@ -0,0 +1,202 @@
+package com.elimu;
+
+/**
+ * Host-side parity check of CompressedTinyML's single-pass keyword
+ * automaton against the original indexOf extractor, which lives here so
+ * it no longer ships in the MIDlet. Run on a desktop JVM by `make test`:
+ * exits non-zero on the first query whose 26 keyword bits differ.
+ *
+ * The corpus is the self-test queries, hand-picked edge cases around the
+ * " hi " / "hi" greeting rules and word fragments, plus a deterministic
+ * pseudo-random mix of keyword fragments and filler words (fixed LCG
+ * seed, so runs are repeatable).
+ */
+public class FeatureExtractorParity {
+
+    private static final int BASE_FEATURES = 26;
+
+    public static void main(String[] args) {
+        String[] fixed = {
+            "", "hi", "HI", "Hi there", "hi", "oh hi", "say hi to me", "this is it",
+            "shipping", "sushi bar", "whichever", "beehive", "GOOD BYE", "goodbye", "see you!", "good day mwalimu", "Good Evening",
+            "What Is Photosynthesis?", "roots and leaves", "livingstone", "stem cells",
+            "math science english", "exit quit", "wht is photosyn", "5*4",
+            "how to calculate fractions", "food chain living things", "blood circulatory",
+            "habari yako", "Kwa nini mimea", "take a quiz", "show my progress scores",
+            "good morning hello", "grow water food habitat", "when where why how",
+            "microorganisms cause disease", "inclined plane effort fulcrum",
+            "caf\u00e9 sol\u00eed heart", "\u00c9xit", "H\u00ed hi ", "   hi   "
+        };
+        String[] parts = {
+            "hi", " ", "  ", "a", "s", "the", "what", "hello", "bye", "good", "morning",
+            "day", "night", "evening", "afternoon", "ear", "exit", "chi",
+            "plant", "root", "leaf", "leaves", "photosynthes", "amphibi", "an", "ver",
+            "tebr", "in", "bee", "fish", "scale", "stem", "learn", "teach", "e", "x",
+            "it", "quit", "see", "you", "water", "grow", "heart", "bone", "soil",
+            "MATH", "Science", "?", "!", "1", "/", "\u00e9"
+        };
+        int total = 0;
+        int mismatches = 0;
+        int seed = 20240601;
+        for (int q = 0; q < fixed.length + 400; q++) {
+            String text;
+            if (q < fixed.length) {
+                text = fixed[q];
+            } else {
+                StringBuffer sb = new StringBuffer();
+                seed = seed * 1664525 + 1013904223;
+                int len = 1 + ((seed >>> 8) & 7);
+                for (int k = 0; k < len; k++) {
+                    seed = seed * 1664525 + 1013904223;
+                    sb.append(parts[((seed >>> 8) & 0x7fffff) % parts.length]);
+                }
+                text = sb.toString();
+            }
+            int mask = CompressedTinyML.keywordFeatures(text);
+            byte[] ref = reference(text);
+            total++;
+            for (int j = 0; j < BASE_FEATURES; j++) {
+                if (((mask >>> j) & 1) != ref[j]) {
+                    mismatches++;
+                    System.out.println("[??] feature mismatch f" + j + " on '" + text + "'");
+                    break;
+                }
+            }
+        }
+        System.out.println("Feature extractor parity: " + (total - mismatches)
+                + "/" + total + " identical");
+        if (mismatches > 0) System.exit(1);
+    }
+
+    // ── Reference extractor ───────────────────────────────────────────────────
+    /** The original indexOf-based extractor, kept verbatim as the oracle. */
+    static byte[] reference(String text) {
+        byte[] features = new byte[BASE_FEATURES];
+        String lower = text.toLowerCase();
+
+        // Features 0-8: Subject keywords
+        String[] subjectKeywords = {
+            "math", "science", "english", "calculat", "experiment",
+            "grammar", "plant", "animal", "living"
+        };
+        for (int i = 0; i < subjectKeywords.length; i++) {
+            if (contains(lower, subjectKeywords[i])) features[i] = 1;
+        }
+
+        // Aliases: biology terms not in the primary keyword list
+        if (contains(lower, "insect")    || contains(lower, "vertebr")  ||
+            contains(lower, "invertebr") || contains(lower, "pollinat") ||
+            contains(lower, "bee")       || contains(lower, "worm")     ||
+            contains(lower, "bird")      || contains(lower, "fish")     ||
+            contains(lower, "mammal")    || contains(lower, "reptile")  ||
+            contains(lower, "amphibian")) {
+            features[7] = 1; features[1] = 1;
+        }
+        if (contains(lower, "chlorophyll") || contains(lower, "stomata") ||
+            contains(lower, "transpir")    || contains(lower, "leaf")    ||
+            contains(lower, "leaves")      || contains(lower, "root")    ||
+            contains(lower, "seed")        || contains(lower, "flower")  ||
+            contains(lower, "stem")) {
+            features[6] = 1; features[1] = 1;
+        }
+        if (features[6] == 1 || features[7] == 1 || features[8] == 1) features[1] = 1;
+
+        // Human body / health
+        if (contains(lower, "heart")    || contains(lower, "blood")    ||
+            contains(lower, "circul")   || contains(lower, "artery")   ||
+            contains(lower, "arteries") || contains(lower, "vein")     ||
+            contains(lower, "capillar") || contains(lower, "pulse")    ||
+            contains(lower, "plasma")   || contains(lower, "haemoglob")) {
+            features[1] = 1;
+        }
+        // Reproductive system / adolescence
+        if (contains(lower, "reproduct") || contains(lower, "adolescen") ||
+            contains(lower, "puberty")   || contains(lower, "ovary")    ||
+            contains(lower, "uterus")    || contains(lower, "testis")   ||
+            contains(lower, "sperm")     || contains(lower, "menstruat")||
+            contains(lower, "ovulat")    || contains(lower, "fallopian")) {
+            features[1] = 1;
+        }
+        // Water conservation
+        if (contains(lower, "conserv") || contains(lower, "harvest") ||
+            contains(lower, "recycle") || contains(lower, "mulch")) {
+            features[1] = 1;
+        }
+
+        // Digestive, respiratory, skeletal systems
+        if (contains(lower,"digest") || contains(lower,"stomach") || contains(lower,"intestin") ||
+            contains(lower,"liver")  || contains(lower,"bile")    || contains(lower,"saliva")   ||
+            contains(lower,"oesoph") || contains(lower,"enzyme")) features[1] = 1;
+
+        if (contains(lower,"lung")   || contains(lower,"respirat") || contains(lower,"breath")  ||
+            contains(lower,"trachea")|| contains(lower,"bronch")   || contains(lower,"diaphragm")) features[1] = 1;
+
+        if (contains(lower,"skeleton") || contains(lower,"bone") || contains(lower,"joint")   ||
+            contains(lower,"cartilage") || contains(lower,"muscle") || contains(lower,"skull")) features[1] = 1;
+
+        // Physics and environment
+        if (contains(lower,"lever")  || contains(lower,"pulley") || contains(lower,"machine")  ||
+            contains(lower,"fulcrum") || contains(lower,"effort") || contains(lower,"inclined")) features[1] = 1;
+
+        if (contains(lower,"solid")  || contains(lower,"liquid") || contains(lower,"melting")  ||
+            contains(lower,"boiling")|| contains(lower,"matter")  || contains(lower,"condensat")) features[1] = 1;
+
+        if (contains(lower,"soil")   || contains(lower,"erosion")|| contains(lower,"weather")  ||
+            contains(lower,"loam")   || contains(lower,"sandy")  || contains(lower,"clay")) features[1] = 1;
+
+        if (contains(lower,"bacteria")|| contains(lower,"virus") || contains(lower,"fungus")   ||
+            contains(lower,"microorganism") || contains(lower,"disease") || contains(lower,"germ")) features[1] = 1;
+
+        // Vertebrate groups
+        if (contains(lower,"amphibian") || contains(lower,"reptile") || contains(lower,"frog") ||
+            contains(lower,"lizard")    || contains(lower,"mammal")  || contains(lower,"bird")  ||
+            contains(lower,"gill")      || contains(lower,"feather") || contains(lower,"scale")) {
+            features[7] = 1; features[1] = 1;
+        }
+
+        // Plant reproduction
+        if (contains(lower,"germinat") || contains(lower,"dispersal") || contains(lower,"vegetative")) {
+            features[6] = 1; features[1] = 1;
+        }
+
+        // Features 9-13: Living-things specifics
+        if (contains(lower, "photosynthes")) features[9]  = 1;
+        if (contains(lower, "habitat"))      features[10] = 1;
+        if (contains(lower, "food"))         features[11] = 1;
+        if (contains(lower, "water"))        features[12] = 1;
+        if (contains(lower, "grow"))         features[13] = 1;
+
+        // Features 14-17: Question type
+        if (contains(lower, "what") || contains(lower, "which")) features[14] = 1;
+        if (contains(lower, "how"))                               features[15] = 1;
+        if (contains(lower, "why"))                               features[16] = 1;
+        if (contains(lower, "when") || contains(lower, "where"))  features[17] = 1;
+
+        // Features 18-23: Educational context
+        String[] ctx = {"help", "learn", "teach", "explain", "question", "answer"};
+        for (int i = 0; i < ctx.length; i++) {
+            if (contains(lower, ctx[i])) features[18 + i] = 1;
+        }
+
+        // Feature 24: greeting-specific (hello/hi/hey/good morning/afternoon/evening)
+        if (contains(lower, "hello") || contains(lower, "hey") ||
+            lower.startsWith("hi ") || lower.equals("hi") || contains(lower, " hi ") ||
+            contains(lower, "good morning") || contains(lower, "good afternoon") ||
+            contains(lower, "good evening") || contains(lower, "good day")) {
+            features[24] = 1;
+        }
+        // Feature 25: farewell-specific (bye/goodbye/exit/good night — distinct from greeting)
+        if (contains(lower, "bye") || contains(lower, "goodbye") ||
+            contains(lower, "good bye") || contains(lower, "good night") ||
+            contains(lower, "exit") || contains(lower, "quit") ||
+            contains(lower, "farewell") || contains(lower, "see you")) {
+            features[25] = 1;
+        }
+
+        return features;
+    }
+
+    private static boolean contains(String str, String sub) {
+        return str.indexOf(sub) != -1;
+    }
+}
@@ -0,0 +1,97 @@
+package com.elimu;
+
+/**
+ * Host-side check of the Q8.8 / Q16.16 forward pass. Run on a desktop JVM
+ * by `make test`: exits non-zero on any failure.
+ *
+ *   1. The factory model's fixed-point pass agrees with the float pass on
+ *      top-1 intent and cloud routing for every self-test query
+ *      (CompressedTinyML.testFixedPointParity()).
+ *   2. Layers whose weights, activations or sums leave the int range of the
+ *      old accumulation: in-range values still track the float pass,
+ *      weights beyond Q8.8 saturate to +-128 instead of wrapping, and sums
+ *      beyond the Q16.16 limit saturate with their sign intact.
+ */
+public class FixedPointParity {
+
+    private static boolean ok = true;
+
+    public static void main(String[] args) throws Exception {
+        ok = CompressedTinyML.testFixedPointParity();
+
+        // Dense layer: each Q8.8 x Q16.16 product passes 2^31 (100 * 50).
+        float[] x = {50.0f, 40.0f, 30.0f, 0.5f};
+        float[] w = {100.0f, -90.0f, 3.0f, 0.5f,
+                     -60.0f, 70.0f, -20.0f, 8.0f};
+        float[] b = {1.0f, -2.0f};
+        check("dense, large products", dense(w, b), x, w, b);
+
+        // Weights past Q8.8: compare with the float pass at the clamped values.
+        float[] wide = {200.0f, -300.0f, 1.0f, 0.0f,
+                        -129.0f, 0.25f, 0.0f, 1.0f};
+        float[] clamped = {32767 / 256.0f, -128.0f, 1.0f, 0.0f,
+                           -128.0f, 0.25f, 0.0f, 1.0f};
+        x = new float[] {20.0f, 10.0f, 5.0f, 1.0f};
+        b = new float[] {0.5f, 0.0f};
+        check("dense, weights beyond Q8.8", dense(wide, b), x, clamped, b);
+
+        // Sparse layer: 400 active columns of 127 sum past 2^31 in Q16.16.
+        int in = 400;
+        DenseLayer sparse = layer(in, 2, true);
+        float[] sw = new float[2 * in];
+        for (int j = 0; j < in; j++) {
+            sw[j] = 127.0f;
+            sw[in + j] = -127.0f;
+        }
+        sparse.setWeights(sw, 0);
+        sparse.setBiases(new float[] {0.0f, 0.0f}, 0);
+        short[] active = new short[in];
+        for (int j = 0; j < in; j++) active[j] = (short) j;
+        int[] z = new int[2];
+        sparse.snapshot(true).forwardActiveFixed(active, in, z);
+        boolean pass = z[0] == DenseLayer.Q16_LIMIT && z[1] == -DenseLayer.Q16_LIMIT;
+        report(pass, "sparse, saturated sums: z = " + z[0] + ", " + z[1]
+                + " (limit " + DenseLayer.Q16_LIMIT + ")");
+
+        if (!ok) System.exit(1);
+    }
+
+    private static DenseLayer layer(int in, int out, boolean sparseInput) {
+        DenseLayer l = new DenseLayer(in, out, sparseInput,
+                new byte[(in * out + 1) / 2], 0, new byte[(out + 1) / 2], 0);
+        l.expand();
+        return l;
+    }
+
+    private static DenseLayer dense(float[] w, float[] b) {
+        DenseLayer l = layer(w.length / b.length, b.length, false);
+        l.setWeights(w, 0);
+        l.setBiases(b, 0);
+        return l;
+    }
+
+    // Fixed-point forward of `l` on x against b + W x in double, with W = `ref`.
+    // Rounding W to Q8.8 moves each product by at most |x_j| / 512.
+    private static void check(String name, DenseLayer l, float[] x, float[] ref, float[] b) {
+        int[] qx = new int[x.length];
+        float bound = 1.0f / 65536;
+        for (int j = 0; j < x.length; j++) {
+            qx[j] = DenseLayer.toFixed(x[j], 16);
+            bound += Math.abs(x[j]) / 512.0f + 1.0f / 65536;
+        }
+        int[] z = new int[l.out];
+        l.snapshot(true).forwardFixed(qx, z);
+        double worst = 0.0;
+        for (int i = 0; i < l.out; i++) {
+            double want = b[i];
+            for (int j = 0; j < x.length; j++) want += (double) ref[i * x.length + j] * x[j];
+            worst = Math.max(worst, Math.abs(z[i] / 65536.0 - want));
+        }
+        report(worst <= bound, name + ": max|dz| " + worst + " (bound " + bound + ")");
+    }
+
+    private static void report(boolean pass, String line) {
+        ok &= pass;
+        System.out.println((pass ? "[OK] " : "[FAIL] ") + line);
+    }
+}